@@ -0,0 +1,346 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Version;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Library source provider for libraries distributed in a single file, either a zip (or jar) archive or a bundle
+ * written by writeBundle. Sources are named as for DefaultLibrarySourceProvider, <name>[-<version>].cql, in any
+ * directory of a zip archive.
+ *
+ * A bundle starts with an index of the name, version, offset and length of each source, and is memory mapped, so
+ * that sources are read directly from the mapped file. Entries of a zip archive are read through ZipFile, since
+ * they are generally compressed.
+ *
+ * Unlike DefaultLibrarySourceProvider, a library requested with a version is only resolved to a source with that
+ * version, so that other providers registered with the loader may provide it. A library requested without a version
+ * is resolved to its most recent version in the archive.
+ */
+public class ArchiveLibrarySourceProvider implements LibrarySourceProvider, Closeable {
+    private static final int BUNDLE_MAGIC = 0x43514c42; // CQLB
+    private static final int BUNDLE_VERSION = 1;
+
+    private final Path path;
+    private final ZipFile zipFile;
+    private final ByteBuffer bundle;
+    // Sources by name, then by version, with a null version for an unversioned source
+    private final Map<String, Map<String, Source>> sources = new HashMap<>();
+    private final Map<String, Source> mostRecentSources = new HashMap<>();
+
+    public ArchiveLibrarySourceProvider(Path path) {
+        if (path == null || !Files.isRegularFile(path)) {
+            throw new IllegalArgumentException(String.format("path '%s' is not a valid file", path));
+        }
+
+        this.path = path;
+        try {
+            if (isBundle(path)) {
+                zipFile = null;
+                bundle = map(path);
+                readBundleIndex();
+            }
+            else {
+                zipFile = new ZipFile(path.toFile());
+                bundle = null;
+                try {
+                    readZipIndex();
+                }
+                catch (RuntimeException e) {
+                    zipFile.close();
+                    throw e;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Could not read library archive %s.", path), e);
+        }
+
+        for (Map.Entry<String, Map<String, Source>> entry : sources.entrySet()) {
+            mostRecentSources.put(entry.getKey(), getMostRecent(entry.getValue()));
+        }
+    }
+
+    private static final class Source {
+        private final String entryName;
+        private final int offset;
+        private final int length;
+
+        public Source(String entryName, int offset, int length) {
+            this.entryName = entryName;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static boolean isBundle(Path path) throws IOException {
+        try (DataInputStream is = new DataInputStream(Files.newInputStream(path))) {
+            return is.readInt() == BUNDLE_MAGIC;
+        }
+        catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Bundles larger than 2GB are not supported.");
+            }
+
+            // The mapping remains valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private void readBundleIndex() throws IOException {
+        DataInputStream is = new DataInputStream(new ByteBufferInputStream(bundle.duplicate()));
+        is.readInt();
+        int version = is.readInt();
+        if (version != BUNDLE_VERSION) {
+            throw new IOException(String.format("Unsupported bundle version %d.", version));
+        }
+
+        int count = is.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = is.readUTF();
+            String libraryVersion = is.readUTF();
+            int offset = is.readInt();
+            int length = is.readInt();
+            if (offset < 0 || length < 0 || offset > bundle.capacity() - length) {
+                throw new IOException(String.format("Invalid bundle entry for library %s.", name));
+            }
+
+            addSource(name, libraryVersion.isEmpty() ? null : libraryVersion, new Source(null, offset, length));
+        }
+    }
+
+    private void readZipIndex() {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String entryName = entry.getName();
+            String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+            if (entry.isDirectory() || !fileName.endsWith(".cql")) {
+                continue;
+            }
+
+            String[] nameAndVersion = getNameAndVersion(fileName);
+            addSource(nameAndVersion[0], nameAndVersion[1], new Source(entryName, 0, 0));
+        }
+    }
+
+    /**
+     * Splits a source file name of the form <name>[-<version>].cql.
+     */
+    private static String[] getNameAndVersion(String fileName) {
+        String name = fileName.substring(0, fileName.length() - ".cql".length());
+        int indexOfVersionSeparator = name.indexOf('-');
+        if (indexOfVersionSeparator >= 0) {
+            return new String[] { name.substring(0, indexOfVersionSeparator), name.substring(indexOfVersionSeparator + 1) };
+        }
+
+        return new String[] { name, null };
+    }
+
+    private void addSource(String name, String version, Source source) {
+        Source existing = sources.computeIfAbsent(name, k -> new HashMap<>()).putIfAbsent(version, source);
+        if (existing != null) {
+            throw new IllegalArgumentException(String.format("Library archive %s contains multiple sources for library %s, version %s.",
+                    path, name, version));
+        }
+    }
+
+    private static Source getMostRecent(Map<String, Source> versions) {
+        // As for DefaultLibrarySourceProvider, an unversioned source is only the most recent if there are no others
+        Source result = versions.get(null);
+        Version mostRecent = null;
+        for (Map.Entry<String, Source> entry : versions.entrySet()) {
+            if (entry.getKey() == null) {
+                continue;
+            }
+
+            Version version;
+            try {
+                version = new Version(entry.getKey());
+            }
+            catch (IllegalArgumentException e) {
+                continue;
+            }
+
+            if (mostRecent == null || version.compareTo(mostRecent) > 0) {
+                mostRecent = version;
+                result = entry.getValue();
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
+        Source source;
+        if (libraryIdentifier.getVersion() != null) {
+            Map<String, Source> versions = sources.get(libraryIdentifier.getId());
+            source = versions != null ? versions.get(libraryIdentifier.getVersion()) : null;
+        }
+        else {
+            source = mostRecentSources.get(libraryIdentifier.getId());
+        }
+
+        if (source == null) {
+            return null;
+        }
+
+        if (bundle != null) {
+            ByteBuffer buffer = bundle.duplicate();
+            buffer.position(source.offset);
+            buffer.limit(source.offset + source.length);
+            return new ByteBufferInputStream(buffer.slice());
+        }
+
+        try {
+            return zipFile.getInputStream(zipFile.getEntry(source.entryName));
+        }
+        catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException(String.format("Could not load source for library %s.", libraryIdentifier.getId()), e);
+        }
+    }
+
+    /**
+     * Returns the identifiers of the libraries in the archive, with a null version for unversioned sources.
+     * @return the library identifiers
+     */
+    public List<VersionedIdentifier> getLibraryIdentifiers() {
+        List<VersionedIdentifier> result = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Source>> entry : sources.entrySet()) {
+            for (String version : entry.getValue().keySet()) {
+                result.add(new VersionedIdentifier().withId(entry.getKey()).withVersion(version));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Closes the zip archive. Sources of a bundle remain readable, since the mapping of the bundle is only released
+     * when it is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (zipFile != null) {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Writes a bundle of the .cql sources in the given directory, which must be named <name>[-<version>].cql.
+     * @param directory the directory of the sources
+     * @param bundlePath the bundle to write
+     * @throws IOException if the sources cannot be read or the bundle cannot be written
+     */
+    public static void writeBundle(Path directory, Path bundlePath) throws IOException {
+        SortedMap<String, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.cql")) {
+            for (Path file : stream) {
+                files.put(file.getFileName().toString(), file);
+            }
+        }
+
+        List<String[]> identifiers = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        int headerLength = 12;
+        for (Map.Entry<String, Path> entry : files.entrySet()) {
+            String[] nameAndVersion = getNameAndVersion(entry.getKey());
+            if (nameAndVersion[1] == null) {
+                nameAndVersion[1] = "";
+            }
+
+            identifiers.add(nameAndVersion);
+            contents.add(Files.readAllBytes(entry.getValue()));
+            headerLength += getUtfLength(nameAndVersion[0]) + getUtfLength(nameAndVersion[1]) + 8;
+        }
+
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(bundlePath)))) {
+            os.writeInt(BUNDLE_MAGIC);
+            os.writeInt(BUNDLE_VERSION);
+            os.writeInt(identifiers.size());
+            long offset = headerLength;
+            for (int i = 0; i < identifiers.size(); i++) {
+                if (offset + contents.get(i).length > Integer.MAX_VALUE) {
+                    throw new IOException("Bundles larger than 2GB are not supported.");
+                }
+
+                os.writeUTF(identifiers.get(i)[0]);
+                os.writeUTF(identifiers.get(i)[1]);
+                os.writeInt((int)offset);
+                os.writeInt(contents.get(i).length);
+                offset += contents.get(i).length;
+            }
+
+            for (byte[] content : contents) {
+                os.write(content);
+            }
+        }
+    }
+
+    private static int getUtfLength(String value) throws IOException {
+        // The length written by DataOutputStream.writeUTF
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(value);
+        return bytes.size();
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer, without copying them out of the buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -42,6 +42,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     private boolean dateRangeOptimization = false;
     private boolean detailedErrors = false;
     private boolean methodInvocation = true;
+    private boolean headerOnly = false;
     private TokenStream tokenStream;
 
     private final LibraryBuilder libraryBuilder;
@@ -116,6 +117,22 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         resultTypes = false;
     }
 
+    /**
+     * Skips the expression definitions of the library, other than those needed by the rest of the library, which
+     * can then be translated when they are first referenced, see resolveExpressionDefinition.
+     */
+    public void enableHeaderOnly() {
+        headerOnly = true;
+    }
+
+    public void disableHeaderOnly() {
+        headerOnly = false;
+    }
+
+    public boolean isHeaderOnlyEnabled() {
+        return headerOnly;
+    }
+
     public void enableDateRangeOptimization() {
         dateRangeOptimization = true;
     }
@@ -156,6 +173,23 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         tokenStream = value;
     }
 
+    /**
+     * Releases the state that is only needed while the parse tree is visited, the token stream and the parse tree
+     * contexts of the library info, so that a visitor kept after translation does not keep the parse tree, the tokens
+     * and the source reachable. The results of the visit are kept. CqlTranslator releases the parse state unless its
+     * library manager keeps ALL translators, as the MAT code reads the parse state of kept translators.
+     */
+    public void releaseParseState() {
+        tokenStream = null;
+        chunks = new Stack<>();
+        forwards.clear();
+        forwardFunctions.clear();
+        timingOperators.clear();
+        if (libraryInfo != null) {
+            libraryInfo.releaseDefinitions();
+        }
+    }
+
     public List<Retrieve> getRetrieves() {
         return retrieves;
     }
@@ -316,7 +350,13 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         try {
             // Loop through and call visit on each child (to ensure they are tracked)
             for (int i = 0; i < ctx.getChildCount(); i++) {
-                lastResult = visit(ctx.getChild(i));
+                ParseTree child = ctx.getChild(i);
+                if (headerOnly && child instanceof cqlParser.StatementContext
+                        && ((cqlParser.StatementContext)child).expressionDefinition() != null) {
+                    continue;
+                }
+
+                lastResult = visit(child);
             }
 
             // Return last result (consistent with super implementation and helps w/ testing)
@@ -444,15 +484,15 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
 
     @Override
     public Object visitTupleTypeSpecifier(@NotNull cqlParser.TupleTypeSpecifierContext ctx) {
-        TupleType resultType = new TupleType();
+        List<TupleTypeElement> resultElements = new ArrayList<>();
         TupleTypeSpecifier typeSpecifier = of.createTupleTypeSpecifier();
         for (cqlParser.TupleElementDefinitionContext definitionContext : ctx.tupleElementDefinition()) {
             TupleElementDefinition element = (TupleElementDefinition)visit(definitionContext);
-            resultType.addElement(new TupleTypeElement(element.getName(), element.getType().getResultType()));
+            resultElements.add(new TupleTypeElement(element.getName(), element.getType().getResultType()));
             typeSpecifier.getElement().add(element);
         }
 
-        typeSpecifier.setResultType(resultType);
+        typeSpecifier.setResultType(libraryBuilder.getTypeInterner().tupleOf(resultElements));
 
         return typeSpecifier;
     }
@@ -467,7 +507,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
             types.add(typeSpecifier.getResultType());
         }
         ChoiceTypeSpecifier result = of.createChoiceTypeSpecifier().withType(typeSpecifiers);
-        ChoiceType choiceType = new ChoiceType(types);
+        ChoiceType choiceType = libraryBuilder.getTypeInterner().choiceOf(types);
         result.setResultType(choiceType);
         return result;
     }
@@ -475,7 +515,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     @Override
     public IntervalTypeSpecifier visitIntervalTypeSpecifier(@NotNull cqlParser.IntervalTypeSpecifierContext ctx) {
         IntervalTypeSpecifier result = of.createIntervalTypeSpecifier().withPointType(parseTypeSpecifier(ctx.typeSpecifier()));
-        IntervalType intervalType = new IntervalType(result.getPointType().getResultType());
+        IntervalType intervalType = libraryBuilder.getTypeInterner().intervalOf(result.getPointType().getResultType());
         result.setResultType(intervalType);
         return result;
     }
@@ -483,7 +523,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     @Override
     public ListTypeSpecifier visitListTypeSpecifier(@NotNull cqlParser.ListTypeSpecifierContext ctx) {
         ListTypeSpecifier result = of.createListTypeSpecifier().withElementType(parseTypeSpecifier(ctx.typeSpecifier()));
-        ListType listType = new ListType(result.getElementType().getResultType());
+        ListType listType = libraryBuilder.getTypeInterner().listOf(result.getElementType().getResultType());
         result.setResultType(listType);
         return result;
     }
@@ -504,7 +544,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                 .withName(parseString(ctx.identifier()))
                 .withId(parseString(ctx.codesystemId()))
                 .withVersion(parseString(ctx.versionSpecifier()))
-                .withResultType(new ListType(libraryBuilder.resolveTypeName("System", "Code")));
+                .withResultType(libraryBuilder.getTypeInterner().listOf(libraryBuilder.resolveTypeName("System", "Code")));
 
         libraryBuilder.addCodeSystem(cs);
 
@@ -577,7 +617,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                 vs.getCodeSystem().add((CodeSystemRef)visit(codesystem));
             }
         }
-        vs.setResultType(new ListType(libraryBuilder.resolveTypeName("System", "Code")));
+        vs.setResultType(libraryBuilder.getTypeInterner().listOf(libraryBuilder.resolveTypeName("System", "Code")));
         libraryBuilder.addValueSet(vs);
 
         // use in MAT Code. Creates a Valueset Model Object which holds important information.
@@ -662,7 +702,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                 DataType patientType = libraryBuilder.resolveTypeName(modelInfo.getName(), patientTypeName);
                 Retrieve patientRetrieve = of.createRetrieve().withDataType(libraryBuilder.dataTypeToQName(patientType));
                 track(patientRetrieve, ctx);
-                patientRetrieve.setResultType(new ListType(patientType));
+                patientRetrieve.setResultType(libraryBuilder.getTypeInterner().listOf(patientType));
                 String patientClassIdentifier = modelInfo.getPatientClassIdentifier();
                 if (patientClassIdentifier != null) {
                     patientRetrieve.setTemplateId(patientClassIdentifier);
@@ -775,13 +815,13 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     @Override
     public Object visitTupleSelector(@NotNull cqlParser.TupleSelectorContext ctx) {
         Tuple tuple = of.createTuple();
-        TupleType tupleType = new TupleType();
+        List<TupleTypeElement> tupleElements = new ArrayList<>();
         for (cqlParser.TupleElementSelectorContext elementContext : ctx.tupleElementSelector()) {
             TupleElement element = (TupleElement)visit(elementContext);
-            tupleType.addElement(new TupleTypeElement(element.getName(), element.getResultType()));
+            tupleElements.add(new TupleTypeElement(element.getName(), element.getResultType()));
             tuple.getElement().add(element);
         }
-        tuple.setResultType(tupleType);
+        tuple.setResultType(libraryBuilder.getTypeInterner().tupleOf(tupleElements));
         return tuple;
     }
 
@@ -847,7 +887,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         if (elementTypeSpecifier != null) {
             ListTypeSpecifier listTypeSpecifier = of.createListTypeSpecifier().withElementType(elementTypeSpecifier);
             track(listTypeSpecifier, ctx.typeSpecifier());
-            listType = new ListType(elementTypeSpecifier.getResultType());
+            listType = libraryBuilder.getTypeInterner().listOf(elementTypeSpecifier.getResultType());
             listTypeSpecifier.setResultType(listType);
         }
 
@@ -899,7 +939,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         }
 
         if (listType == null) {
-            listType = new ListType(elementType);
+            listType = libraryBuilder.getTypeInterner().listOf(elementType);
         }
 
         list.setResultType(listType);
@@ -1683,7 +1723,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                 }
 
                 if (elementTypes.size() > 1) {
-                    ListType targetType = new ListType(new ChoiceType(elementTypes));
+                    ListType targetType = libraryBuilder.getTypeInterner().listOf(libraryBuilder.getTypeInterner().choiceOf(elementTypes));
                     left = of.createAs().withOperand(left).withAsTypeSpecifier(libraryBuilder.dataTypeToTypeSpecifier(targetType));
                     track(left, ctx.expression(0));
                     left.setResultType(targetType);
@@ -2847,7 +2887,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
 
         retrieves.add(retrieve);
 
-        retrieve.setResultType(new ListType((DataType) namedType));
+        retrieve.setResultType(libraryBuilder.getTypeInterner().listOf((DataType) namedType));
 
         return retrieve;
     }
@@ -2917,7 +2957,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                             .withDistinct(true);
 
                     Tuple returnExpression = of.createTuple();
-                    TupleType returnType = new TupleType();
+                    List<TupleTypeElement> returnElements = new ArrayList<>();
                     for (AliasedQuerySource aqs : sources) {
                         TupleElement element =
                                 of.createTupleElement()
@@ -2926,11 +2966,13 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
                         DataType sourceType = aqs.getResultType() instanceof ListType ? ((ListType)aqs.getResultType()).getElementType() : aqs.getResultType();
                         element.getValue().setResultType(sourceType); // Doesn't use the fluent API to avoid casting
                         element.setResultType(element.getValue().getResultType());
-                        returnType.addElement(new TupleTypeElement(element.getName(), element.getResultType()));
+                        returnElements.add(new TupleTypeElement(element.getName(), element.getResultType()));
                         returnExpression.getElement().add(element);
                     }
 
-                    returnExpression.setResultType(queryContext.isSingular() ? returnType : new ListType(returnType));
+                    TupleType returnType = libraryBuilder.getTypeInterner().tupleOf(returnElements);
+
+                    returnExpression.setResultType(queryContext.isSingular() ? returnType : libraryBuilder.getTypeInterner().listOf(returnType));
                     ret.setExpression(returnExpression);
                     ret.setResultType(returnExpression.getResultType());
                 }
@@ -3139,7 +3181,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
     private boolean isRHSEligibleForDateRangeOptimization(Expression rhs) {
         return
                 rhs.getResultType().isSubTypeOf(libraryBuilder.resolveTypeName("System", "DateTime"))
-                        || rhs.getResultType().isSubTypeOf(new IntervalType(libraryBuilder.resolveTypeName("System", "DateTime")));
+                        || rhs.getResultType().isSubTypeOf(libraryBuilder.getTypeInterner().intervalOf(libraryBuilder.resolveTypeName("System", "DateTime")));
 
         // BTR: The only requirement for the optimization is that the expression be of type DateTime or Interval<DateTime>
         // Whether or not the expression can be statically evaluated (literal, in the loose sense of the word) is really
@@ -3269,7 +3311,7 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         returnClause.setExpression(parseExpression(ctx.expression()));
         returnClause.setResultType(libraryBuilder.peekQueryContext().isSingular()
                 ? returnClause.getExpression().getResultType()
-                : new ListType(returnClause.getExpression().getResultType()));
+                : libraryBuilder.getTypeInterner().listOf(returnClause.getExpression().getResultType()));
 
         return returnClause;
     }
@@ -3398,29 +3440,50 @@ public class Cql2ElmVisitor extends cqlBaseVisitor {
         return current;
     }
 
+    /**
+     * Translates the expression definition with the given name, if the library defines one that has not been
+     * translated yet, as when the definition is referenced before it is defined. Libraries translated header only
+     * use this to translate their expression definitions when they are first referenced by other libraries.
+     * @param identifier the name of the expression definition
+     * @return the expression definition, or null if the library does not define one with the given name
+     */
+    public ExpressionDef resolveExpressionDefinition(String identifier) {
+        ExpressionDefinitionInfo expressionInfo = libraryInfo.resolveExpressionReference(identifier);
+        if (expressionInfo == null || expressionInfo.getDefinition() == null) {
+            return null;
+        }
+
+        visitForwardExpressionDefinition(expressionInfo);
+        return libraryBuilder.resolveExpressionRef(identifier);
+    }
+
+    private void visitForwardExpressionDefinition(ExpressionDefinitionInfo expressionInfo) {
+        String saveContext = currentContext;
+        currentContext = expressionInfo.getContext();
+        try {
+            Stack<Chunk> saveChunks = chunks;
+            chunks = new Stack<Chunk>();
+            forwards.push(expressionInfo);
+            try {
+                // Have to call the visit to get the outer processing to occur
+                visit(expressionInfo.getDefinition());
+            }
+            finally {
+                chunks = saveChunks;
+                forwards.pop();
+            }
+        } finally {
+            currentContext = saveContext;
+        }
+    }
+
     private Expression resolveIdentifier(String identifier) {
         // If the identifier cannot be resolved in the library builder, check for forward declarations for expressions and parameters
         Expression result = libraryBuilder.resolveIdentifier(identifier, false);
         if (result == null) {
             ExpressionDefinitionInfo expressionInfo = libraryInfo.resolveExpressionReference(identifier);
             if (expressionInfo != null) {
-                String saveContext = currentContext;
-                currentContext = expressionInfo.getContext();
-                try {
-                    Stack<Chunk> saveChunks = chunks;
-                    chunks = new Stack<Chunk>();
-                    forwards.push(expressionInfo);
-                    try {
-                        // Have to call the visit to get the outer processing to occur
-                        visit(expressionInfo.getDefinition());
-                    }
-                    finally {
-                        chunks = saveChunks;
-                        forwards.pop();
-                    }
-                } finally {
-                    currentContext = saveContext;
-                }
+                visitForwardExpressionDefinition(expressionInfo);
             }
 
             ParameterDefinitionInfo parameterInfo = libraryInfo.resolveParameterReference(identifier);
@@ -0,0 +1,154 @@
+package org.cqframework.cql.cql2elm;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.cqframework.cql.gen.cqlLexer;
+import org.cqframework.cql.gen.cqlParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * Manages the DFA caches the generated CQL lexer and parser share across all instances in the JVM, along with the
+ * prediction context caches the DFA states are built from.
+ *
+ * The caches are built lazily as input is parsed, so the first translations in a fresh JVM are several times
+ * slower than later ones. warmUp() primes them by parsing a bundled corpus of representative libraries (or any
+ * given CQL). The caches only ever grow, so long-running services can monitor them with getDfaStateCount() and
+ * release them, prediction contexts included, with clearDfaCache(), which should only be called while no translation
+ * is in progress.
+ */
+public class CqlParserWarmup {
+    private static final String[] CORPUS = {
+            "CMS146v2_CQM.cql",
+            "CMS55v1_QDM.cql",
+            "CMS153.cql",
+            "ChlamydiaScreening_CDS.cql"
+    };
+
+    private CqlParserWarmup() {
+    }
+
+    /**
+     * Parses the bundled warm-up corpus to populate the shared lexer and parser DFA caches.
+     * @return the number of libraries parsed
+     */
+    public static int warmUp() {
+        int count = 0;
+        for (String name : CORPUS) {
+            try (InputStream is = CqlParserWarmup.class.getResourceAsStream("warmup/" + name)) {
+                if (is != null) {
+                    parse(new ANTLRInputStream(is));
+                    count++;
+                }
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException(String.format("Could not read warm-up library %s.", name), e);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Parses the given CQL to populate the shared lexer and parser DFA caches, for services that want to
+     * warm up with their own libraries. Syntax errors are ignored.
+     * @param cqlText the CQL to parse
+     */
+    public static void warmUp(String cqlText) {
+        if (cqlText == null) {
+            throw new IllegalArgumentException("cqlText is null");
+        }
+
+        parse(new ANTLRInputStream(cqlText));
+    }
+
+    /**
+     * Returns the number of DFA states currently cached for the CQL parser.
+     * @return the cached parser DFA state count
+     */
+    public static int getParserDfaStateCount() {
+        return getDfaStateCount(newParser().getInterpreter().decisionToDFA);
+    }
+
+    /**
+     * Returns the number of DFA states currently cached for the CQL lexer.
+     * @return the cached lexer DFA state count
+     */
+    public static int getLexerDfaStateCount() {
+        return getDfaStateCount(newLexer().getInterpreter().decisionToDFA);
+    }
+
+    /**
+     * Returns the total number of DFA states currently cached for the CQL lexer and parser.
+     * @return the cached DFA state count
+     */
+    public static int getDfaStateCount() {
+        return getLexerDfaStateCount() + getParserDfaStateCount();
+    }
+
+    /**
+     * Returns the number of prediction contexts currently cached for the CQL lexer and parser.
+     * @return the cached prediction context count
+     */
+    public static int getPredictionContextCount() {
+        return newLexer().getInterpreter().getSharedContextCache().size()
+                + newParser().getInterpreter().getSharedContextCache().size();
+    }
+
+    /**
+     * Discards the cached lexer and parser DFA states, and the prediction contexts they were built from. Must not be
+     * called while input is being parsed.
+     */
+    public static void clearDfaCache() {
+        cqlLexer lexer = newLexer();
+        lexer.getInterpreter().clearDFA();
+        clearContextCache(lexer.getInterpreter().getSharedContextCache());
+
+        cqlParser parser = newParser();
+        parser.getInterpreter().clearDFA();
+        clearContextCache(parser.getInterpreter().getSharedContextCache());
+    }
+
+    private static void clearContextCache(PredictionContextCache contextCache) {
+        // The runtime has no way to clear the cache, its map is only exposed to subclasses
+        try {
+            Field field = PredictionContextCache.class.getDeclaredField("cache");
+            field.setAccessible(true);
+            ((Map<?, ?>)field.get(contextCache)).clear();
+        }
+        catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not clear the prediction context cache.", e);
+        }
+    }
+
+    private static int getDfaStateCount(DFA[] decisionToDFA) {
+        int count = 0;
+        for (DFA dfa : decisionToDFA) {
+            count += dfa.states.size();
+        }
+
+        return count;
+    }
+
+    private static cqlLexer newLexer() {
+        return new cqlLexer(new ANTLRInputStream(""));
+    }
+
+    private static cqlParser newParser() {
+        return new cqlParser(new CommonTokenStream(newLexer()));
+    }
+
+    private static void parse(ANTLRInputStream is) {
+        cqlLexer lexer = new cqlLexer(is);
+        lexer.removeErrorListeners();
+        cqlParser parser = new cqlParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.setBuildParseTree(false);
+        parser.library();
+    }
+}
@@ -4,26 +4,31 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.misc.NotNull;
 import org.antlr.v4.runtime.misc.Nullable;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
 import org.cqframework.cql.cql2elm.preprocessor.CqlPreprocessorVisitor;
+import org.cqframework.cql.cql2elm.preprocessor.LibraryInfo;
 import org.cqframework.cql.elm.tracking.TrackBack;
 import org.cqframework.cql.gen.cqlLexer;
 import org.cqframework.cql.gen.cqlParser;
-import org.hl7.cql_annotations.r1.Annotation;
+import org.hl7.elm.r1.ExpressionDef;
 import org.hl7.elm.r1.Library;
-import org.hl7.elm.r1.ObjectFactory;
 import org.hl7.elm.r1.Retrieve;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
 import javax.xml.bind.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
 import static java.nio.file.FileVisitResult.CONTINUE;
 
@@ -38,8 +43,10 @@ public class CqlTranslator {
         DisableDemotion,
         DisablePromotion,
         DisableMethodInvocation,
+        EnableTwoStageParsing,
+        EnableHeaderOnlyIncludes,
     }
-    public static enum Format { XML, JSON, COFFEE }
+    public static enum Format { XML, JSON, MOXY_JSON, COFFEE }
     private Library library = null;
     private TranslatedLibrary translatedLibrary = null;
     private Object visitResult = null;
@@ -51,11 +58,22 @@ public class CqlTranslator {
     private ModelManager modelManager = null;
     private LibraryManager libraryManager = null;
     private CqlTranslatorException.ErrorSeverity errorLevel = CqlTranslatorException.ErrorSeverity.Info;
-    private JAXBContext jaxbContext;
+    private ElmJaxbContext jaxbContext = ElmJaxbContext.getDefault();
+    private ElmJsonWriter jsonWriter = new ElmJsonWriter();
+    private PredictionMode predictionMode = null;
+    private LibraryInfo libraryInfo = null;
 
     // for use in mat code... we want to capture the visitor information.
     private Cql2ElmVisitor finalVisitor;
 
+    /**
+     * Primes the parser caches shared by all translators with a bundled corpus, so that the first translations
+     * in a fresh JVM run at steady-state speed. See CqlParserWarmup for managing the caches.
+     */
+    public static void warmUp() {
+        CqlParserWarmup.warmUp();
+    }
+
     public static CqlTranslator fromText(String cqlText, ModelManager modelManager, LibraryManager libraryManager, Options... options) {
         return new CqlTranslator(new ANTLRInputStream(cqlText), modelManager, libraryManager, CqlTranslatorException.ErrorSeverity.Info, options);
     }
@@ -92,17 +110,27 @@ public class CqlTranslator {
         return new CqlTranslator(new ANTLRInputStream(new FileInputStream(cqlFile)), modelManager, libraryManager, errorLevel, options);
     }
 
+    /**
+     * Translates an included library header only, as the LibraryManager does for the EnableHeaderOnlyIncludes option:
+     * the declarations of the library are translated, but its expression definitions are only translated when they
+     * are first referenced by another library, so that definitions no other library uses are never translated.
+     */
+    static CqlTranslator headerFromStream(InputStream cqlStream, ModelManager modelManager, LibraryManager libraryManager,
+                                          Options... options) throws IOException {
+        return new CqlTranslator(new ANTLRInputStream(cqlStream), modelManager, libraryManager,
+                CqlTranslatorException.ErrorSeverity.Info, true, options);
+    }
+
     private CqlTranslator(ANTLRInputStream is, ModelManager modelManager, LibraryManager libraryManager,
                           CqlTranslatorException.ErrorSeverity errorLevel, Options... options) {
+        this(is, modelManager, libraryManager, errorLevel, false, options);
+    }
+
+    private CqlTranslator(ANTLRInputStream is, ModelManager modelManager, LibraryManager libraryManager,
+                          CqlTranslatorException.ErrorSeverity errorLevel, boolean headerOnly, Options... options) {
         this.modelManager = modelManager;
         this.libraryManager = libraryManager;
-        try {
-            this.jaxbContext = JAXBContext.newInstance(Library.class, Annotation.class);
-        } catch (JAXBException e) {
-            e.printStackTrace();
-            throw new RuntimeException("Error creating JAXBContext - " + e.getMessage());
-        }
-        translateToELM(is, errorLevel, options);
+        translateToELM(is, errorLevel, headerOnly, options);
     }
 
     public String toXml() {
@@ -123,14 +151,131 @@ public class CqlTranslator {
         }
     }
 
+    /**
+     * Returns the ELM JSON for the translated library as produced by the EclipseLink MOXy marshaller.
+     * The output is identical to toJson(), which is considerably faster, and is kept for comparison.
+     * @return the ELM JSON
+     */
+    public String toMoxyJson() {
+        try {
+            return convertToMoxyJson(library);
+        }
+        catch (JAXBException e) {
+            throw new IllegalArgumentException("Could not convert library to JSON.", e);
+        }
+    }
+
+    /**
+     * Gets the JAXB context used to serialize the translated library. Defaults to the shared
+     * context returned by ElmJaxbContext.getDefault().
+     * @return the JAXB context
+     */
+    public ElmJaxbContext getJaxbContext() {
+        return jaxbContext;
+    }
+
+    /**
+     * Sets the JAXB context used to serialize the translated library, for callers that need a custom context.
+     * @param jaxbContext the JAXB context
+     */
+    public void setJaxbContext(ElmJaxbContext jaxbContext) {
+        if (jaxbContext == null) {
+            throw new IllegalArgumentException("jaxbContext is null");
+        }
+
+        this.jaxbContext = jaxbContext;
+    }
+
+    /**
+     * Writes the ELM XML for the translated library directly to the given writer, without building an intermediate string.
+     * @param writer the writer to receive the output, left open on return
+     */
+    public void writeXml(Writer writer) {
+        try {
+            jaxbContext.marshalXml(library, writer);
+        }
+        catch (JAXBException e) {
+            throw new IllegalArgumentException("Could not convert library to XML.", e);
+        }
+    }
+
+    /**
+     * Writes the ELM XML for the translated library directly to the given stream as UTF-8.
+     * @param outputStream the stream to receive the output, left open on return
+     */
+    public void writeXml(OutputStream outputStream) {
+        try {
+            jaxbContext.marshalXml(library, outputStream);
+        }
+        catch (JAXBException e) {
+            throw new IllegalArgumentException("Could not convert library to XML.", e);
+        }
+    }
+
+    /**
+     * Writes the ELM JSON for the translated library directly to the given writer, without building an intermediate string.
+     * @param writer the writer to receive the output, left open on return
+     */
+    public void writeJson(Writer writer) {
+        try {
+            jsonWriter.write(library, writer);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not convert library to JSON.", e);
+        }
+    }
+
+    /**
+     * Writes the ELM JSON for the translated library directly to the given stream as UTF-8.
+     * @param outputStream the stream to receive the output, left open on return
+     */
+    public void writeJson(OutputStream outputStream) {
+        try {
+            jsonWriter.write(library, outputStream);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Could not convert library to JSON.", e);
+        }
+    }
+
+    /**
+     * Writes the ELM JSON for the translated library to the given writer using the EclipseLink MOXy marshaller.
+     * @param writer the writer to receive the output, left open on return
+     */
+    public void writeMoxyJson(Writer writer) {
+        try {
+            jaxbContext.marshalJson(library, writer);
+        }
+        catch (JAXBException e) {
+            throw new IllegalArgumentException("Could not convert library to JSON.", e);
+        }
+    }
+
     public Library toELM() {
         return library;
     }
 
+    /**
+     * Returns the prediction mode of the parse that produced the translated library. With EnableTwoStageParsing
+     * this is SLL if the fast first stage succeeded, or LL if the library had to be parsed again.
+     * @return the prediction mode used to parse the library
+     */
+    public PredictionMode getPredictionMode() {
+        return predictionMode;
+    }
+
     public TranslatedLibrary getTranslatedLibrary() {
         return translatedLibrary;
     }
 
+    /**
+     * Returns the declarations collected from the library by the preprocessor, including its includes.
+     * @return the library info
+     */
+    public LibraryInfo getLibraryInfo() {
+        return libraryInfo;
+    }
+
     public Object toObject() {
         return visitResult;
     }
@@ -185,7 +330,8 @@ public class CqlTranslator {
         }
     }
 
-    private void translateToELM(ANTLRInputStream is, CqlTranslatorException.ErrorSeverity errorLevel, Options... options) {
+    private void translateToELM(ANTLRInputStream is, CqlTranslatorException.ErrorSeverity errorLevel, boolean headerOnly,
+                                Options... options) {
         cqlLexer lexer = new cqlLexer(is);
         CommonTokenStream tokens = new CommonTokenStream(lexer);
         cqlParser parser = new cqlParser(tokens);
@@ -197,19 +343,25 @@ public class CqlTranslator {
         messages = new ArrayList<>();
         LibraryBuilder builder = new LibraryBuilder(modelManager, libraryManager);
         builder.setErrorLevel(errorLevel);
+        builder.setTranslatorOptions(options);
         List<Options> optionList = Arrays.asList(options);
         Cql2ElmVisitor visitor = new Cql2ElmVisitor(builder);
         finalVisitor = visitor;
         if (optionList.contains(Options.EnableDateRangeOptimization)) {
             visitor.enableDateRangeOptimization();
         }
-        if (optionList.contains(Options.EnableAnnotations)) {
+        // Annotations, locators and result types only matter for the ELM of the library itself, which is not
+        // complete for a library translated header only
+        if (headerOnly) {
+            visitor.enableHeaderOnly();
+        }
+        if (optionList.contains(Options.EnableAnnotations) && !headerOnly) {
             visitor.enableAnnotations();
         }
-        if (optionList.contains(Options.EnableLocators)) {
+        if (optionList.contains(Options.EnableLocators) && !headerOnly) {
             visitor.enableLocators();
         }
-        if (optionList.contains(Options.EnableResultTypes)) {
+        if (optionList.contains(Options.EnableResultTypes) && !headerOnly) {
             visitor.enableResultTypes();
         }
         if (optionList.contains(Options.EnableDetailedErrors)) {
@@ -229,18 +381,49 @@ public class CqlTranslator {
         }
 
         parser.removeErrorListeners(); // Clear the default console listener
-        parser.addErrorListener(new CqlErrorListener(builder, visitor.isDetailedErrorsEnabled()));
-        ParseTree tree = parser.library();
+        ParseTree tree = null;
+        if (optionList.contains(Options.EnableTwoStageParsing)) {
+            // Try the much cheaper SLL prediction first, bailing out on the first syntax error. SLL only fails
+            // where full LL prediction could still succeed (or on actual syntax errors), so only then is the
+            // library parsed again with full LL prediction and error reporting.
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            parser.setErrorHandler(new BailErrorStrategy());
+            try {
+                tree = parser.library();
+                predictionMode = PredictionMode.SLL;
+            }
+            catch (ParseCancellationException e) {
+                parser.reset();
+                parser.setErrorHandler(new DefaultErrorStrategy());
+            }
+        }
+
+        if (tree == null) {
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            parser.addErrorListener(new CqlErrorListener(builder, visitor.isDetailedErrorsEnabled()));
+            tree = parser.library();
+            predictionMode = PredictionMode.LL;
+        }
 
         CqlPreprocessorVisitor preprocessor = new CqlPreprocessorVisitor();
         preprocessor.visit(tree);
+        libraryInfo = preprocessor.getLibraryInfo();
+        libraryManager.resolveIncludes(libraryInfo, options);
 
         visitor.setTokenStream(tokens);
-        visitor.setLibraryInfo(preprocessor.getLibraryInfo());
+        visitor.setLibraryInfo(libraryInfo);
 
         visitResult = visitor.visit(tree);
         library = builder.getLibrary();
         translatedLibrary = builder.getTranslatedLibrary();
+        if (headerOnly) {
+            // The parse state is kept to translate the remaining expression definitions when they are referenced
+            translatedLibrary.setDefinitionResolver(createDefinitionResolver(visitor, builder));
+        }
+        else if (libraryManager.getTranslatorRetention() != LibraryManager.TranslatorRetention.ALL) {
+            // With ALL, translators are kept with their parse state, which the MAT code reads from the visitor
+            visitor.releaseParseState();
+        }
         retrieves = visitor.getRetrieves();
         exceptions.addAll(builder.getExceptions());
         errors.addAll(builder.getErrors());
@@ -248,114 +431,181 @@ public class CqlTranslator {
         messages.addAll(builder.getMessages());
     }
 
+    /**
+     * Returns the resolver that translates the expression definitions of a library translated header only when they
+     * are first referenced. Translations are serialized on the translated library, and errors in a definition are
+     * recorded on the library, which reports them to every referencing library. Libraries only lock the libraries
+     * they include, so translations from different threads lock libraries in include order and cannot deadlock.
+     */
+    private static Function<String, ExpressionDef> createDefinitionResolver(Cql2ElmVisitor visitor, LibraryBuilder builder) {
+        TranslatedLibrary translatedLibrary = builder.getTranslatedLibrary();
+        Set<String> resolving = new HashSet<>();
+        return identifier -> {
+            synchronized (translatedLibrary) {
+                // A definition that is being translated is resolved by the visitor, which reports circular references
+                if (!resolving.add(identifier)) {
+                    return null;
+                }
+
+                try {
+                    int errorCount = builder.getErrors().size();
+                    ExpressionDef result = visitor.resolveExpressionDefinition(identifier);
+                    translatedLibrary.addDefinitionErrors(identifier,
+                            new ArrayList<>(builder.getErrors().subList(errorCount, builder.getErrors().size())));
+                    return result;
+                }
+                finally {
+                    resolving.remove(identifier);
+                }
+            }
+        };
+    }
+
     public String convertToXml(Library library) throws JAXBException {
-        Marshaller marshaller = jaxbContext.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
         StringWriter writer = new StringWriter();
-        marshaller.marshal(new ObjectFactory().createLibrary(library), writer);
+        jaxbContext.marshalXml(library, writer);
         return writer.getBuffer().toString();
     }
 
     public String convertToJson(Library library) throws JAXBException {
-        Marshaller marshaller = jaxbContext.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-        marshaller.setProperty("eclipselink.media-type", "application/json");
+        StringWriter writer = new StringWriter();
+        try {
+            jsonWriter.write(library, writer);
+        }
+        catch (IOException e) {
+            throw new JAXBException("Could not convert library to JSON.", e);
+        }
+        return writer.getBuffer().toString();
+    }
 
+    public String convertToMoxyJson(Library library) throws JAXBException {
         StringWriter writer = new StringWriter();
-        marshaller.marshal(new ObjectFactory().createLibrary(library), writer);
+        jaxbContext.marshalJson(library, writer);
         return writer.getBuffer().toString();
     }
 
-    private static void loadModelInfo(File modelInfoXML) {
-        final ModelInfo modelInfo = JAXB.unmarshal(modelInfoXML, ModelInfo.class);
+    private static void loadModelInfo(File modelInfoXML) throws IOException {
+        final ModelInfo modelInfo;
+        try (InputStream is = new FileInputStream(modelInfoXML)) {
+            modelInfo = ModelInfoReader.read(is);
+        }
         final VersionedIdentifier modelId = new VersionedIdentifier().withId(modelInfo.getName()).withVersion(modelInfo.getVersion());
         final ModelInfoProvider modelProvider = () -> modelInfo;
-        ModelInfoLoader.registerModelInfoProvider(modelId, modelProvider);
+        ModelCache.getGlobal().replace(modelId, modelProvider);
     }
 
-    private static void outputExceptions(Iterable<CqlTranslatorException> exceptions) {
+    private static void outputExceptions(Iterable<CqlTranslatorException> exceptions, PrintStream err) {
         for (CqlTranslatorException error : exceptions) {
             TrackBack tb = error.getLocator();
             String lines = tb == null ? "[n/a]" : String.format("[%d:%d, %d:%d]",
                     tb.getStartLine(), tb.getStartChar(), tb.getEndLine(), tb.getEndChar());
-            System.err.printf("%s:%s %s%n", error.getSeverity(), lines, error.getMessage());
+            err.printf("%s:%s %s%n", error.getSeverity(), lines, error.getMessage());
         }
     }
 
-    private static void writeELM(Path inPath, Path outPath, Format format, boolean dateRangeOptimizations,
-                                 boolean annotations, boolean locators, boolean resultTypes, boolean verifyOnly,
-                                 boolean detailedErrors, CqlTranslatorException.ErrorSeverity errorLevel,
-                                 boolean disableListTraversal, boolean disableDemotion, boolean disablePromotion,
-                                 boolean disableMethodInvocation) throws IOException {
-        ArrayList<Options> options = new ArrayList<>();
-        if (dateRangeOptimizations) {
-            options.add(Options.EnableDateRangeOptimization);
-        }
-        if (annotations) {
-            options.add(Options.EnableAnnotations);
-        }
-        if (locators) {
-            options.add(Options.EnableLocators);
-        }
-        if (resultTypes) {
-            options.add(Options.EnableResultTypes);
-        }
-        if (detailedErrors) {
-            options.add(Options.EnableDetailedErrors);
-        }
-        if (disableListTraversal) {
-            options.add(Options.DisableListTraversal);
-        }
-        if (disableDemotion) {
-            options.add(Options.DisableDemotion);
-        }
-        if (disablePromotion) {
-            options.add(Options.DisablePromotion);
-        }
-        if (disableMethodInvocation) {
-            options.add(Options.DisableMethodInvocation);
-        }
-
-        System.err.println("================================================================================");
-        System.err.printf("TRANSLATE %s%n", inPath);
-
-        ModelManager modelManager = new ModelManager();
+    static LibraryManager createLibraryManager(ModelManager modelManager, Path directory,
+                                                       TranslatedLibraryCache libraryCache) {
         LibraryManager libraryManager = new LibraryManager(modelManager);
-        libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(inPath.getParent()));
+        libraryManager.setLibraryCache(libraryCache);
+        // Only the MAT code uses the translators of included libraries
+        libraryManager.setTranslatorRetention(LibraryManager.TranslatorRetention.NONE);
+        libraryManager.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(directory));
         libraryManager.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
-        CqlTranslator translator = fromFile(inPath.toFile(), modelManager, libraryManager, errorLevel, options.toArray(new Options[options.size()]));
-        libraryManager.getLibrarySourceLoader().clearProviders();
+        return libraryManager;
+    }
+
+    static CqlTranslator writeELM(Path inPath, Path outPath, Format format, boolean verifyOnly,
+                                          CqlTranslatorException.ErrorSeverity errorLevel, Options[] options,
+                                          ModelManager modelManager, LibraryManager libraryManager,
+                                          PrintStream err) throws IOException {
+        err.println("================================================================================");
+        err.printf("TRANSLATE %s%n", inPath);
+
+        CqlTranslator translator = fromFile(inPath.toFile(), modelManager, libraryManager, errorLevel, options);
+
+        if (Arrays.asList(options).contains(Options.EnableTwoStageParsing)) {
+            err.printf("Parsed using %s prediction.%n", translator.getPredictionMode());
+        }
 
         if (translator.getErrors().size() > 0) {
-            System.err.println("Translation failed due to errors:");
-            outputExceptions(translator.getExceptions());
+            err.println("Translation failed due to errors:");
+            outputExceptions(translator.getExceptions(), err);
         } else if (! verifyOnly) {
             if (translator.getExceptions().size() == 0) {
-                System.err.println("Translation completed successfully.");
+                err.println("Translation completed successfully.");
             }
             else {
-                System.err.println("Translation completed with messages:");
-                outputExceptions(translator.getExceptions());
+                err.println("Translation completed with messages:");
+                outputExceptions(translator.getExceptions(), err);
             }
-            try (PrintWriter pw = new PrintWriter(outPath.toFile(), "UTF-8")) {
+            try (Writer writer = Files.newBufferedWriter(outPath, StandardCharsets.UTF_8)) {
                 switch (format) {
                     case COFFEE:
-                        pw.print("module.exports = ");
-                        pw.println(translator.toJson());
+                        writer.write("module.exports = ");
+                        translator.writeJson(writer);
                         break;
                     case JSON:
-                        pw.println(translator.toJson());
+                        translator.writeJson(writer);
+                        break;
+                    case MOXY_JSON:
+                        translator.writeMoxyJson(writer);
                         break;
                     case XML:
                     default:
-                        pw.println(translator.toXml());
+                        translator.writeXml(writer);
                 }
-                pw.println();
+                writer.write(System.lineSeparator());
+                writer.write(System.lineSeparator());
+            }
+            err.println(String.format("ELM output written to: %s", outPath.toString()));
+        }
+
+        err.println();
+        return translator;
+    }
+
+    static boolean isCql(Path file) {
+        return file.toFile().getName().endsWith(".cql") || file.toFile().getName().endsWith(".CQL");
+    }
+
+    static Path getOutputFolder(Path source, Path destination, Path file) {
+        Path destinationFolder = destination.resolve(source.relativize(file.getParent()));
+        if (! destinationFolder.toFile().exists() && ! destinationFolder.toFile().mkdirs()) {
+            System.err.printf("Problem creating %s%n", destinationFolder);
+        }
+
+        return destinationFolder;
+    }
+
+    static Path getOutputFile(Path in, Path out, Format format) {
+        if (out.toFile().isDirectory()) {
+            // Use input filename with ".xml", ".json", or ".coffee" extension
+            String name = in.toFile().getName();
+            if (name.lastIndexOf('.') != -1) {
+                name = name.substring(0, name.lastIndexOf('.'));
+            }
+            switch (format) {
+                case JSON:
+                case MOXY_JSON:
+                    name += ".json";
+                    break;
+                case COFFEE:
+                    name += ".coffee";
+                    break;
+                case XML:
+                default:
+                    name += ".xml";
+                    break;
+
             }
-            System.err.println(String.format("ELM output written to: %s", outPath.toString()));
+            out = out.resolve(name);
+        }
+
+        if (out.equals(in)) {
+            throw new IllegalArgumentException("input and output file must be different!");
         }
 
-        System.err.println();
+        return out;
     }
 
     public static void main(String[] args) throws IOException, InterruptedException {
@@ -375,6 +625,12 @@ public class CqlTranslator {
         OptionSpec disableDemotion = parser.accepts("disable-demotion");
         OptionSpec disablePromotion = parser.accepts("disable-promotion");
         OptionSpec disableMethodInvocation = parser.accepts("disable-method-invocation");
+        OptionSpec twoStageParsing = parser.accepts("two-stage-parsing");
+        OptionSpec headerIncludes = parser.accepts("header-includes");
+        OptionSpec<Integer> threads = parser.accepts("threads").withRequiredArg().ofType(Integer.class).defaultsTo(1);
+        OptionSpec watch = parser.accepts("watch");
+        OptionSpec<File> cache = parser.accepts("cache").withRequiredArg().ofType(File.class);
+        OptionSpec<Long> cacheSize = parser.accepts("cache-size").withRequiredArg().ofType(Long.class).defaultsTo(1024L);
         OptionSpec strict = parser.accepts("strict");
         OptionSpec debug = parser.accepts("debug");
 
@@ -386,8 +642,19 @@ public class CqlTranslator {
                         ? output.value(options).toPath()
                         : source.toFile().isDirectory() ? source : source.getParent();
         final Format outputFormat = format.value(options);
+        final int threadCount = threads.value(options);
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threads must be at least 1!");
+        }
+        if (cacheSize.value(options) < 1) {
+            throw new IllegalArgumentException("cache-size must be at least 1 (MB)!");
+        }
+        if (options.has(watch) && options.has(threads)) {
+            throw new IllegalArgumentException("watch cannot be combined with threads!");
+        }
 
-        Map<Path, Path> inOutMap = new HashMap<>();
+        // Sorted, so that libraries are always translated (and reported) in the same order
+        Map<Path, Path> inOutMap = new TreeMap<>();
         if (source.toFile().isDirectory()) {
             if (destination.toFile().exists() && ! destination.toFile().isDirectory()) {
                 throw new IllegalArgumentException("Output must be a valid folder if input is a folder!");
@@ -396,12 +663,8 @@ public class CqlTranslator {
             Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    if (file.toFile().getName().endsWith(".cql") || file.toFile().getName().endsWith(".CQL")) {
-                        Path destinationFolder = destination.resolve(source.relativize(file.getParent()));
-                        if (! destinationFolder.toFile().exists() && ! destinationFolder.toFile().mkdirs()) {
-                            System.err.printf("Problem creating %s%n", destinationFolder);
-                        }
-                        inOutMap.put(file, destinationFolder);
+                    if (isCql(file)) {
+                        inOutMap.put(file, getOutputFolder(source, destination, file));
                     }
                     return CONTINUE;
                 }
@@ -410,57 +673,124 @@ public class CqlTranslator {
             inOutMap.put(source, destination);
         }
 
+        List<Map.Entry<Path, Path>> inOutList = new ArrayList<>();
         for (Map.Entry<Path, Path> inOut : inOutMap.entrySet()) {
-            Path in = inOut.getKey();
-            Path out = inOut.getValue();
-            if (out.toFile().isDirectory()) {
-                // Use input filename with ".xml", ".json", or ".coffee" extension
-                String name = in.toFile().getName();
-                if (name.lastIndexOf('.') != -1) {
-                    name = name.substring(0, name.lastIndexOf('.'));
-                }
-                switch (outputFormat) {
-                    case JSON:
-                        name += ".json";
-                        break;
-                    case COFFEE:
-                        name += ".coffee";
-                        break;
-                    case XML:
-                    default:
-                        name += ".xml";
-                        break;
+            inOutList.add(new AbstractMap.SimpleEntry<>(inOut.getKey(), getOutputFile(inOut.getKey(), inOut.getValue(), outputFormat)));
+        }
 
-                }
-                out = out.resolve(name);
+        if (options.has(model)) {
+            final File modelFile = options.valueOf(model);
+            if (! modelFile.exists() || modelFile.isDirectory()) {
+                throw new IllegalArgumentException("model must be a valid file!");
             }
+            loadModelInfo(modelFile);
+        }
+
+        ArrayList<Options> translatorOptions = new ArrayList<>();
+        if (options.has(optimization)) {
+            translatorOptions.add(Options.EnableDateRangeOptimization);
+        }
+        if (options.has(debug) || options.has(annotations)) {
+            translatorOptions.add(Options.EnableAnnotations);
+        }
+        if (options.has(debug) || options.has(locators)) {
+            translatorOptions.add(Options.EnableLocators);
+        }
+        if (options.has(debug) || options.has(resultTypes)) {
+            translatorOptions.add(Options.EnableResultTypes);
+        }
+        if (options.has(detailedErrors)) { // Didn't include in debug, maybe should...
+            translatorOptions.add(Options.EnableDetailedErrors);
+        }
+        if (options.has(strict) || options.has(disableListTraversal)) {
+            translatorOptions.add(Options.DisableListTraversal);
+        }
+        if (options.has(strict) || options.has(disableDemotion)) {
+            translatorOptions.add(Options.DisableDemotion);
+        }
+        if (options.has(strict) || options.has(disablePromotion)) {
+            translatorOptions.add(Options.DisablePromotion);
+        }
+        if (options.has(strict) || options.has(disableMethodInvocation)) {
+            translatorOptions.add(Options.DisableMethodInvocation);
+        }
+        if (options.has(twoStageParsing)) {
+            translatorOptions.add(Options.EnableTwoStageParsing);
+        }
+        if (options.has(headerIncludes)) {
+            translatorOptions.add(Options.EnableHeaderOnlyIncludes);
+        }
 
-            if (out.equals(in)) {
-                throw new IllegalArgumentException("input and output file must be different!");
+        final Options[] translatorOptionArray = translatorOptions.toArray(new Options[translatorOptions.size()]);
+        final boolean verifyOnly = options.has(verify);
+        final CqlTranslatorException.ErrorSeverity severity = options.has(errorLevel)
+                ? (CqlTranslatorException.ErrorSeverity)options.valueOf(errorLevel)
+                : CqlTranslatorException.ErrorSeverity.Info;
+
+        // Included libraries are loaded from the cache if they have not changed since they were last translated
+        final TranslatedLibraryCache libraryCache = options.has(cache)
+                ? new TranslatedLibraryCache(cache.value(options).toPath(), cacheSize.value(options) * 1024 * 1024)
+                : null;
+
+        if (options.has(watch)) {
+            Map<Path, Path> outputFiles = new TreeMap<>();
+            for (Map.Entry<Path, Path> inOut : inOutList) {
+                outputFiles.put(inOut.getKey(), inOut.getValue());
             }
+            new LibraryWatcher(source, destination, outputFormat, verifyOnly, severity, translatorOptionArray, outputFiles, libraryCache).run();
+            return;
+        }
 
-            if (options.has(model)) {
-                final File modelFile = options.valueOf(model);
-                if (! modelFile.exists() || modelFile.isDirectory()) {
-                    throw new IllegalArgumentException("model must be a valid file!");
-                }
-                loadModelInfo(modelFile);
+        if (!options.has(threads)) {
+            for (Map.Entry<Path, Path> inOut : inOutList) {
+                ModelManager modelManager = new ModelManager();
+                writeELM(inOut.getKey(), inOut.getValue(), outputFormat, verifyOnly, severity, translatorOptionArray,
+                        modelManager, createLibraryManager(modelManager, inOut.getKey().getParent(), libraryCache), System.err);
             }
+            return;
+        }
 
+        // Translate on a worker pool. The output of each translation is buffered and written in input order, so the
+        // output does not depend on scheduling.
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<ByteArrayOutputStream> logs = new ArrayList<>();
+            List<Future<Void>> results = new ArrayList<>();
+            for (Map.Entry<Path, Path> inOut : inOutList) {
+                final ByteArrayOutputStream log = new ByteArrayOutputStream();
+                logs.add(log);
+                results.add(executor.submit(() -> {
+                    try (PrintStream err = new PrintStream(log, true, "UTF-8")) {
+                        ModelManager modelManager = new ModelManager();
+                        LibraryManager libraryManager = createLibraryManager(modelManager, inOut.getKey().getParent(), libraryCache);
+                        // Idle workers translate includes ahead of the libraries including them
+                        libraryManager.setIncludeExecutor(executor);
+                        writeELM(inOut.getKey(), inOut.getValue(), outputFormat, verifyOnly, severity, translatorOptionArray,
+                                modelManager, libraryManager, err);
+                    }
+                    return null;
+                }));
+            }
 
-            writeELM(in, out, outputFormat, options.has(optimization),
-                    options.has(debug) || options.has(annotations),
-                    options.has(debug) || options.has(locators),
-                    options.has(debug) || options.has(resultTypes),
-                    options.has(verify),
-                    options.has(detailedErrors), // Didn't include in debug, maybe should...
-                    options.has(errorLevel)
-                            ? (CqlTranslatorException.ErrorSeverity)options.valueOf(errorLevel)
-                            : CqlTranslatorException.ErrorSeverity.Info,
-                    options.has(strict) || options.has(disableListTraversal),
-                    options.has(strict) || options.has(disableDemotion),
-                    options.has(strict) || options.has(disablePromotion),
-                    options.has(strict) || options.has(disableMethodInvocation));
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    System.err.print(logs.get(i).toString("UTF-8"));
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException)e.getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+                System.err.print(logs.get(i).toString("UTF-8"));
+            }
+        }
+        finally {
+            executor.shutdownNow();
         }
     }
 }
@@ -4,14 +4,27 @@ import org.cqframework.cql.cql2elm.model.Version;
 import org.hl7.elm.r1.VersionedIdentifier;
 
 import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
 
 // NOTE: This implementation is naive and assumes library file names will always take the form:
 // <filename>[-<version>].cql
 // And further that <filename> will never contain dashes, and that <version> will always be of the form <major>[.<minor>[.<patch>]]
 // Usage outside these boundaries will result in errors or incorrect behavior.
+//
+// Libraries requested without a version, or with a version there is no file for, resolve to the most recent version
+// in an index of the directory. The index is rebuilt when the modification time of the directory changes, which it
+// does whenever a file is added, removed or renamed, so a lookup costs a single stat of the directory rather than a
+// listing of it.
 public class DefaultLibrarySourceProvider implements LibrarySourceProvider {
 
+    // Modification times have a resolution of up to two seconds on some file systems, so a directory that was
+    // modified within that interval of being indexed may have changed since without its modification time changing
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+
     public DefaultLibrarySourceProvider(Path path) {
         if (path == null || ! path.toFile().isDirectory()) {
             throw new IllegalArgumentException(String.format("path '%s' is not a valid directory", path));
@@ -20,62 +33,113 @@ public class DefaultLibrarySourceProvider implements LibrarySourceProvider {
         this.path = path;
     }
 
-    private Path path;
+    private final Path path;
+    private volatile LibraryIndex index;
 
     @Override
     public InputStream getLibrarySource(VersionedIdentifier libraryIdentifier) {
         String libraryName = libraryIdentifier.getId();
         Path libraryPath = this.path.resolve(String.format("%s%s.cql", libraryName,
                 libraryIdentifier.getVersion() != null ? ("-" + libraryIdentifier.getVersion()) : ""));
-        File libraryFile = libraryPath.toFile();
-        if (!libraryFile.exists()) {
-            FilenameFilter filter = new FilenameFilter() {
-                @Override
-                public boolean accept(File path, String name) {
-                    return name.startsWith(libraryName) && name.endsWith(".cql");
-                }
-            };
-
-            File mostRecentFile = null;
-            Version mostRecent = null;
-            for (File file : path.toFile().listFiles(filter)) {
-                String fileName = file.getName();
-                int indexOfExtension = fileName.lastIndexOf(".");
-                if (indexOfExtension >= 0) {
-                    fileName = fileName.substring(0, indexOfExtension);
-                }
+        if (!Files.exists(libraryPath)) {
+            // Do not throw, allow the loader to throw, just report null
+            libraryPath = getIndex().getMostRecentVersion(libraryName);
+        }
 
-                int indexOfVersionSeparator = fileName.indexOf("-");
-                if (indexOfVersionSeparator >= 0) {
-                    Version version = new Version(fileName.substring(indexOfVersionSeparator + 1));
-                    if (mostRecent == null || version.compareTo(mostRecent) > 0) {
-                        mostRecent = version;
-                        mostRecentFile = file;
-                    }
-                }
-                else {
-                    // If the file is named correctly, but has no version, consider it the most recent version
-                    if (mostRecent == null) {
-                        mostRecentFile = file;
-                    }
-                }
+        try {
+            if (libraryPath != null) {
+                return Files.newInputStream(libraryPath);
             }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Could not load source for library %s.", libraryIdentifier.getId()), e);
+        }
 
-            // Do not throw, allow the loader to throw, just report null
-            //if (mostRecentFile == null) {
-            //    throw new IllegalArgumentException(String.format("Could not resolve most recent source library for library %s.", libraryIdentifier.getId()));
-            //}
+        return null;
+    }
 
-            libraryFile = mostRecentFile;
+    /**
+     * Returns the versions of the given library in the directory, from oldest to most recent. A file without a version
+     * is reported with a null version, and is only considered the most recent version if there are no others.
+     * @param libraryName the name of the library
+     * @return the source files by version
+     */
+    public SortedMap<Version, Path> getLibraryVersions(String libraryName) {
+        return getIndex().getVersions(libraryName);
+    }
+
+    private LibraryIndex getIndex() {
+        FileTime modified = getLastModifiedTime();
+        LibraryIndex result = index;
+        if (result == null || !result.isCurrent(modified)) {
+            synchronized (this) {
+                result = index;
+                if (result == null || !result.isCurrent(modified)) {
+                    result = new LibraryIndex(path, modified);
+                    index = result;
+                }
+            }
         }
+
+        return result;
+    }
+
+    private FileTime getLastModifiedTime() {
         try {
-            if (libraryFile != null) {
-                return new FileInputStream(libraryFile);
+            return Files.getLastModifiedTime(path);
+        }
+        catch (IOException e) {
+            // Never current, so the directory is listed again
+            return null;
+        }
+    }
+
+    private static class LibraryIndex {
+        private final FileTime modified;
+        private final boolean racy;
+        private final Map<String, SortedMap<Version, Path>> libraries = new HashMap<>();
+
+        public LibraryIndex(Path path, FileTime modified) {
+            this.modified = modified;
+            this.racy = modified == null || System.currentTimeMillis() - modified.toMillis() < MODIFICATION_TIME_RESOLUTION;
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.cql")) {
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    String libraryName = LibraryDependencyGraph.getSourceLibraryName(file);
+                    String versionName = fileName.substring(0, fileName.lastIndexOf('.'));
+                    Version version = null;
+                    if (versionName.length() > libraryName.length()) {
+                        try {
+                            version = new Version(versionName.substring(libraryName.length() + 1));
+                        }
+                        catch (IllegalArgumentException e) {
+                            // Not named according to the convention, so only resolvable by its exact name
+                            continue;
+                        }
+                    }
+
+                    libraries.computeIfAbsent(libraryName,
+                            k -> new TreeMap<>(Comparator.nullsFirst(Comparator.<Version>naturalOrder())))
+                            .putIfAbsent(version, file);
+                }
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException(String.format("Could not list library sources in %s.", path), e);
             }
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException(String.format("Could not load source for library %s.", libraryIdentifier.getId()), e);
         }
 
-        return null;
+        public boolean isCurrent(FileTime modified) {
+            return !racy && modified != null && modified.equals(this.modified);
+        }
+
+        public SortedMap<Version, Path> getVersions(String libraryName) {
+            SortedMap<Version, Path> versions = libraries.get(libraryName);
+            return versions != null ? Collections.unmodifiableSortedMap(versions) : Collections.emptySortedMap();
+        }
+
+        public Path getMostRecentVersion(String libraryName) {
+            SortedMap<Version, Path> versions = libraries.get(libraryName);
+            return versions != null ? versions.get(versions.lastKey()) : null;
+        }
     }
 }
@@ -0,0 +1,201 @@
+package org.cqframework.cql.cql2elm;
+
+import javax.xml.bind.annotation.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The serialized shape of a JAXB-annotated ELM class, read once from its annotations and cached.
+ *
+ * Attributes and elements are each listed base class first; elements follow the propOrder of the
+ * class that declares them. This is the order both the JAXB marshallers and the ELM writers in this
+ * package use.
+ */
+class ElmClassMapping {
+    private static final Map<Class<?>, ElmClassMapping> mappings = new ConcurrentHashMap<>();
+
+    public static ElmClassMapping forClass(Class<?> type) {
+        ElmClassMapping mapping = mappings.get(type);
+        if (mapping == null) {
+            mapping = new ElmClassMapping(type);
+            mappings.put(type, mapping);
+        }
+
+        return mapping;
+    }
+
+    private final Class<?> type;
+    private final String typeName;
+    private final List<PropertyMapping> attributes = new ArrayList<>();
+    private final List<PropertyMapping> elements = new ArrayList<>();
+    private final List<PropertyMapping> properties = new ArrayList<>();
+    private Constructor<?> constructor;
+
+    private ElmClassMapping(Class<?> type) {
+        this.type = type;
+        XmlType xmlType = type.getAnnotation(XmlType.class);
+        this.typeName = xmlType != null && !xmlType.name().isEmpty() ? xmlType.name() : null;
+
+        // Base class properties come first, for both attributes and elements
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> current = type; current != null && current.getAnnotation(XmlType.class) != null; current = current.getSuperclass()) {
+            hierarchy.add(0, current);
+        }
+
+        for (Class<?> current : hierarchy) {
+            List<PropertyMapping> classElements = new ArrayList<>();
+            for (Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())
+                        || field.getAnnotation(XmlTransient.class) != null) {
+                    continue;
+                }
+
+                PropertyMapping property = new PropertyMapping(field);
+                if (property.isAttribute()) {
+                    attributes.add(property);
+                }
+                else {
+                    classElements.add(property);
+                }
+            }
+
+            String[] propOrder = current.getAnnotation(XmlType.class).propOrder();
+            if (propOrder.length > 0 && !propOrder[0].isEmpty()) {
+                final List<String> order = Arrays.asList(propOrder);
+                Collections.sort(classElements, (left, right) ->
+                        Integer.compare(order.indexOf(left.field.getName()), order.indexOf(right.field.getName())));
+            }
+            elements.addAll(classElements);
+        }
+
+        properties.addAll(attributes);
+        properties.addAll(elements);
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    public List<PropertyMapping> getAttributes() {
+        return attributes;
+    }
+
+    public List<PropertyMapping> getElements() {
+        return elements;
+    }
+
+    /**
+     * Returns the attributes followed by the elements.
+     */
+    public List<PropertyMapping> getProperties() {
+        return properties;
+    }
+
+    public Object newInstance() {
+        try {
+            if (constructor == null) {
+                Constructor<?> c = type.getDeclaredConstructor();
+                c.setAccessible(true);
+                constructor = c;
+            }
+
+            return constructor.newInstance();
+        }
+        catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(String.format("Could not create an instance of %s.", type.getName()), e);
+        }
+    }
+
+    static class PropertyMapping {
+        private final Field field;
+        private final String name;
+        private final Class<?> type;
+        private final boolean attribute;
+        private final boolean list;
+        private final boolean mixed;
+
+        public PropertyMapping(Field field) {
+            this.field = field;
+            this.field.setAccessible(true);
+            this.list = List.class.isAssignableFrom(field.getType());
+            this.mixed = field.getAnnotation(XmlMixed.class) != null;
+
+            XmlAttribute xmlAttribute = field.getAnnotation(XmlAttribute.class);
+            XmlElement xmlElement = field.getAnnotation(XmlElement.class);
+            this.attribute = xmlAttribute != null;
+            if (xmlAttribute != null && !xmlAttribute.name().equals("##default")) {
+                this.name = xmlAttribute.name();
+            }
+            else if (xmlElement != null && !xmlElement.name().equals("##default")) {
+                this.name = xmlElement.name();
+            }
+            else {
+                this.name = field.getName();
+            }
+
+            if (xmlElement != null && xmlElement.type() != XmlElement.DEFAULT.class) {
+                this.type = xmlElement.type();
+            }
+            else if (list) {
+                Type elementType = ((ParameterizedType)field.getGenericType()).getActualTypeArguments()[0];
+                this.type = elementType instanceof Class ? (Class<?>)elementType : Object.class;
+            }
+            else {
+                this.type = field.getType();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the declared type of the property, or of its items for list properties.
+         */
+        public Class<?> getType() {
+            return type;
+        }
+
+        public boolean isAttribute() {
+            return attribute;
+        }
+
+        public boolean isList() {
+            return list;
+        }
+
+        public boolean isMixed() {
+            return mixed;
+        }
+
+        public Object get(Object target) {
+            try {
+                return field.get(target);
+            }
+            catch (IllegalAccessException e) {
+                throw new IllegalStateException(String.format("Could not read property %s of %s.",
+                        field.getName(), target.getClass().getName()), e);
+            }
+        }
+
+        public void set(Object target, Object value) {
+            try {
+                field.set(target, value);
+            }
+            catch (IllegalAccessException | IllegalArgumentException e) {
+                throw new IllegalStateException(String.format("Could not set property %s of %s.",
+                        field.getName(), target.getClass().getName()), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.cql_annotations.r1.Annotation;
+import org.hl7.elm.r1.Library;
+import org.hl7.elm.r1.ObjectFactory;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Holds the JAXBContext used to serialize ELM libraries, together with bounded pools of the
+ * marshallers and unmarshallers created from it.
+ *
+ * Building the context is expensive, so by default every CqlTranslator shares the single, lazily
+ * created instance returned by getDefault(). Marshallers and unmarshallers are not thread-safe, so
+ * each call borrows one from the pool (creating it if the pool is empty) and returns it when done.
+ * Instances returned to a full pool are simply discarded.
+ */
+public class ElmJaxbContext {
+    public static final int DEFAULT_POOL_SIZE = 8;
+
+    private static volatile ElmJaxbContext defaultContext;
+
+    /**
+     * Returns the process-wide context for the ELM Library and annotation classes, creating it on first use.
+     * @return the shared context
+     */
+    public static ElmJaxbContext getDefault() {
+        ElmJaxbContext result = defaultContext;
+        if (result == null) {
+            synchronized (ElmJaxbContext.class) {
+                result = defaultContext;
+                if (result == null) {
+                    try {
+                        result = new ElmJaxbContext(JAXBContext.newInstance(Library.class, Annotation.class));
+                    } catch (JAXBException e) {
+                        throw new RuntimeException("Error creating JAXBContext - " + e.getMessage(), e);
+                    }
+                    defaultContext = result;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private final JAXBContext jaxbContext;
+    private final BlockingQueue<Marshaller> xmlMarshallers;
+    private final BlockingQueue<Marshaller> jsonMarshallers;
+    private final BlockingQueue<Unmarshaller> unmarshallers;
+    private final ObjectFactory of = new ObjectFactory();
+
+    public ElmJaxbContext(JAXBContext jaxbContext) {
+        this(jaxbContext, DEFAULT_POOL_SIZE);
+    }
+
+    public ElmJaxbContext(JAXBContext jaxbContext, int poolSize) {
+        if (jaxbContext == null) {
+            throw new IllegalArgumentException("jaxbContext is null");
+        }
+
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+
+        this.jaxbContext = jaxbContext;
+        this.xmlMarshallers = new ArrayBlockingQueue<>(poolSize);
+        this.jsonMarshallers = new ArrayBlockingQueue<>(poolSize);
+        this.unmarshallers = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    public JAXBContext getJaxbContext() {
+        return jaxbContext;
+    }
+
+    public void marshalXml(Library library, Writer writer) throws JAXBException {
+        Marshaller marshaller = acquireXmlMarshaller();
+        try {
+            marshaller.marshal(of.createLibrary(library), writer);
+        }
+        finally {
+            xmlMarshallers.offer(marshaller);
+        }
+    }
+
+    public void marshalXml(Library library, OutputStream outputStream) throws JAXBException {
+        Marshaller marshaller = acquireXmlMarshaller();
+        try {
+            marshaller.marshal(of.createLibrary(library), outputStream);
+        }
+        finally {
+            xmlMarshallers.offer(marshaller);
+        }
+    }
+
+    public void marshalJson(Library library, Writer writer) throws JAXBException {
+        Marshaller marshaller = acquireJsonMarshaller();
+        try {
+            marshaller.marshal(of.createLibrary(library), writer);
+        }
+        finally {
+            jsonMarshallers.offer(marshaller);
+        }
+    }
+
+    public void marshalJson(Library library, OutputStream outputStream) throws JAXBException {
+        Marshaller marshaller = acquireJsonMarshaller();
+        try {
+            marshaller.marshal(of.createLibrary(library), outputStream);
+        }
+        finally {
+            jsonMarshallers.offer(marshaller);
+        }
+    }
+
+    public Library unmarshalXml(Reader reader) throws JAXBException {
+        return unmarshalXml(new StreamSource(reader));
+    }
+
+    public Library unmarshalXml(InputStream inputStream) throws JAXBException {
+        return unmarshalXml(new StreamSource(inputStream));
+    }
+
+    private Library unmarshalXml(StreamSource source) throws JAXBException {
+        Unmarshaller unmarshaller = unmarshallers.poll();
+        if (unmarshaller == null) {
+            unmarshaller = jaxbContext.createUnmarshaller();
+        }
+
+        try {
+            return unmarshaller.unmarshal(source, Library.class).getValue();
+        }
+        finally {
+            unmarshallers.offer(unmarshaller);
+        }
+    }
+
+    private Marshaller acquireXmlMarshaller() throws JAXBException {
+        Marshaller marshaller = xmlMarshallers.poll();
+        if (marshaller == null) {
+            marshaller = jaxbContext.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        }
+
+        return marshaller;
+    }
+
+    private Marshaller acquireJsonMarshaller() throws JAXBException {
+        Marshaller marshaller = jsonMarshallers.poll();
+        if (marshaller == null) {
+            marshaller = jaxbContext.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            marshaller.setProperty("eclipselink.media-type", "application/json");
+        }
+
+        return marshaller;
+    }
+}
@@ -0,0 +1,272 @@
+package org.cqframework.cql.cql2elm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.PrettyPrinter;
+import org.hl7.elm.r1.Library;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.XmlEnumValue;
+import javax.xml.namespace.QName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes ELM libraries as JSON by walking the JAXB-annotated org.hl7.elm.r1 (and cql_annotations) classes
+ * directly and streaming the result through a Jackson JsonGenerator.
+ *
+ * The output is the same document, byte for byte, that the EclipseLink MOXy JSON marshaller produces for
+ * the same library: attributes first (base class first), then the "type" discriminator when the runtime class
+ * differs from the declared type, then elements in propOrder (base class first), with MOXy's indentation and
+ * array formatting. Class mappings are read once per class from the JAXB annotations (see ElmClassMapping).
+ */
+public class ElmJsonWriter {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final Map<Class<?>, Map<Object, String>> enumValues = new ConcurrentHashMap<>();
+
+    public void write(Library library, Writer writer) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+            write(library, generator);
+        }
+    }
+
+    public void write(Library library, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+            write(library, generator);
+        }
+    }
+
+    private void write(Library library, JsonGenerator generator) throws IOException {
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        ElmPrettyPrinter prettyPrinter = new ElmPrettyPrinter();
+        generator.setPrettyPrinter(prettyPrinter);
+        generator.writeStartObject();
+        generator.writeFieldName("library");
+        writeObject(generator, prettyPrinter, library, Library.class);
+        generator.writeEndObject();
+    }
+
+    private void writeObject(JsonGenerator generator, ElmPrettyPrinter prettyPrinter, Object value, Class<?> declaredType)
+            throws IOException {
+        ElmClassMapping mapping = ElmClassMapping.forClass(value.getClass());
+        generator.writeStartObject();
+
+        for (ElmClassMapping.PropertyMapping attribute : mapping.getAttributes()) {
+            Object attributeValue = attribute.get(value);
+            if (attributeValue != null) {
+                generator.writeFieldName(attribute.getName());
+                writeSimpleValue(generator, attributeValue);
+            }
+        }
+
+        if (value.getClass() != declaredType && mapping.getTypeName() != null) {
+            generator.writeStringField("type", mapping.getTypeName());
+        }
+
+        for (ElmClassMapping.PropertyMapping element : mapping.getElements()) {
+            Object elementValue = element.get(value);
+            if (elementValue == null) {
+                continue;
+            }
+
+            if (element.isMixed()) {
+                writeMixedContent(generator, prettyPrinter, (List<?>)elementValue);
+            }
+            else if (element.isList()) {
+                generator.writeFieldName(element.getName());
+                writeList(generator, prettyPrinter, (List<?>)elementValue, element.getType());
+            }
+            else {
+                generator.writeFieldName(element.getName());
+                writeValue(generator, prettyPrinter, elementValue, element.getType());
+            }
+        }
+
+        generator.writeEndObject();
+    }
+
+    private void writeValue(JsonGenerator generator, ElmPrettyPrinter prettyPrinter, Object value, Class<?> declaredType)
+            throws IOException {
+        if (value instanceof JAXBElement) {
+            JAXBElement<?> jaxbElement = (JAXBElement<?>)value;
+            writeValue(generator, prettyPrinter, jaxbElement.getValue(), jaxbElement.getDeclaredType());
+        }
+        else if (isSimpleValue(value)) {
+            writeSimpleValue(generator, value);
+        }
+        else {
+            writeObject(generator, prettyPrinter, value, declaredType);
+        }
+    }
+
+    private void writeList(JsonGenerator generator, ElmPrettyPrinter prettyPrinter, List<?> values, Class<?> declaredType)
+            throws IOException {
+        boolean inline = !values.isEmpty() && isSimpleValue(values.get(0));
+        prettyPrinter.setInlineArray(inline);
+        generator.writeStartArray();
+        for (Object value : values) {
+            if (value != null) {
+                writeValue(generator, prettyPrinter, value, declaredType);
+            }
+        }
+        generator.writeEndArray();
+        prettyPrinter.setInlineArray(false);
+    }
+
+    // Mixed content is written the way MOXy groups it: text nodes become a "value" array, and element
+    // nodes are grouped into an array per element name, in order of first appearance.
+    private void writeMixedContent(JsonGenerator generator, ElmPrettyPrinter prettyPrinter, List<?> content)
+            throws IOException {
+        LinkedHashMap<String, List<Object>> groups = new LinkedHashMap<>();
+        for (Object item : content) {
+            String name = item instanceof JAXBElement ? ((JAXBElement<?>)item).getName().getLocalPart() : "value";
+            List<Object> group = groups.get(name);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(name, group);
+            }
+            group.add(item);
+        }
+
+        for (Map.Entry<String, List<Object>> group : groups.entrySet()) {
+            generator.writeFieldName(group.getKey());
+            writeList(generator, prettyPrinter, group.getValue(), Object.class);
+        }
+    }
+
+    private boolean isSimpleValue(Object value) {
+        return value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof QName || value instanceof Enum;
+    }
+
+    private void writeSimpleValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof String) {
+            generator.writeString((String)value);
+        }
+        else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean)value);
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number)value).longValue());
+        }
+        else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger)value);
+        }
+        else if (value instanceof BigDecimal) {
+            generator.writeNumber(((BigDecimal)value).toPlainString());
+        }
+        else if (value instanceof Number) {
+            generator.writeNumber(value.toString());
+        }
+        else if (value instanceof Enum) {
+            generator.writeString(getEnumValue((Enum<?>)value));
+        }
+        else {
+            // QName is written as {namespace}localPart
+            generator.writeString(value.toString());
+        }
+    }
+
+    private static String getEnumValue(Enum<?> value) {
+        Map<Object, String> values = enumValues.get(value.getDeclaringClass());
+        if (values == null) {
+            Map<String, String> names = new HashMap<>();
+            for (Field field : value.getDeclaringClass().getFields()) {
+                if (field.isEnumConstant()) {
+                    XmlEnumValue enumValue = field.getAnnotation(XmlEnumValue.class);
+                    names.put(field.getName(), enumValue != null ? enumValue.value() : field.getName());
+                }
+            }
+
+            values = new HashMap<>();
+            for (Enum<?> constant : value.getDeclaringClass().getEnumConstants()) {
+                values.put(constant, names.get(constant.name()));
+            }
+            enumValues.put(value.getDeclaringClass(), values);
+        }
+
+        return values.get(value);
+    }
+
+    /**
+     * Reproduces the MOXy formatted JSON layout: three space indentation, " : " between names and values,
+     * arrays of objects separated by ", " and arrays of simple values separated by "," only.
+     */
+    private static class ElmPrettyPrinter implements PrettyPrinter {
+        private static final String INDENT = "   ";
+        private static final String LINE_SEPARATOR = System.lineSeparator();
+
+        private int nesting;
+        private boolean inlineArray;
+
+        public void setInlineArray(boolean inlineArray) {
+            this.inlineArray = inlineArray;
+        }
+
+        private void writeIndentation(JsonGenerator generator) throws IOException {
+            generator.writeRaw(LINE_SEPARATOR);
+            for (int i = 0; i < nesting; i++) {
+                generator.writeRaw(INDENT);
+            }
+        }
+
+        @Override
+        public void writeRootValueSeparator(JsonGenerator generator) throws IOException {
+        }
+
+        @Override
+        public void writeStartObject(JsonGenerator generator) throws IOException {
+            generator.writeRaw('{');
+            nesting++;
+        }
+
+        @Override
+        public void beforeObjectEntries(JsonGenerator generator) throws IOException {
+            writeIndentation(generator);
+        }
+
+        @Override
+        public void writeObjectFieldValueSeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(" : ");
+        }
+
+        @Override
+        public void writeObjectEntrySeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(',');
+            writeIndentation(generator);
+        }
+
+        @Override
+        public void writeEndObject(JsonGenerator generator, int nrOfEntries) throws IOException {
+            nesting--;
+            writeIndentation(generator);
+            generator.writeRaw('}');
+        }
+
+        @Override
+        public void writeStartArray(JsonGenerator generator) throws IOException {
+            generator.writeRaw('[');
+        }
+
+        @Override
+        public void beforeArrayValues(JsonGenerator generator) throws IOException {
+            generator.writeRaw(' ');
+        }
+
+        @Override
+        public void writeArrayValueSeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(inlineArray ? "," : ", ");
+        }
+
+        @Override
+        public void writeEndArray(JsonGenerator generator, int nrOfValues) throws IOException {
+            generator.writeRaw(" ]");
+        }
+    }
+}
@@ -87,13 +87,26 @@ public class LibraryBuilder {
     private final ObjectFactory of = new ObjectFactory();
     private final org.hl7.cql_annotations.r1.ObjectFactory af = new org.hl7.cql_annotations.r1.ObjectFactory();
     private boolean listTraversal = true;
+    private final DataTypeInterner typeInterner = new DataTypeInterner();
+    // Resolved paths by source type, see resolvePath
+    private final Map<DataType, Map<String, DataType>> resolvedPathCache = new IdentityHashMap<>();
+
+    /**
+     * Returns the interner of the list, interval, choice and tuple types of the translation, so that equal types
+     * share one instance, and comparing them in operator resolution is mostly a reference comparison.
+     */
+    public DataTypeInterner getTypeInterner() {
+        return typeInterner;
+    }
 
     public void enableListTraversal() {
         listTraversal = true;
+        resolvedPathCache.clear();
     }
 
     public void disableListTraversal() {
         listTraversal = false;
+        resolvedPathCache.clear();
     }
 
     private CqlTranslatorException.ErrorSeverity errorLevel = CqlTranslatorException.ErrorSeverity.Info;
@@ -104,6 +117,15 @@ public class LibraryBuilder {
         errorLevel = severity;
     }
 
+    private CqlTranslator.Options[] translatorOptions = new CqlTranslator.Options[0];
+    /**
+     * Sets the translator options the library is translated with, which are also used to translate its includes.
+     * @param options the translator options
+     */
+    public void setTranslatorOptions(CqlTranslator.Options... options) {
+        translatorOptions = options != null ? options : new CqlTranslator.Options[0];
+    }
+
     private Model loadModel(VersionedIdentifier modelIdentifier) {
         Model model = modelManager.resolveModel(modelIdentifier);
         loadConversionMap(model);
@@ -246,11 +268,11 @@ public class LibraryBuilder {
         // listTypeSpecifier: 'list' '<' typeSpecifier '>'
         if (typeSpecifier.toLowerCase().startsWith("interval<")) {
             DataType pointType = resolveTypeSpecifier(typeSpecifier.substring(typeSpecifier.indexOf('<') + 1, typeSpecifier.lastIndexOf('>')));
-            return new IntervalType(pointType);
+            return typeInterner.intervalOf(pointType);
         }
         else if (typeSpecifier.toLowerCase().startsWith("list<")) {
             DataType elementType = resolveTypeName(typeSpecifier.substring(typeSpecifier.indexOf('<') + 1, typeSpecifier.lastIndexOf('>')));
-            return new ListType(elementType);
+            return typeInterner.listOf(elementType);
         }
         else if (typeSpecifier.indexOf(".") >= 0) {
             String modelName = typeSpecifier.substring(0, typeSpecifier.indexOf("."));
@@ -281,7 +303,7 @@ public class LibraryBuilder {
     }
 
     private void loadSystemLibrary() {
-        TranslatedLibrary systemLibrary = SystemLibraryHelper.load(getSystemModel());
+        TranslatedLibrary systemLibrary = SystemLibraryHelper.load(getSystemModel(), typeInterner);
         libraries.put(systemLibrary.getIdentifier().getId(), systemLibrary);
         loadConversionMap(systemLibrary);
     }
@@ -426,7 +448,7 @@ public class LibraryBuilder {
                 .withId(includeDef.getPath())
                 .withVersion(includeDef.getVersion());
 
-        TranslatedLibrary referencedLibrary = libraryManager.resolveLibrary(libraryIdentifier, errors);
+        TranslatedLibrary referencedLibrary = libraryManager.resolveLibrary(libraryIdentifier, errors, translatorOptions);
         libraries.put(includeDef.getLocalIdentifier(), referencedLibrary);
         loadConversionMap(referencedLibrary);
     }
@@ -750,7 +772,7 @@ public class LibraryBuilder {
     public Expression resolveToList(Expression expression) {
         // Use a ToList operator here to avoid duplicate evaluation of the operand.
         ToList toList = of.createToList().withOperand(expression);
-        toList.setResultType(new ListType(expression.getResultType()));
+        toList.setResultType(typeInterner.listOf(expression.getResultType()));
         return toList;
     }
 
@@ -984,7 +1006,7 @@ public class LibraryBuilder {
                 .withHighClosed(highClosed);
 
         DataType pointType = ensureCompatibleTypes(result.getLow().getResultType(), result.getHigh().getResultType());
-        result.setResultType(new IntervalType(pointType));
+        result.setResultType(typeInterner.intervalOf(pointType));
 
         result.setLow(ensureCompatible(result.getLow(), pointType));
         result.setHigh(ensureCompatible(result.getHigh(), pointType));
@@ -1071,13 +1093,22 @@ public class LibraryBuilder {
     }
 
     public DataType resolvePath(DataType sourceType, String path) {
-        // TODO: This is using a naive implementation for now... needs full path support (but not full FluentPath support...)
-        String[] identifiers = path.split("\\.");
-        for (int i = 0; i < identifiers.length; i++) {
-            sourceType = resolveProperty(sourceType, identifiers[i]);
+        // Resolved paths are memoized by source type identity, since types that are equal (such as a generic class
+        // type and its instantiations) may still have elements of different types
+        Map<String, DataType> resolvedPaths = resolvedPathCache.computeIfAbsent(sourceType, k -> new HashMap<>());
+        DataType result = resolvedPaths.get(path);
+        if (result == null) {
+            // TODO: This is using a naive implementation for now... needs full path support (but not full FluentPath support...)
+            result = sourceType;
+            String[] identifiers = path.split("\\.");
+            for (int i = 0; i < identifiers.length; i++) {
+                result = resolveProperty(result, identifiers[i]);
+            }
+
+            resolvedPaths.put(path, result);
         }
 
-        return sourceType;
+        return result;
     }
 
     public DataType resolveProperty(DataType sourceType, String identifier) {
@@ -1089,23 +1120,22 @@ public class LibraryBuilder {
         DataType currentType = sourceType;
         while (currentType != null) {
             if (currentType instanceof ClassType) {
+                // Found in the index of the class type, which includes the elements of its base types
                 ClassType classType = (ClassType)currentType;
-                for (ClassTypeElement e : classType.getElements()) {
-                    if (e.getName().equals(identifier)) {
-                        if (e.isProhibited()) {
-                            throw new IllegalArgumentException(String.format("Element %s cannot be referenced because it is marked prohibited in type %s.", e.getName(), ((ClassType) currentType).getName()));
-                        }
-
-                        return e.getType();
+                ClassTypeElement e = classType.findElement(identifier);
+                if (e != null) {
+                    if (e.isProhibited()) {
+                        throw new IllegalArgumentException(String.format("Element %s cannot be referenced because it is marked prohibited in type %s.", e.getName(), ((ClassType) currentType).getName()));
                     }
+
+                    return e.getType();
                 }
             }
             else if (currentType instanceof TupleType) {
                 TupleType tupleType = (TupleType)currentType;
-                for (TupleTypeElement e : tupleType.getElements()) {
-                    if (e.getName().equals(identifier)) {
-                        return e.getType();
-                    }
+                TupleTypeElement e = tupleType.findElement(identifier);
+                if (e != null) {
+                    return e.getType();
                 }
             }
             else if (currentType instanceof IntervalType) {
@@ -1136,7 +1166,7 @@ public class LibraryBuilder {
 
                 // The result type is a choice of all the resolved types
                 if (resultTypes.size() > 1) {
-                    return new ChoiceType(resultTypes);
+                    return typeInterner.choiceOf(resultTypes);
                 }
 
                 if (resultTypes.size() == 1) {
@@ -1150,7 +1180,7 @@ public class LibraryBuilder {
                 // Resolve property as a list of items of property of the element type
                 ListType listType = (ListType)currentType;
                 DataType resultType = resolveProperty(listType.getElementType(), identifier);
-                return new ListType(resultType);
+                return typeInterner.listOf(resultType);
 
             }
 
@@ -1316,6 +1346,16 @@ public class LibraryBuilder {
             TranslatedLibrary referencedLibrary = resolveLibrary(libraryName);
 
             Element element = referencedLibrary.resolve(memberIdentifier);
+            if (referencedLibrary.isHeaderOnly()) {
+                List<Exception> definitionErrors = referencedLibrary.getDefinitionErrors(memberIdentifier);
+                if (!definitionErrors.isEmpty()) {
+                    VersionedIdentifier libraryIdentifier = referencedLibrary.getIdentifier();
+                    throw new CqlTranslatorIncludeException(String.format("Errors occurred translating %s in library %s, version %s: %s",
+                            memberIdentifier, libraryIdentifier.getId(), libraryIdentifier.getVersion(),
+                            definitionErrors.get(0).getMessage()),
+                            libraryIdentifier.getId(), libraryIdentifier.getVersion());
+                }
+            }
 
             if (element instanceof ExpressionDef) {
                 checkAccessLevel(libraryName, memberIdentifier, ((ExpressionDef)element).getAccessLevel());
@@ -1408,7 +1448,7 @@ public class LibraryBuilder {
                     .withSource(source)
                     .withWhere(not)
                     .withReturn(of.createReturnClause().withExpression(accessor));
-            query.setResultType(new ListType(accessor.getResultType()));
+            query.setResultType(typeInterner.listOf(accessor.getResultType()));
 
             if (accessor.getResultType() instanceof ListType) {
                 Flatten result = of.createFlatten().withOperand(query);
@@ -1538,7 +1578,7 @@ public class LibraryBuilder {
 
             DataType resultType = expressionDef.getResultType();
             if (!(resultType instanceof ListType)) {
-                return new ListType(resultType);
+                return typeInterner.listOf(resultType);
             }
             else {
                 return resultType;
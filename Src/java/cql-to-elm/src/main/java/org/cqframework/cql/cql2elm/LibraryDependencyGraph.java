@@ -0,0 +1,110 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.preprocessor.IncludeDefinitionInfo;
+import org.cqframework.cql.cql2elm.preprocessor.LibraryInfo;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Tracks the library each translated source file declares and the libraries it includes, so that when a library
+ * changes, the source files that depend on it, directly or through other libraries, can be retranslated.
+ *
+ * Libraries are identified by name only. A source file is known both by the library name it declares and by the
+ * name DefaultLibrarySourceProvider would resolve it for (<name>[-<version>].cql), since that is the name under
+ * which other libraries include it.
+ */
+public class LibraryDependencyGraph {
+    private final Map<Path, String> libraryNames = new HashMap<>();
+    private final Map<Path, Set<String>> includedLibraryNames = new HashMap<>();
+
+    public void update(Path file, LibraryInfo libraryInfo) {
+        if (libraryInfo == null) {
+            throw new IllegalArgumentException("libraryInfo is null");
+        }
+
+        List<String> includes = new ArrayList<>();
+        for (IncludeDefinitionInfo include : libraryInfo.getIncludeDefinitions()) {
+            includes.add(include.getName());
+        }
+
+        update(file, libraryInfo.getLibraryName(), includes);
+    }
+
+    public void update(Path file, String libraryName, Collection<String> includes) {
+        if (file == null) {
+            throw new IllegalArgumentException("file is null");
+        }
+
+        libraryNames.put(file, libraryName);
+        includedLibraryNames.put(file, new HashSet<>(includes));
+    }
+
+    public void remove(Path file) {
+        libraryNames.remove(file);
+        includedLibraryNames.remove(file);
+    }
+
+    /**
+     * Returns the names the library in the given source file is known by: the name it was last translated with,
+     * if any, and the name derived from the file name.
+     * @param file the source file
+     * @return the library names
+     */
+    public Set<String> getLibraryNames(Path file) {
+        Set<String> result = new HashSet<>();
+        result.add(getSourceLibraryName(file));
+        String libraryName = libraryNames.get(file);
+        if (libraryName != null) {
+            result.add(libraryName);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the source files that include any of the given libraries, directly or through other libraries.
+     * @param libraryNames the names of the changed libraries
+     * @return the dependent source files, sorted
+     */
+    public SortedSet<Path> getDependentFiles(Collection<String> libraryNames) {
+        SortedSet<Path> result = new TreeSet<>();
+        Set<String> visited = new HashSet<>(libraryNames);
+        Deque<String> pending = new ArrayDeque<>(libraryNames);
+        while (!pending.isEmpty()) {
+            String libraryName = pending.pop();
+            for (Map.Entry<Path, Set<String>> entry : includedLibraryNames.entrySet()) {
+                if (entry.getValue().contains(libraryName) && result.add(entry.getKey())) {
+                    for (String dependentName : getLibraryNames(entry.getKey())) {
+                        if (visited.add(dependentName)) {
+                            pending.push(dependentName);
+                        }
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the library name for the given source file, following the naming convention of
+     * DefaultLibrarySourceProvider.
+     * @param file the source file
+     * @return the library name
+     */
+    public static String getSourceLibraryName(Path file) {
+        String name = file.getFileName().toString();
+        int indexOfExtension = name.lastIndexOf('.');
+        if (indexOfExtension >= 0) {
+            name = name.substring(0, indexOfExtension);
+        }
+
+        int indexOfVersionSeparator = name.indexOf('-');
+        if (indexOfVersionSeparator >= 0) {
+            name = name.substring(0, indexOfVersionSeparator);
+        }
+
+        return name;
+    }
+}
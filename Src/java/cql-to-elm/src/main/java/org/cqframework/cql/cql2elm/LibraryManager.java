@@ -1,25 +1,85 @@
 package org.cqframework.cql.cql2elm;
 
+import org.cqframework.cql.cql2elm.model.Model;
 import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.cqframework.cql.cql2elm.preprocessor.IncludeDefinitionInfo;
+import org.cqframework.cql.cql2elm.preprocessor.LibraryInfo;
+import org.hl7.elm.r1.IncludeDef;
+import org.hl7.elm.r1.UsingDef;
 import org.hl7.elm.r1.VersionedIdentifier;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages a set of CQL libraries. As new library references are encountered
  * during translation, the corresponding source is obtained via
  * librarySourceLoader, translated and cached for later use.
+ *
+ * Translated libraries are cached by their full identifier and the translator options
+ * they were translated with, so a library is only translated once for each combination,
+ * however often it is included.
+ *
+ * A library manager can be shared by concurrent translations. When several translations
+ * need the same library at the same time, only one of them translates it and the others
+ * wait for the result. Circular library references are detected per chain of includes,
+ * including chains that wait on translations in progress on other threads.
+ *
+ * Given an include executor, the libraries included by a library are translated on the
+ * executor as soon as the library has been parsed, so that independent includes are
+ * translated concurrently, each after its own includes, and are ready (or in progress)
+ * by the time the translation of the including library reaches them.
+ *
+ * Given a library cache, libraries are also looked up on disk before they are translated,
+ * and stored there once translated without errors. Libraries loaded from the cache have
+ * no translator in the mapping returned by getTranslators().
+ *
+ * The translators of included libraries are kept for the MAT code, which keeps them
+ * and everything they reference reachable. Long-running services that do not need them
+ * can limit that with a translator retention policy.
  */
 public class LibraryManager {
+    public static final int DEFAULT_MAX_RETAINED_TRANSLATORS = 100;
+
+    /**
+     * Which translators of included libraries are kept in the mapping returned by getTranslators().
+     */
+    public enum TranslatorRetention {
+        /** Keep all translators, as the MAT code expects, with their parse state. The default. */
+        ALL,
+        /** Keep no translators, only the translated libraries. */
+        NONE,
+        /** Keep translators only for as long as they are reachable otherwise. */
+        WEAK,
+        /** Keep translators until the JVM runs low on memory. */
+        SOFT,
+        /** Keep the most recently used translators, up to a maximum number. */
+        LRU
+    }
+
     private ModelManager modelManager;
-    private final Map<String, TranslatedLibrary> libraries;
-    private final Stack<String> translationStack;
+    private final ConcurrentMap<LibraryKey, LibraryResolution> libraries;
+    private final ConcurrentMap<Thread, LibraryResolution> pendingResolutions;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final ThreadLocal<Deque<String>> translationStack;
     private final DefaultLibrarySourceLoader librarySourceLoader;
+    private volatile Executor includeExecutor;
+    private volatile TranslatedLibraryCache libraryCache;
 
     // For use in MAT code... capture elm output, translator mappings, and library mappings here.
-    private Map<String, CqlTranslator> translators;
+    private volatile Map<String, CqlTranslator> translators;
+    private volatile TranslatorRetention translatorRetention = TranslatorRetention.ALL;
     private Map<String, TranslatedLibrary> libraryMap; // I know a mapping is already done up above, but this captures
     // information on libraryname-x.x.xxx, which is consistent with
     // with all of our implementations
@@ -29,20 +89,172 @@ public class LibraryManager {
             throw new IllegalArgumentException("modelManager is null");
         }
         this.modelManager = modelManager;
-        libraries = new HashMap<>();
-        translationStack = new Stack<>();
+        libraries = new ConcurrentHashMap<>();
+        pendingResolutions = new ConcurrentHashMap<>();
+        translationStack = ThreadLocal.withInitial(ArrayDeque::new);
         this.librarySourceLoader = new DefaultLibrarySourceLoader();
 
         // more MAT code...
-        this.translators = new HashMap<>();
-        this.libraryMap = new HashMap<>();
+        this.translators = new ConcurrentHashMap<>();
+        this.libraryMap = new ConcurrentHashMap<>();
     }
 
     public LibrarySourceLoader getLibrarySourceLoader() {
         return librarySourceLoader;
     }
 
-    public TranslatedLibrary resolveLibrary(VersionedIdentifier libraryIdentifier, List<CqlTranslatorException> errors) {
+    public Executor getIncludeExecutor() {
+        return includeExecutor;
+    }
+
+    /**
+     * Sets the executor included libraries are translated on ahead of their inclusion. Translations never wait
+     * for tasks that have not started, an include that is reached before its task has started is translated in
+     * place, so any executor can be used, including a bounded pool shared with other work.
+     * @param includeExecutor the executor, or null to only translate libraries when they are included
+     */
+    public void setIncludeExecutor(Executor includeExecutor) {
+        this.includeExecutor = includeExecutor;
+    }
+
+    public TranslatorRetention getTranslatorRetention() {
+        return translatorRetention;
+    }
+
+    /**
+     * Sets which translators of included libraries are kept, see TranslatorRetention. The translators already kept
+     * are kept as far as the new policy allows.
+     * @param translatorRetention the retention policy
+     */
+    public void setTranslatorRetention(TranslatorRetention translatorRetention) {
+        setTranslatorRetention(translatorRetention, DEFAULT_MAX_RETAINED_TRANSLATORS);
+    }
+
+    /**
+     * Sets which translators of included libraries are kept, see TranslatorRetention. The translators already kept
+     * are kept as far as the new policy allows.
+     * @param translatorRetention the retention policy
+     * @param maxTranslators the maximum number of translators kept by the LRU policy
+     */
+    public synchronized void setTranslatorRetention(TranslatorRetention translatorRetention, int maxTranslators) {
+        if (translatorRetention == null) {
+            throw new IllegalArgumentException("translatorRetention is null");
+        }
+        if (maxTranslators < 1) {
+            throw new IllegalArgumentException("maxTranslators must be at least 1");
+        }
+
+        Map<String, CqlTranslator> result;
+        switch (translatorRetention) {
+            case WEAK:
+                result = new ReferenceValueMap<>(false);
+                break;
+            case SOFT:
+                result = new ReferenceValueMap<>(true);
+                break;
+            case LRU:
+                result = Collections.synchronizedMap(new LeastRecentlyUsedMap<>(maxTranslators));
+                break;
+            case ALL:
+            case NONE:
+            default:
+                result = new ConcurrentHashMap<>();
+                break;
+        }
+
+        if (translatorRetention != TranslatorRetention.NONE) {
+            result.putAll(translators);
+        }
+
+        this.translators = result;
+        this.translatorRetention = translatorRetention;
+    }
+
+    public TranslatedLibraryCache getLibraryCache() {
+        return libraryCache;
+    }
+
+    /**
+     * Sets the on-disk cache translated libraries are loaded from and stored to.
+     * @param libraryCache the cache, or null to always translate libraries from source
+     */
+    public void setLibraryCache(TranslatedLibraryCache libraryCache) {
+        this.libraryCache = libraryCache;
+    }
+
+    /**
+     * Starts translating the libraries included by the given library on the include executor, if one is set.
+     * The translation of each included library continues the chain of includes of the calling thread, so
+     * circular references are detected as if the libraries were translated in place.
+     * @param libraryInfo the preprocessed library
+     * @param options the translator options
+     */
+    public void resolveIncludes(LibraryInfo libraryInfo, CqlTranslator.Options... options) {
+        if (libraryInfo == null) {
+            throw new IllegalArgumentException("libraryInfo is null");
+        }
+
+        Executor executor = includeExecutor;
+        if (executor == null || libraryInfo.getLibraryName() == null) {
+            return;
+        }
+
+        Deque<String> chain = new ArrayDeque<>(translationStack.get());
+        chain.push(libraryInfo.getLibraryName());
+        EnumSet<CqlTranslator.Options> cacheOptions = getCacheOptions(options);
+        for (IncludeDefinitionInfo include : libraryInfo.getIncludeDefinitions()) {
+            VersionedIdentifier libraryIdentifier = new VersionedIdentifier()
+                    .withId(include.getName())
+                    .withVersion(include.getVersion());
+            if (libraryIdentifier.getId() == null || libraries.containsKey(new LibraryKey(libraryIdentifier, cacheOptions))) {
+                continue;
+            }
+
+            try {
+                executor.execute(() -> {
+                    Deque<String> stack = translationStack.get();
+                    translationStack.set(new ArrayDeque<>(chain));
+                    try {
+                        resolveLibrary(libraryIdentifier, null, options);
+                    }
+                    catch (RuntimeException e) {
+                        // Reported by the translation that includes the library
+                    }
+                    finally {
+                        if (stack.isEmpty()) {
+                            translationStack.remove();
+                        }
+                        else {
+                            translationStack.set(stack);
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // The library is translated when it is included
+                return;
+            }
+        }
+    }
+
+    private static EnumSet<CqlTranslator.Options> getCacheOptions(CqlTranslator.Options... options) {
+        EnumSet<CqlTranslator.Options> cacheOptions = EnumSet.noneOf(CqlTranslator.Options.class);
+        Collections.addAll(cacheOptions, options);
+        // Two-stage parsing only changes how the library is parsed, not the result
+        cacheOptions.remove(CqlTranslator.Options.EnableTwoStageParsing);
+        return cacheOptions;
+    }
+
+    /**
+     * Returns the translated library with the given identifier, translating it with the given options
+     * if it has not been translated with those options before.
+     * @param libraryIdentifier the identifier of the library, the version is optional
+     * @param errors receives the errors of the translation, if the library had to be translated
+     * @param options the translator options
+     * @return the translated library
+     */
+    public TranslatedLibrary resolveLibrary(VersionedIdentifier libraryIdentifier, List<CqlTranslatorException> errors,
+                                            CqlTranslator.Options... options) {
         if (libraryIdentifier == null) {
             throw new IllegalArgumentException("libraryIdentifier is null.");
         }
@@ -51,22 +263,121 @@ public class LibraryManager {
             throw new IllegalArgumentException("libraryIdentifier Id is null");
         }
 
-        TranslatedLibrary library = libraries.get(libraryIdentifier.getId());
+        EnumSet<CqlTranslator.Options> cacheOptions = getCacheOptions(options);
+        LibraryKey key = new LibraryKey(libraryIdentifier, cacheOptions);
+        LibraryResolution resolution = new LibraryResolution(libraryIdentifier.getId());
+        LibraryResolution existing = libraries.putIfAbsent(key, resolution);
+        if (existing != null) {
+            cacheHits.incrementAndGet();
+            return await(existing, errors);
+        }
+
+        cacheMisses.incrementAndGet();
+        TranslatedLibrary library;
+        List<CqlTranslatorException> translationErrors = new ArrayList<>();
+        try {
+            library = translateLibrary(libraryIdentifier, translationErrors, resolution, options);
+        }
+        catch (RuntimeException | Error e) {
+            libraries.remove(key, resolution);
+            resolution.thread = null;
+            resolution.result.completeExceptionally(e);
+            throw e;
+        }
+
+        resolution.errors = translationErrors;
+        resolution.thread = null;
+        resolution.result.complete(library);
+        if (errors != null) {
+            errors.addAll(translationErrors);
+        }
 
-        if (library != null
-                && libraryIdentifier.getVersion() != null
-                && !libraryIdentifier.getVersion().equals(library.getIdentifier().getVersion())) {
-            throw new CqlTranslatorIncludeException(String.format("Could not resolve reference to library %s, version %s because version %s is already loaded.",
-                    libraryIdentifier.getId(), libraryIdentifier.getVersion(), library.getIdentifier().getVersion()), libraryIdentifier.getId(), libraryIdentifier.getVersion());
-        } else {
-            library = translateLibrary(libraryIdentifier, errors);
-            libraries.put(libraryIdentifier.getId(), library);
+        // Libraries with errors are not cached, so that the errors are reported to every library including them
+        if (!translationErrors.isEmpty()) {
+            libraries.remove(key, resolution);
+        }
+        else if (library.getIdentifier() != null) {
+            // A library requested without a version is also cached under the version that was found
+            libraries.putIfAbsent(new LibraryKey(library.getIdentifier(), cacheOptions), resolution);
         }
 
         return library;
     }
 
-    private TranslatedLibrary translateLibrary(VersionedIdentifier libraryIdentifier, List<CqlTranslatorException> errors) {
+    private TranslatedLibrary await(LibraryResolution resolution, List<CqlTranslatorException> errors) {
+        if (!resolution.result.isDone()) {
+            // Waiting for a library that is being translated as part of the current chain of includes, directly
+            // or through translations on other threads waiting in turn, would never end, the reference is circular
+            Thread currentThread = Thread.currentThread();
+            pendingResolutions.put(currentThread, resolution);
+            try {
+                LibraryResolution pending = resolution;
+                for (int i = 0; pending != null && i <= pendingResolutions.size(); i++) {
+                    if (pending.thread == currentThread) {
+                        throw new IllegalArgumentException(String.format("Circular library reference %s.", resolution.libraryName));
+                    }
+                    Thread thread = pending.thread;
+                    pending = thread != null ? pendingResolutions.get(thread) : null;
+                }
+
+                resolution.result.join();
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error)e.getCause();
+                }
+                throw e;
+            }
+            finally {
+                pendingResolutions.remove(currentThread);
+            }
+        }
+
+        if (errors != null) {
+            errors.addAll(resolution.errors);
+        }
+
+        return resolution.result.join();
+    }
+
+    /**
+     * Returns the number of library references resolved from the cache.
+     * @return the number of cache hits
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Returns the number of library references that required the library to be translated.
+     * @return the number of cache misses
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Removes all translations of the library with the given name from the cache, so that it is translated again
+     * from its source the next time it is referenced. Returns true if the library was cached.
+     * @param libraryName the name of the library
+     * @return whether the library was cached
+     */
+    public boolean removeLibrary(String libraryName) {
+        if (libraryName == null || libraryName.equals("")) {
+            throw new IllegalArgumentException("libraryName is null.");
+        }
+
+        String prefix = libraryName + "-";
+        translators.keySet().removeIf(key -> key.startsWith(prefix));
+        libraryMap.keySet().removeIf(key -> key.startsWith(prefix));
+        return libraries.keySet().removeIf(key -> key.id.equals(libraryName));
+    }
+
+    private TranslatedLibrary translateLibrary(VersionedIdentifier libraryIdentifier, List<CqlTranslatorException> errors,
+                                               LibraryResolution resolution, CqlTranslator.Options... options) {
         InputStream librarySource = null;
         try {
             librarySource = librarySourceLoader.getLibrarySource(libraryIdentifier);
@@ -81,22 +392,47 @@ public class LibraryManager {
         }
 
         try {
-            CqlTranslator translator = CqlTranslator.fromStream(librarySource, modelManager, this);
-            if (errors != null) {
-                errors.addAll(translator.getErrors());
+            // Libraries translated header only are not complete, so they are neither loaded from nor stored in the cache
+            boolean headerOnly = Arrays.asList(options).contains(CqlTranslator.Options.EnableHeaderOnlyIncludes);
+            TranslatedLibraryCache cache = headerOnly ? null : libraryCache;
+            String sourceKey = null;
+            TranslatedLibrary result = null;
+            CqlTranslator translator = null;
+            if (cache != null) {
+                byte[] source = readSource(librarySource);
+                sourceKey = cache.getSourceKey(source, getCacheOptions(options));
+                result = loadCachedLibrary(cache, sourceKey, libraryIdentifier, resolution, options);
+                librarySource = new ByteArrayInputStream(source);
+            }
+
+            if (result == null) {
+                translator = headerOnly
+                        ? CqlTranslator.headerFromStream(librarySource, modelManager, this, options)
+                        : CqlTranslator.fromStream(librarySource, modelManager, this, options);
+                if (errors != null) {
+                    errors.addAll(translator.getErrors());
+                }
+
+                result = translator.getTranslatedLibrary();
             }
 
-            TranslatedLibrary result = translator.getTranslatedLibrary();
             if (libraryIdentifier.getVersion() != null && !libraryIdentifier.getVersion().equals(result.getIdentifier().getVersion())) {
                 throw new CqlTranslatorIncludeException(String.format("Library %s was included as version %s, but version %s of the library was found.",
                         libraryIdentifier.getId(), libraryIdentifier.getVersion(), result.getIdentifier().getVersion()),
                         libraryIdentifier.getId(), libraryIdentifier.getVersion());
             }
 
+            if (cache != null && translator != null && translator.getErrors().isEmpty()) {
+                storeCachedLibrary(cache, sourceKey, result, resolution, options);
+            }
+
             // for use in MAT code... We should be able to capture the translators here, creating a mapping with
-            // between LibraryName-x.x.xxx and translator.
-            this.translators.put(libraryIdentifier.getId() + "-" + libraryIdentifier.getVersion(), translator);
-            this.libraryMap.put(libraryIdentifier.getId() + "-" + libraryIdentifier.getVersion(), result);
+            // between LibraryName-x.x.xxx and translator. The version is the one that was found, which is not
+            // necessarily the one requested.
+            if (translator != null && translatorRetention != TranslatorRetention.NONE) {
+                this.translators.put(result.getIdentifier().getId() + "-" + result.getIdentifier().getVersion(), translator);
+            }
+            this.libraryMap.put(result.getIdentifier().getId() + "-" + result.getIdentifier().getVersion(), result);
 
             return result;
         } catch (IOException e) {
@@ -105,16 +441,120 @@ public class LibraryManager {
         }
     }
 
+    private static byte[] readSource(InputStream librarySource) throws IOException {
+        try (InputStream is = librarySource) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) >= 0) {
+                result.write(buffer, 0, count);
+            }
+
+            return result.toByteArray();
+        }
+    }
+
+    /**
+     * Loads a library from the cache, if it has an entry for the library whose models and includes still resolve
+     * the way they did when the library was translated. Includes are resolved as they would be by the translation,
+     * as part of the chain of includes.
+     */
+    private TranslatedLibrary loadCachedLibrary(TranslatedLibraryCache cache, String sourceKey, VersionedIdentifier libraryIdentifier,
+                                                LibraryResolution resolution, CqlTranslator.Options... options) {
+        TranslatedLibraryCache.Entry entry = cache.read(sourceKey);
+        if (entry == null) {
+            return null;
+        }
+
+        try {
+            beginTranslation(libraryIdentifier.getId());
+        }
+        catch (IllegalArgumentException e) {
+            // Circular, reported by the translation from source
+            return null;
+        }
+
+        try {
+            for (TranslatedLibraryCache.Dependency dependency : entry.getModels()) {
+                Model model = modelManager.resolveModel(new VersionedIdentifier().withId(dependency.getId()).withVersion(dependency.getVersion()));
+                if (!Objects.equals(dependency.getResolution(), TranslatedLibraryCache.getModelInfoDigest(model))) {
+                    return null;
+                }
+            }
+
+            for (TranslatedLibraryCache.Dependency dependency : entry.getIncludes()) {
+                VersionedIdentifier includeIdentifier = new VersionedIdentifier().withId(dependency.getId()).withVersion(dependency.getVersion());
+                List<CqlTranslatorException> includeErrors = new ArrayList<>();
+                resolveLibrary(includeIdentifier, includeErrors, options);
+                if (!includeErrors.isEmpty() || !Objects.equals(dependency.getResolution(), getCacheKey(includeIdentifier, options))) {
+                    return null;
+                }
+            }
+
+            TranslatedLibrary result = new TranslatedLibraryReader(modelManager).read(new ByteArrayInputStream(entry.getLibrary()));
+            resolution.cacheKey = entry.getKey();
+            return result;
+        }
+        catch (RuntimeException | IOException e) {
+            // Stale or unreadable, the library is translated from source, which reports any actual problem
+            return null;
+        }
+        finally {
+            endTranslation(libraryIdentifier.getId());
+        }
+    }
+
+    private void storeCachedLibrary(TranslatedLibraryCache cache, String sourceKey, TranslatedLibrary library,
+                                    LibraryResolution resolution, CqlTranslator.Options... options) {
+        List<TranslatedLibraryCache.Dependency> models = new ArrayList<>();
+        if (library.getLibrary().getUsings() != null) {
+            for (UsingDef usingDef : library.getLibrary().getUsings().getDef()) {
+                Model model = modelManager.resolveModel(new VersionedIdentifier().withId(usingDef.getLocalIdentifier()).withVersion(usingDef.getVersion()));
+                models.add(new TranslatedLibraryCache.Dependency(usingDef.getLocalIdentifier(), usingDef.getVersion(),
+                        TranslatedLibraryCache.getModelInfoDigest(model)));
+            }
+        }
+
+        List<TranslatedLibraryCache.Dependency> includes = new ArrayList<>();
+        if (library.getLibrary().getIncludes() != null) {
+            for (IncludeDef includeDef : library.getLibrary().getIncludes().getDef()) {
+                String includeKey = getCacheKey(new VersionedIdentifier().withId(includeDef.getPath()).withVersion(includeDef.getVersion()), options);
+                if (includeKey == null) {
+                    // Not translated with the cache, so the library cannot be validated against it
+                    return;
+                }
+                includes.add(new TranslatedLibraryCache.Dependency(includeDef.getPath(), includeDef.getVersion(), includeKey));
+            }
+        }
+
+        String key = cache.getKey(sourceKey, models, includes);
+        resolution.cacheKey = key;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new TranslatedLibraryWriter(modelManager).write(library, bytes);
+            cache.write(sourceKey, new TranslatedLibraryCache.Entry(key, models, includes, bytes.toByteArray()));
+        }
+        catch (RuntimeException | IOException e) {
+            // Not cached, the library is translated again next time
+        }
+    }
+
+    private String getCacheKey(VersionedIdentifier libraryIdentifier, CqlTranslator.Options... options) {
+        LibraryResolution resolution = libraries.get(new LibraryKey(libraryIdentifier, getCacheOptions(options)));
+        return resolution != null ? resolution.cacheKey : null;
+    }
+
     public void beginTranslation(String libraryName) {
         if (libraryName == null || libraryName.equals("")) {
             throw new IllegalArgumentException("libraryName is null.");
         }
 
-        if (translationStack.contains(libraryName)) {
+        Deque<String> stack = translationStack.get();
+        if (stack.contains(libraryName)) {
             throw new IllegalArgumentException(String.format("Circular library reference %s.", libraryName));
         }
 
-        translationStack.push(libraryName);
+        stack.push(libraryName);
     }
 
     public void endTranslation(String libraryName) {
@@ -122,7 +562,12 @@ public class LibraryManager {
             throw new IllegalArgumentException("libraryName is null.");
         }
 
-        String currentLibraryName = translationStack.pop();
+        Deque<String> stack = translationStack.get();
+        String currentLibraryName = stack.poll();
+        if (stack.isEmpty()) {
+            translationStack.remove();
+        }
+
         if (!libraryName.equals(currentLibraryName)) {
             throw new IllegalArgumentException(String.format("Translation stack imbalance for library %s.", libraryName));
         }
@@ -144,4 +589,73 @@ public class LibraryManager {
     public Map<String, CqlTranslator> getTranslators() {
         return translators;
     }
+
+    /**
+     * The translation of a library, which may still be in progress on the thread that started it.
+     */
+    private static final class LibraryResolution {
+        private final String libraryName;
+        // The translating thread, cleared once the translation is done so that cached libraries do not retain it
+        private volatile Thread thread = Thread.currentThread();
+        private final CompletableFuture<TranslatedLibrary> result = new CompletableFuture<>();
+        private volatile List<CqlTranslatorException> errors = Collections.emptyList();
+        // The key of the library in the library cache, if any
+        private volatile String cacheKey;
+
+        public LibraryResolution(String libraryName) {
+            this.libraryName = libraryName;
+        }
+    }
+
+    private static final class LibraryKey {
+        private final String id;
+        private final String system;
+        private final String version;
+        private final EnumSet<CqlTranslator.Options> options;
+
+        public LibraryKey(VersionedIdentifier identifier, EnumSet<CqlTranslator.Options> options) {
+            this.id = identifier.getId();
+            this.system = identifier.getSystem();
+            this.version = identifier.getVersion();
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LibraryKey)) {
+                return false;
+            }
+
+            LibraryKey other = (LibraryKey)o;
+            return Objects.equals(id, other.id) && Objects.equals(system, other.system)
+                    && Objects.equals(version, other.version) && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, system, version, options);
+        }
+    }
+
+    /**
+     * A map that keeps the given number of most recently used entries.
+     */
+    private static class LeastRecentlyUsedMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        public LeastRecentlyUsedMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxEntries;
+        }
+    }
 }
@@ -0,0 +1,222 @@
+package org.cqframework.cql.cql2elm;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.FileVisitResult.CONTINUE;
+
+/**
+ * Watches the input for changes after the initial translation. The JVM, the models and the translated
+ * includes stay loaded, and when a library changes only that library and the libraries that include it,
+ * directly or indirectly, are translated again.
+ */
+class LibraryWatcher {
+    private static final long SETTLE_MILLIS = 200;
+
+    private final Path source;
+    private final Path destination;
+    private final CqlTranslator.Format format;
+    private final boolean verifyOnly;
+    private final CqlTranslatorException.ErrorSeverity errorLevel;
+    private final CqlTranslator.Options[] options;
+    private final Map<Path, Path> inOutMap;
+    private final TranslatedLibraryCache libraryCache;
+    private final ModelManager modelManager = new ModelManager();
+    private final Map<Path, LibraryManager> libraryManagers = new HashMap<>();
+    private final LibraryDependencyGraph dependencyGraph = new LibraryDependencyGraph();
+
+    public LibraryWatcher(Path source, Path destination, CqlTranslator.Format format, boolean verifyOnly,
+                          CqlTranslatorException.ErrorSeverity errorLevel, CqlTranslator.Options[] options,
+                          Map<Path, Path> inOutMap, TranslatedLibraryCache libraryCache) {
+        // Paths are kept absolute, so that they match the paths reported by the watch service
+        this.source = source.toAbsolutePath().normalize();
+        this.destination = destination.toAbsolutePath().normalize();
+        this.format = format;
+        this.verifyOnly = verifyOnly;
+        this.errorLevel = errorLevel;
+        this.options = options;
+        this.libraryCache = libraryCache;
+        this.inOutMap = new TreeMap<>();
+        for (Map.Entry<Path, Path> inOut : inOutMap.entrySet()) {
+            this.inOutMap.put(inOut.getKey().toAbsolutePath().normalize(), inOut.getValue());
+        }
+    }
+
+    public void run() throws IOException, InterruptedException {
+        for (Path in : inOutMap.keySet()) {
+            translate(in);
+        }
+
+        WatchService watcher = source.getFileSystem().newWatchService();
+        Map<WatchKey, Path> watchKeys = new HashMap<>();
+        if (source.toFile().isDirectory()) {
+            register(watcher, watchKeys, source);
+        }
+        else {
+            // Includes are resolved from the directory of the input, so watch all of it
+            Path directory = source.getParent();
+            watchKeys.put(directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), directory);
+        }
+
+        System.err.printf("Watching %s%n", source);
+        for (;;) {
+            // Editors typically produce several events for a single save, spread over a short time, so wait
+            // for the events to settle and handle them as one change
+            Set<Path> changedFiles = new TreeSet<>();
+            boolean overflow = false;
+            WatchKey watchKey = watcher.take();
+            while (watchKey != null) {
+                overflow |= collectChanges(watcher, watchKeys, watchKey, changedFiles);
+                watchKey = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+
+            if (overflow) {
+                // Events were lost, so any library may have changed
+                rebuild(watcher, watchKeys);
+            }
+            else if (!changedFiles.isEmpty()) {
+                update(changedFiles);
+            }
+        }
+    }
+
+    /**
+     * Adds the source files changed according to the events of the given key, and returns whether events were lost.
+     */
+    private boolean collectChanges(WatchService watcher, Map<WatchKey, Path> watchKeys, WatchKey watchKey,
+                                   Set<Path> changedFiles) throws IOException {
+        boolean overflow = false;
+        Path directory = watchKeys.get(watchKey);
+        if (directory == null) {
+            watchKey.cancel();
+            return overflow;
+        }
+
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+
+            Path file = directory.resolve((Path)event.context());
+            if (CqlTranslator.isCql(file)) {
+                changedFiles.add(file);
+            }
+            else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && file.toFile().isDirectory()
+                    && source.toFile().isDirectory()) {
+                register(watcher, watchKeys, file);
+            }
+        }
+
+        if (!watchKey.reset()) {
+            watchKeys.remove(watchKey);
+        }
+
+        return overflow;
+    }
+
+    /**
+     * Drops all translated includes and translates every input again, picking up source files and directories
+     * created while events were lost.
+     */
+    private void rebuild(WatchService watcher, Map<WatchKey, Path> watchKeys) throws IOException {
+        System.err.printf("Lost track of changes in %s, translating all libraries again%n", source);
+        libraryManagers.clear();
+        if (source.toFile().isDirectory()) {
+            register(watcher, watchKeys, source);
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (CqlTranslator.isCql(file) && !inOutMap.containsKey(file)) {
+                        inOutMap.put(file, CqlTranslator.getOutputFile(file,
+                                CqlTranslator.getOutputFolder(source, destination, file), format));
+                    }
+                    return CONTINUE;
+                }
+            });
+        }
+
+        for (Path in : new ArrayList<>(inOutMap.keySet())) {
+            dependencyGraph.remove(in);
+            if (in.toFile().exists()) {
+                translate(in);
+            }
+            else {
+                inOutMap.remove(in);
+            }
+        }
+    }
+
+    private void register(WatchService watcher, Map<WatchKey, Path> watchKeys, Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                watchKeys.put(dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return CONTINUE;
+            }
+        });
+    }
+
+    private void update(Set<Path> changedFiles) throws IOException {
+        Set<String> changedLibraries = new HashSet<>();
+        SortedSet<Path> affectedFiles = new TreeSet<>();
+        for (Path file : changedFiles) {
+            changedLibraries.addAll(dependencyGraph.getLibraryNames(file));
+            if (!file.toFile().exists()) {
+                inOutMap.remove(file);
+                dependencyGraph.remove(file);
+                continue;
+            }
+
+            if (!inOutMap.containsKey(file) && source.toFile().isDirectory()) {
+                inOutMap.put(file, CqlTranslator.getOutputFile(file, CqlTranslator.getOutputFolder(source, destination, file), format));
+            }
+
+            if (inOutMap.containsKey(file)) {
+                affectedFiles.add(file);
+            }
+        }
+
+        affectedFiles.addAll(dependencyGraph.getDependentFiles(changedLibraries));
+
+        // Evict the changed libraries and everything depending on them, the rest of the includes stay translated
+        for (Path file : affectedFiles) {
+            changedLibraries.addAll(dependencyGraph.getLibraryNames(file));
+        }
+        for (LibraryManager libraryManager : libraryManagers.values()) {
+            for (String libraryName : changedLibraries) {
+                libraryManager.removeLibrary(libraryName);
+            }
+        }
+
+        for (Path file : affectedFiles) {
+            translate(file);
+        }
+    }
+
+    private void translate(Path in) throws IOException {
+        Path directory = in.getParent();
+        LibraryManager libraryManager = libraryManagers.get(directory);
+        if (libraryManager == null) {
+            libraryManager = CqlTranslator.createLibraryManager(modelManager, directory, libraryCache);
+            libraryManagers.put(directory, libraryManager);
+        }
+
+        try {
+            CqlTranslator translator = CqlTranslator.writeELM(in, inOutMap.get(in), format, verifyOnly, errorLevel, options,
+                    modelManager, libraryManager, System.err);
+            if (translator.getLibraryInfo() != null) {
+                dependencyGraph.update(in, translator.getLibraryInfo());
+            }
+        }
+        catch (RuntimeException e) {
+            // Keep watching, the next change may well fix the problem
+            System.err.printf("Translation failed: %s%n%n", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe cache of built models by requested model identifier, shared by the model managers that use it, so
+ * that the model info of a model is only loaded and imported once. Models are not modified once built, so they can
+ * be used by any number of translations at once.
+ *
+ * Each model is cached along with the model info provider it was built from. A model whose identifier has since
+ * been registered with a different provider is built again, so registering a provider with ModelInfoLoader is
+ * enough to replace a model. A provider registered under several identifiers, as for the default version of a
+ * model, has its model info loaded and imported once. The evict methods remove models explicitly, as when the model
+ * info a provider returns has changed.
+ */
+public class ModelCache {
+    private static final ModelCache GLOBAL = new ModelCache();
+
+    /**
+     * Returns the cache used by model managers created without one.
+     * @return the process-wide model cache
+     */
+    public static ModelCache getGlobal() {
+        return GLOBAL;
+    }
+
+    private static final class Entry {
+        private final ModelInfoProvider provider;
+        private final Model model;
+
+        public Entry(ModelInfoProvider provider, Model model) {
+            this.provider = provider;
+            this.model = model;
+        }
+    }
+
+    private final ConcurrentMap<VersionedIdentifier, Entry> models = new ConcurrentHashMap<>();
+
+    Model get(VersionedIdentifier modelIdentifier, ModelInfoProvider provider) {
+        Entry entry = models.get(modelIdentifier);
+        if (entry != null && entry.provider == provider) {
+            return entry.model;
+        }
+
+        // The model may be cached under another identifier the provider is registered with
+        for (Entry other : models.values()) {
+            if (other.provider == provider) {
+                return add(modelIdentifier, provider, other.model);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds a model built from the given provider, unless one was added in the meantime, and returns the cached model.
+     */
+    Model add(VersionedIdentifier modelIdentifier, ModelInfoProvider provider, Model model) {
+        return models.compute(modelIdentifier, (k, existing) ->
+                existing != null && existing.provider == provider ? existing : new Entry(provider, model)).model;
+    }
+
+    /**
+     * Registers the given provider for the model with ModelInfoLoader, and evicts the cached versions of the model,
+     * so that model managers build the model from the new provider.
+     * @param modelIdentifier the identifier of the model
+     * @param provider the provider of the model info
+     */
+    public void replace(VersionedIdentifier modelIdentifier, ModelInfoProvider provider) {
+        ModelInfoLoader.registerModelInfoProvider(modelIdentifier, provider);
+        evict(modelIdentifier.getId());
+    }
+
+    /**
+     * Evicts the model with the given identifier, as it was requested. Evicting the System model evicts all models,
+     * since they are built on it.
+     * @param modelIdentifier the identifier of the model
+     */
+    public void evict(VersionedIdentifier modelIdentifier) {
+        if (modelIdentifier == null) {
+            throw new IllegalArgumentException("modelIdentifier is null.");
+        }
+
+        if ("System".equals(modelIdentifier.getId())) {
+            clear();
+        }
+        else {
+            models.remove(modelIdentifier);
+        }
+    }
+
+    /**
+     * Evicts all versions of the model with the given name. Evicting the System model evicts all models, since they
+     * are built on it.
+     * @param modelName the name of the model
+     */
+    public void evict(String modelName) {
+        if ("System".equals(modelName)) {
+            clear();
+        }
+        else {
+            models.keySet().removeIf(identifier -> identifier.getId().equals(modelName));
+        }
+    }
+
+    public void clear() {
+        models.clear();
+    }
+
+    public int size() {
+        return models.size();
+    }
+}
@@ -2,13 +2,24 @@ package org.cqframework.cql.cql2elm;
 
 import org.hl7.elm.r1.VersionedIdentifier;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe registry of model info providers by model identifier.
+ *
+ * The global registry holds the providers of the models bundled with the translator, and is the one the static
+ * methods use. A scope is a registry layered over another registry: providers registered with a scope are only
+ * visible through that scope, and take precedence over the providers of the registries it is layered over, so that
+ * (for example) each tenant of a translation service can register its own models without affecting the
+ * translations of other tenants. A model manager resolves models through the registry it was created with.
+ *
+ * The model info a provider loads is memoized by the model cache the model built from it is cached in, see
+ * ModelCache, so it is held no longer than the model, and not at all by model managers without a cache.
+ */
 public class ModelInfoLoader {
 
-    private static final Map<VersionedIdentifier, ModelInfoProvider> PROVIDERS =
-            new HashMap<VersionedIdentifier, ModelInfoProvider>();
+    private static final ModelInfoLoader GLOBAL = new ModelInfoLoader(null);
 
     static {
         registerModelInfoProvider(new VersionedIdentifier().withId("System").withVersion("1"), new SystemModelInfoProvider());
@@ -27,39 +38,99 @@ public class ModelInfoLoader {
         registerModelInfoProvider(new VersionedIdentifier().withId("FHIR").withVersion("1.0.2"), new FhirModelInfoProvider().withVersion("1.0.2"));
     }
 
+    /**
+     * Returns the registry of the models bundled with the translator, which the static methods use.
+     * @return the global registry
+     */
+    public static ModelInfoLoader getGlobal() {
+        return GLOBAL;
+    }
+
     public static ModelInfoProvider getModelInfoProvider(VersionedIdentifier modelIdentifier) {
+        return GLOBAL.resolveProvider(modelIdentifier);
+    }
+
+    public static void registerModelInfoProvider(VersionedIdentifier modelIdentifier, ModelInfoProvider provider) {
+        GLOBAL.registerProvider(modelIdentifier, provider);
+    }
+
+    public static void unregisterModelInfoProvider(VersionedIdentifier modelIdentifier) {
+        GLOBAL.unregisterProvider(modelIdentifier);
+    }
+
+    private final ModelInfoLoader parent;
+    private final ConcurrentMap<VersionedIdentifier, ModelInfoProvider> providers = new ConcurrentHashMap<>();
+
+    private ModelInfoLoader(ModelInfoLoader parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a scope layered over this registry. Providers registered with the scope are only visible through the
+     * scope, providers registered with this registry are visible through the scope unless the scope registers its own.
+     * @return the new scope
+     */
+    public ModelInfoLoader createScope() {
+        return new ModelInfoLoader(this);
+    }
+
+    public ModelInfoLoader getParent() {
+        return parent;
+    }
+
+    /**
+     * Resolves the provider of the given model, in this registry first, then in the registries it is layered over.
+     * @param modelIdentifier the identifier of the model, with no version to resolve the default version of the model
+     * @return the provider
+     * @throws IllegalArgumentException if no provider is registered for the model
+     */
+    public ModelInfoProvider resolveProvider(VersionedIdentifier modelIdentifier) {
         checkModelIdentifier(modelIdentifier);
 
-        ModelInfoProvider provider = PROVIDERS.get(modelIdentifier);
-        if (provider == null) {
-            throw new IllegalArgumentException(String.format("Could not resolve model info provider for model %s, version %s.",
-                    modelIdentifier.getId(), modelIdentifier.getVersion()));
+        for (ModelInfoLoader loader = this; loader != null; loader = loader.parent) {
+            ModelInfoProvider provider = loader.providers.get(modelIdentifier);
+            if (provider != null) {
+                return provider;
+            }
         }
 
-        return provider;
+        throw new IllegalArgumentException(String.format("Could not resolve model info provider for model %s, version %s.",
+                modelIdentifier.getId(), modelIdentifier.getVersion()));
     }
 
-    public static void registerModelInfoProvider(VersionedIdentifier modelIdentifier, ModelInfoProvider provider) {
+    /**
+     * Registers the provider of the given model with this registry. The first version of a model registered with a
+     * registry also becomes the default version of the model in that registry.
+     * @param modelIdentifier the identifier of the model
+     * @param provider the provider of the model info
+     */
+    public void registerProvider(VersionedIdentifier modelIdentifier, ModelInfoProvider provider) {
         checkModelIdentifier(modelIdentifier);
 
         if (provider == null) {
             throw new IllegalArgumentException("Provider is null");
         }
 
-        PROVIDERS.put(modelIdentifier, provider);
+        providers.put(modelIdentifier, provider);
 
         if (modelIdentifier.getVersion() != null) {
             VersionedIdentifier versionlessIdentifier = new VersionedIdentifier().withId(modelIdentifier.getId());
-            if (!PROVIDERS.containsKey(versionlessIdentifier)) {
-                PROVIDERS.put(versionlessIdentifier, provider);
-            }
+            providers.putIfAbsent(versionlessIdentifier, provider);
         }
     }
 
-    public static void unregisterModelInfoProvider(VersionedIdentifier modelIdentifier) {
+    /**
+     * Unregisters the provider of the given model from this registry. If the provider is also the default version
+     * of the model, the model no longer has a default version in this registry.
+     * @param modelIdentifier the identifier of the model
+     */
+    public void unregisterProvider(VersionedIdentifier modelIdentifier) {
         checkModelIdentifier(modelIdentifier);
 
-        PROVIDERS.remove(modelIdentifier);
+        ModelInfoProvider provider = providers.remove(modelIdentifier);
+        if (provider != null && modelIdentifier.getVersion() != null) {
+            providers.remove(new VersionedIdentifier().withId(modelIdentifier.getId()), provider);
+        }
     }
 
     private static void checkModelIdentifier(VersionedIdentifier modelIdentifier) {
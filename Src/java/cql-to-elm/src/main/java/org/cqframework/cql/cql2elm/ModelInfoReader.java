@@ -0,0 +1,183 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.hl7.elm_modelinfo.r1.ObjectFactory;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Reads model info XML with a streaming (StAX) parser, building the model info directly from the parse events.
+ * This avoids creating a JAXB context, which is by far the most expensive part of unmarshalling model info, and
+ * never holds more than the model info itself.
+ *
+ * Elements and attributes are mapped to the model info classes through their JAXB annotations, as JAXB would,
+ * with xsi:type selecting the class of an element. Unknown elements and attributes are ignored.
+ */
+public class ModelInfoReader {
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final Map<String, Class<?>> TYPES = getTypes();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    private static Map<String, Class<?>> getTypes() {
+        // The classes of the model info package, by schema type name, are those the object factory creates
+        Map<String, Class<?>> result = new HashMap<>();
+        for (Method method : ObjectFactory.class.getDeclaredMethods()) {
+            XmlType xmlType = method.getReturnType().getAnnotation(XmlType.class);
+            if (xmlType != null && method.getParameterCount() == 0) {
+                result.put(xmlType.name(), method.getReturnType());
+            }
+        }
+
+        return result;
+    }
+
+    public static ModelInfo read(InputStream inputStream) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("inputStream is null");
+        }
+
+        try {
+            XMLStreamReader reader;
+            synchronized (INPUT_FACTORY) {
+                reader = INPUT_FACTORY.createXMLStreamReader(inputStream);
+            }
+
+            try {
+                reader.nextTag();
+                if (!reader.getLocalName().equals("modelInfo")) {
+                    throw new IllegalArgumentException(String.format("Expected modelInfo, found %s.", reader.getLocalName()));
+                }
+
+                return (ModelInfo)readObject(reader, ModelInfo.class);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e) {
+            throw new IllegalArgumentException(String.format("Could not read model info: %s", e.getMessage()), e);
+        }
+    }
+
+    private static Object readObject(XMLStreamReader reader, Class<?> declaredType) throws XMLStreamException {
+        ElmClassMapping mapping = ElmClassMapping.forClass(getType(reader, declaredType));
+        Object result = mapping.newInstance();
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String namespace = reader.getAttributeNamespace(i);
+            if (namespace != null && !namespace.isEmpty()) {
+                // xsi:type and other qualified attributes are not properties
+                continue;
+            }
+
+            ElmClassMapping.PropertyMapping property = findProperty(mapping.getAttributes(), reader.getAttributeLocalName(i));
+            if (property != null) {
+                property.set(result, parseValue(reader, property.getType(), reader.getAttributeValue(i)));
+            }
+        }
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            ElmClassMapping.PropertyMapping property = findProperty(mapping.getElements(), reader.getLocalName());
+            if (property == null) {
+                skipElement(reader);
+                continue;
+            }
+
+            Object value = property.getType().getAnnotation(XmlType.class) != null
+                    ? readObject(reader, property.getType())
+                    : parseValue(reader, property.getType(), reader.getElementText());
+            if (property.isList()) {
+                @SuppressWarnings("unchecked")
+                List<Object> values = (List<Object>)property.get(result);
+                if (values == null) {
+                    values = new ArrayList<>();
+                    property.set(result, values);
+                }
+                values.add(value);
+            }
+            else {
+                property.set(result, value);
+            }
+        }
+
+        return result;
+    }
+
+    private static Class<?> getType(XMLStreamReader reader, Class<?> declaredType) {
+        String xsiType = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "type");
+        if (xsiType == null) {
+            return declaredType;
+        }
+
+        String typeName = xsiType.substring(xsiType.indexOf(':') + 1);
+        Class<?> type = TYPES.get(typeName);
+        if (type == null || !declaredType.isAssignableFrom(type)) {
+            throw new IllegalArgumentException(String.format("Unknown type %s for %s.", xsiType, reader.getLocalName()));
+        }
+
+        return type;
+    }
+
+    private static ElmClassMapping.PropertyMapping findProperty(List<ElmClassMapping.PropertyMapping> properties, String name) {
+        for (ElmClassMapping.PropertyMapping property : properties) {
+            if (property.getName().equals(name)) {
+                return property;
+            }
+        }
+
+        return null;
+    }
+
+    private static Object parseValue(XMLStreamReader reader, Class<?> type, String value) {
+        value = value.trim();
+        if (type == String.class) {
+            return value;
+        }
+
+        if (type == Boolean.class || type == boolean.class) {
+            return value.equals("true") || value.equals("1");
+        }
+
+        if (type == Integer.class || type == int.class) {
+            return Integer.valueOf(value);
+        }
+
+        if (type == QName.class) {
+            int indexOfPrefixSeparator = value.indexOf(':');
+            String prefix = indexOfPrefixSeparator >= 0 ? value.substring(0, indexOfPrefixSeparator) : XMLConstants.DEFAULT_NS_PREFIX;
+            String namespaceUri = reader.getNamespaceContext().getNamespaceURI(prefix);
+            return new QName(namespaceUri != null ? namespaceUri : XMLConstants.NULL_NS_URI,
+                    value.substring(indexOfPrefixSeparator + 1), prefix);
+        }
+
+        throw new IllegalArgumentException(String.format("Values of type %s cannot be read.", type.getName()));
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
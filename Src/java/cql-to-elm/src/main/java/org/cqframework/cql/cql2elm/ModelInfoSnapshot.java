@@ -0,0 +1,384 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.namespace.QName;
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Loads model info from a compact binary snapshot of it where one is available, which is considerably faster than
+ * parsing the model info XML. Snapshots of the model info bundled with the translator are written at build
+ * time by running this class (see the generateModelInfoSnapshots task), and are found next to the XML on the
+ * class path, as <resource>.snapshot.
+ *
+ * A snapshot records the checksum of the XML it was written from, and is ignored if the XML has changed since,
+ * or if it cannot be read, in which case the model info is loaded from the XML. Snapshots in a directory on the
+ * class path are memory mapped, snapshots in archives are read into memory.
+ *
+ * The format consists of a header (magic number, format version and checksum of the XML) followed by the model
+ * info. Strings and classes are interned as in TranslatedLibraryWriter, and all counts and indexes are written as
+ * variable-length integers.
+ */
+public class ModelInfoSnapshot {
+    public static final int FORMAT_VERSION = 1;
+    public static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+    private static final int MAGIC = 0x4D49534E; // MISN
+
+    private static final int NULL_VALUE = 0;
+    private static final int STRING_VALUE = 1;
+    private static final int TRUE_VALUE = 2;
+    private static final int FALSE_VALUE = 3;
+    private static final int QNAME_VALUE = 4;
+    private static final int LIST_VALUE = 5;
+    private static final int OBJECT_VALUE = 6;
+
+    private static final int NULL_REFERENCE = 0;
+    private static final int NEW_REFERENCE = 1;
+
+    /**
+     * Loads the model info in the given class path resource, from its snapshot if there is a current one.
+     * @param resourcePath the absolute class path resource of the model info XML
+     * @return the model info
+     */
+    public static ModelInfo load(String resourcePath) {
+        byte[] xml;
+        try (InputStream is = ModelInfoSnapshot.class.getResourceAsStream(resourcePath)) {
+            if (is == null) {
+                throw new IllegalArgumentException(String.format("Could not find model info %s.", resourcePath));
+            }
+            xml = readAll(is);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Could not read model info %s.", resourcePath), e);
+        }
+
+        URL snapshot = ModelInfoSnapshot.class.getResource(resourcePath + SNAPSHOT_EXTENSION);
+        if (snapshot != null) {
+            try {
+                ModelInfo result = read(map(snapshot), getChecksum(xml));
+                if (result != null) {
+                    return result;
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                // Not readable with this version of the translator, fall back to the XML
+            }
+        }
+
+        return ModelInfoReader.read(new ByteArrayInputStream(xml));
+    }
+
+    /**
+     * Writes a snapshot of the given model info.
+     * @param modelInfo the model info
+     * @param xml the XML the model info was read from, whose checksum identifies the snapshot
+     * @param outputStream the stream to write the snapshot to
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(ModelInfo modelInfo, byte[] xml, OutputStream outputStream) throws IOException {
+        if (modelInfo == null) {
+            throw new IllegalArgumentException("modelInfo is null");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(getChecksum(xml));
+        new Encoder(out).writeValue(modelInfo);
+        out.flush();
+    }
+
+    /**
+     * Writes the given model info in the encoding of the snapshots, without a header.
+     */
+    static void writeValue(ModelInfo modelInfo, DataOutputStream out) throws IOException {
+        new Encoder(out).writeValue(modelInfo);
+    }
+
+    /**
+     * Reads a snapshot of model info.
+     * @param buffer the snapshot
+     * @param checksum the checksum of the XML the snapshot must have been written from
+     * @return the model info, or null if the snapshot was written from different XML, or in a different format
+     */
+    public static ModelInfo read(ByteBuffer buffer, long checksum) {
+        if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+                || buffer.getLong() != checksum) {
+            return null;
+        }
+
+        Object value = new Decoder(buffer).readValue();
+        if (!(value instanceof ModelInfo)) {
+            throw new IllegalArgumentException("Snapshot does not contain model info.");
+        }
+
+        return (ModelInfo)value;
+    }
+
+    /**
+     * Writes snapshots of the given model info resources, for bundling alongside them.
+     * Usage: ModelInfoSnapshot <output directory> <model info resource>...
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ModelInfoSnapshot <output directory> <model info resource>...");
+            System.exit(1);
+        }
+
+        Path outputDirectory = Paths.get(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            String resourcePath = args[i];
+            byte[] xml;
+            try (InputStream is = ModelInfoSnapshot.class.getResourceAsStream(resourcePath)) {
+                if (is == null) {
+                    throw new IllegalArgumentException(String.format("Could not find model info %s.", resourcePath));
+                }
+                xml = readAll(is);
+            }
+
+            ModelInfo modelInfo = ModelInfoReader.read(new ByteArrayInputStream(xml));
+            Path snapshot = outputDirectory.resolve(resourcePath.substring(resourcePath.startsWith("/") ? 1 : 0) + SNAPSHOT_EXTENSION);
+            Files.createDirectories(snapshot.getParent());
+            try (OutputStream os = Files.newOutputStream(snapshot)) {
+                write(modelInfo, xml, os);
+            }
+        }
+    }
+
+    static long getChecksum(byte[] xml) {
+        CRC32 crc = new CRC32();
+        crc.update(xml);
+        return ((long)xml.length << 32) ^ crc.getValue();
+    }
+
+    private static ByteBuffer map(URL snapshot) throws IOException {
+        if ("file".equals(snapshot.getProtocol())) {
+            try (FileChannel channel = FileChannel.open(Paths.get(snapshot.toURI()), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            catch (URISyntaxException e) {
+                // Read through the URL instead
+            }
+        }
+
+        try (InputStream is = snapshot.openStream()) {
+            return ByteBuffer.wrap(readAll(is));
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = is.read(buffer)) >= 0) {
+            result.write(buffer, 0, count);
+        }
+
+        return result.toByteArray();
+    }
+
+    private static class Encoder {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Class<?>, Integer> classes = new HashMap<>();
+
+        public Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void writeValue(Object value) throws IOException {
+            if (value == null) {
+                writeVarInt(NULL_VALUE);
+            }
+            else if (value instanceof String) {
+                writeVarInt(STRING_VALUE);
+                writeString((String)value);
+            }
+            else if (value instanceof Boolean) {
+                writeVarInt((Boolean)value ? TRUE_VALUE : FALSE_VALUE);
+            }
+            else if (value instanceof QName) {
+                QName name = (QName)value;
+                writeVarInt(QNAME_VALUE);
+                writeString(name.getNamespaceURI());
+                writeString(name.getLocalPart());
+                writeString(name.getPrefix());
+            }
+            else if (value instanceof List) {
+                List<?> values = (List<?>)value;
+                writeVarInt(LIST_VALUE);
+                writeVarInt(values.size());
+                for (Object item : values) {
+                    writeValue(item);
+                }
+            }
+            else if (value.getClass().getAnnotation(XmlType.class) != null) {
+                writeVarInt(OBJECT_VALUE);
+                writeClass(value.getClass());
+                for (ElmClassMapping.PropertyMapping property : ElmClassMapping.forClass(value.getClass()).getProperties()) {
+                    writeValue(property.get(value));
+                }
+            }
+            else {
+                throw new IllegalArgumentException(String.format("Values of type %s cannot be written.", value.getClass().getName()));
+            }
+        }
+
+        private void writeClass(Class<?> type) throws IOException {
+            Integer index = classes.get(type);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+
+            writeVarInt(NEW_REFERENCE);
+            writeString(type.getName());
+            // The property count guards against reading with a different version of the model info classes
+            writeVarInt(ElmClassMapping.forClass(type).getProperties().size());
+            classes.put(type, classes.size());
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(NULL_REFERENCE);
+                return;
+            }
+
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(NEW_REFERENCE);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+            strings.put(value, strings.size());
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    private static class Decoder {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+        private final List<ElmClassMapping> classes = new ArrayList<>();
+
+        public Decoder(ByteBuffer in) {
+            this.in = in;
+        }
+
+        public Object readValue() {
+            int tag = readVarInt();
+            switch (tag) {
+                case NULL_VALUE:
+                    return null;
+                case STRING_VALUE:
+                    return readString();
+                case TRUE_VALUE:
+                    return Boolean.TRUE;
+                case FALSE_VALUE:
+                    return Boolean.FALSE;
+                case QNAME_VALUE:
+                    return new QName(readString(), readString(), readString());
+                case LIST_VALUE:
+                    int count = readVarInt();
+                    List<Object> values = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        values.add(readValue());
+                    }
+                    return values;
+                case OBJECT_VALUE:
+                    ElmClassMapping mapping = readClass();
+                    Object result = mapping.newInstance();
+                    for (ElmClassMapping.PropertyMapping property : mapping.getProperties()) {
+                        Object value = readValue();
+                        if (value != null) {
+                            property.set(result, value);
+                        }
+                    }
+                    return result;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown value tag %d.", tag));
+            }
+        }
+
+        private ElmClassMapping readClass() {
+            int reference = readVarInt();
+            if (reference != NEW_REFERENCE) {
+                return classes.get(reference - 2);
+            }
+
+            String name = readString();
+            int propertyCount = readVarInt();
+            if (!name.startsWith("org.hl7.elm_modelinfo.r1.")) {
+                throw new IllegalArgumentException(String.format("Class %s is not a model info class.", name));
+            }
+
+            ElmClassMapping mapping;
+            try {
+                mapping = ElmClassMapping.forClass(Class.forName(name, false, ModelInfo.class.getClassLoader()));
+            }
+            catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException(String.format("Unknown class %s.", name), e);
+            }
+
+            if (mapping.getProperties().size() != propertyCount) {
+                throw new IllegalArgumentException(String.format("Class %s does not match the snapshot.", name));
+            }
+
+            classes.add(mapping);
+            return mapping;
+        }
+
+        private String readString() {
+            int reference = readVarInt();
+            if (reference == NULL_REFERENCE) {
+                return null;
+            }
+
+            if (reference != NEW_REFERENCE) {
+                return strings.get(reference - 2);
+            }
+
+            byte[] bytes = new byte[readVarInt()];
+            in.get(bytes);
+            String result = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(result);
+            return result;
+        }
+
+        private int readVarInt() {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = in.get();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+
+            throw new IllegalArgumentException("Malformed variable-length integer.");
+        }
+    }
+}
@@ -4,19 +4,79 @@ import org.cqframework.cql.cql2elm.model.Model;
 import org.cqframework.cql.cql2elm.model.SystemModel;
 import org.hl7.elm.r1.VersionedIdentifier;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by Bryn on 12/29/2016.
  */
 public class ModelManager {
-    private final Map<String, Model> models = new HashMap<>();
+    // Concurrent, since translations sharing a library manager also share its model manager
+    private final ConcurrentMap<String, Model> models = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, VersionedIdentifier> modelIdentifiers = new ConcurrentHashMap<>();
+    private final ModelCache modelCache;
+    private final ModelInfoLoader modelInfoLoader;
+
+    /**
+     * Creates a model manager that uses the process-wide model cache, so that model info is only loaded once for all
+     * the model managers in the process.
+     */
+    public ModelManager() {
+        this(ModelCache.getGlobal());
+    }
+
+    /**
+     * Creates a model manager that looks up models in the given cache before building them, and adds the models it
+     * builds to the cache. Each model manager still tracks the models in use separately, so different model managers
+     * can use different versions of the same model.
+     * @param modelCache the cache of models, or null to build the models for this model manager only
+     */
+    public ModelManager(ModelCache modelCache) {
+        this(modelCache, ModelInfoLoader.getGlobal());
+    }
+
+    /**
+     * Creates a model manager that resolves model info providers through the given registry, typically a scope of
+     * the global registry with the models of one tenant registered. The models of a scope can be cached in a shared
+     * cache, but the cache only holds one model per identifier, so scopes that register their own version of a shared
+     * model should use their own cache.
+     * @param modelCache the cache of models, or null to build the models for this model manager only
+     * @param modelInfoLoader the registry of model info providers
+     */
+    public ModelManager(ModelCache modelCache, ModelInfoLoader modelInfoLoader) {
+        if (modelInfoLoader == null) {
+            throw new IllegalArgumentException("modelInfoLoader is null");
+        }
+
+        this.modelCache = modelCache;
+        this.modelInfoLoader = modelInfoLoader;
+    }
+
+    public ModelCache getModelCache() {
+        return modelCache;
+    }
+
+    public ModelInfoLoader getModelInfoLoader() {
+        return modelInfoLoader;
+    }
 
     private Model buildModel(VersionedIdentifier identifier) {
+        ModelInfoProvider provider = modelInfoLoader.resolveProvider(identifier);
+        if (modelCache != null) {
+            Model model = modelCache.get(identifier, provider);
+            if (model == null) {
+                model = modelCache.add(identifier, provider, loadModel(identifier, provider));
+            }
+
+            return model;
+        }
+
+        return loadModel(identifier, provider);
+    }
+
+    private Model loadModel(VersionedIdentifier identifier, ModelInfoProvider provider) {
         Model model = null;
         try {
-            ModelInfoProvider provider = ModelInfoLoader.getModelInfoProvider(identifier);
             if (identifier.getId().equals("System")) {
                 model = new SystemModel(provider.load());
             }
@@ -42,8 +102,12 @@ public class ModelManager {
     public Model resolveModel(VersionedIdentifier modelIdentifier) {
         Model model = models.get(modelIdentifier.getId());
         if (model == null) {
+            // Not computeIfAbsent, building a model resolves the System model recursively
             model = buildModel(modelIdentifier);
-            models.put(modelIdentifier.getId(), model);
+            Model existingModel = models.putIfAbsent(modelIdentifier.getId(), model);
+            if (existingModel != null) {
+                model = existingModel;
+            }
         }
 
         if (modelIdentifier.getVersion() != null && !modelIdentifier.getVersion().equals(model.getModelInfo().getVersion())) {
@@ -51,6 +115,23 @@ public class ModelManager {
                     modelIdentifier.getId(), modelIdentifier.getVersion(), model.getModelInfo().getVersion()));
         }
 
+        if (modelIdentifier.getVersion() != null) {
+            modelIdentifiers.put(modelIdentifier.getId(), modelIdentifier);
+        }
+        else {
+            modelIdentifiers.putIfAbsent(modelIdentifier.getId(), modelIdentifier);
+        }
+
         return model;
     }
+
+    /**
+     * Returns the identifier the model with the given name was resolved with, which resolves the same model again.
+     * @param modelName the name of the model
+     * @return the identifier, with a version if the model was ever resolved with one, or null if the model has not
+     * been resolved
+     */
+    public VersionedIdentifier getModelIdentifier(String modelName) {
+        return modelIdentifiers.get(modelName);
+    }
 }
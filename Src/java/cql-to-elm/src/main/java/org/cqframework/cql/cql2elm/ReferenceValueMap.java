@@ -0,0 +1,161 @@
+package org.cqframework.cql.cql2elm;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe map that holds its values through weak or soft references, so that the garbage collector can
+ * reclaim them. Entries whose values have been reclaimed disappear from the map.
+ */
+class ReferenceValueMap<K, V> extends AbstractMap<K, V> {
+    private final ConcurrentMap<K, ValueReference<K, V>> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<V> queue = new ReferenceQueue<>();
+    private final boolean soft;
+
+    /**
+     * @param soft true to hold values through soft references, which are only cleared when memory runs low,
+     *             false for weak references, which are cleared as soon as the values are not otherwise reachable
+     */
+    public ReferenceValueMap(boolean soft) {
+        this.soft = soft;
+    }
+
+    private interface ValueReference<K, V> {
+        K getKey();
+        V get();
+    }
+
+    private static final class WeakValueReference<K, V> extends WeakReference<V> implements ValueReference<K, V> {
+        private final K key;
+
+        public WeakValueReference(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+    }
+
+    private static final class SoftValueReference<K, V> extends SoftReference<V> implements ValueReference<K, V> {
+        private final K key;
+
+        public SoftValueReference(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expunge() {
+        Reference<? extends V> reference;
+        while ((reference = queue.poll()) != null) {
+            ValueReference<K, V> valueReference = (ValueReference<K, V>)reference;
+            map.remove(valueReference.getKey(), valueReference);
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        ValueReference<K, V> reference = map.get(key);
+        return reference != null ? reference.get() : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Keys and values must not be null.");
+        }
+
+        expunge();
+        ValueReference<K, V> previous = map.put(key, soft
+                ? new SoftValueReference<>(key, value, queue)
+                : new WeakValueReference<>(key, value, queue));
+        return previous != null ? previous.get() : null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        expunge();
+        ValueReference<K, V> previous = map.remove(key);
+        return previous != null ? previous.get() : null;
+    }
+
+    @Override
+    public void clear() {
+        expunge();
+        map.clear();
+    }
+
+    @Override
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                // Iterates a snapshot of the values that have not been reclaimed, which are held by the snapshot
+                expunge();
+                List<Entry<K, V>> entries = new ArrayList<>();
+                for (Entry<K, ValueReference<K, V>> entry : map.entrySet()) {
+                    V value = entry.getValue().get();
+                    if (value != null) {
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), value));
+                    }
+                }
+
+                Iterator<Entry<K, V>> iterator = entries.iterator();
+                return new Iterator<Entry<K, V>>() {
+                    private Entry<K, V> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        current = iterator.next();
+                        return current;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) {
+                            throw new IllegalStateException();
+                        }
+
+                        map.remove(current.getKey());
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ReferenceValueMap.this.size();
+            }
+        };
+    }
+}
@@ -2,11 +2,8 @@ package org.cqframework.cql.cql2elm;
 
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
-import javax.xml.bind.JAXB;
-
 public class SystemModelInfoProvider implements ModelInfoProvider {
     public ModelInfo load() {
-        return JAXB.unmarshal(SystemModelInfoProvider.class.getResourceAsStream("/org/hl7/elm/r1/system-modelinfo.xml"),
-                ModelInfo.class);
+        return ModelInfoSnapshot.load("/org/hl7/elm/r1/system-modelinfo.xml");
     }
 }
@@ -0,0 +1,511 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed cache of translated libraries on local disk, so that libraries that have not changed can be
+ * loaded by later translations, in this or any other process, without being parsed and translated again.
+ *
+ * Entries are found by the source key of a library: a hash of its source, the translator options and the build
+ * of the translator and the binary library format. Each entry records the models the library was translated
+ * against (with a digest of the model info found) and the keys of its includes, which must still resolve the same
+ * way for the entry to be used, and the key of the library itself, a hash of all of the above that libraries
+ * including it record in turn. The library is stored in the format of TranslatedLibraryWriter.
+ *
+ * Entries are written to a temporary file and atomically renamed into place, so readers, in any process, never
+ * see partial entries. Reading an entry marks it as recently used, and when the cache grows beyond its maximum
+ * size, the least recently used entries are evicted by whichever process holds the lock on the cache directory.
+ */
+public class TranslatedLibraryCache {
+    static final int MAGIC = 0x454C4D43; // ELMC
+    static final int ENTRY_VERSION = 2;
+
+    private static final String ENTRY_EXTENSION = ".elmc";
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final String LOCK_FILE = ".lock";
+    // Temporary files older than this were left behind by processes that did not finish writing them
+    private static final long TEMPORARY_FILE_EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String TRANSLATOR_BUILD = getTranslatorBuild();
+
+    private final Path directory;
+    private final long maxSize;
+    // The size of the cache as far as this instance knows, other processes may have written or evicted entries
+    private final AtomicLong size = new AtomicLong(-1);
+
+    /**
+     * @param directory the cache directory, created if it does not exist
+     * @param maxSize the maximum size of the cache in bytes
+     * @throws IOException if the directory cannot be created
+     */
+    public TranslatedLibraryCache(Path directory, long maxSize) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory is null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the key entries for a library are stored under.
+     * @param source the source of the library
+     * @param options the translator options that affect the translated library
+     * @return the source key
+     */
+    public String getSourceKey(byte[] source, Set<CqlTranslator.Options> options) {
+        if (source == null) {
+            throw new IllegalArgumentException("source is null");
+        }
+
+        return hash(out -> {
+            out.writeInt(ENTRY_VERSION);
+            out.writeInt(TranslatedLibraryWriter.FORMAT_VERSION);
+            writeString(out, TRANSLATOR_BUILD);
+            out.writeInt(source.length);
+            out.write(source);
+            for (CqlTranslator.Options option : new TreeSet<>(options)) {
+                writeString(out, option.name());
+            }
+        });
+    }
+
+    /**
+     * Returns the key of a library, identifying its translation including everything it depends on.
+     * @param sourceKey the source key of the library
+     * @param models the models the library uses, resolved to the digests of their model info
+     * @param includes the libraries the library includes, resolved to their keys
+     * @return the library key
+     */
+    public String getKey(String sourceKey, List<Dependency> models, List<Dependency> includes) {
+        return hash(out -> {
+            writeString(out, sourceKey);
+            writeDependencies(out, models);
+            writeDependencies(out, includes);
+        });
+    }
+
+    /**
+     * Returns the entry stored under the given source key, and marks it as recently used.
+     * @param sourceKey the source key
+     * @return the entry, or null if there is no readable entry
+     */
+    public Entry read(String sourceKey) {
+        Path file = getEntryFile(sourceKey);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        }
+        catch (IOException e) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC || in.readInt() != ENTRY_VERSION) {
+                return null;
+            }
+
+            String key = readString(in);
+            List<Dependency> models = readDependencies(in);
+            List<Dependency> includes = readDependencies(in);
+            byte[] library = new byte[in.readInt()];
+            in.readFully(library);
+
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            catch (IOException e) {
+                // The entry was evicted in the meantime, it is still good to use
+            }
+
+            return new Entry(key, models, includes, library);
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores an entry under the given source key, replacing any existing entry, and evicts the least recently
+     * used entries if the cache has grown beyond its maximum size.
+     * @param sourceKey the source key
+     * @param entry the entry
+     * @throws IOException if the entry cannot be written
+     */
+    public void write(String sourceKey, Entry entry) throws IOException {
+        if (entry == null) {
+            throw new IllegalArgumentException("entry is null");
+        }
+
+        Path file = getEntryFile(sourceKey);
+        Path temporaryFile = Files.createTempFile(directory, sourceKey, TEMPORARY_EXTENSION);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(ENTRY_VERSION);
+                writeString(out, entry.getKey());
+                writeDependencies(out, entry.getModels());
+                writeDependencies(out, entry.getIncludes());
+                out.writeInt(entry.getLibrary().length);
+                out.write(entry.getLibrary());
+            }
+
+            long entrySize = Files.size(temporaryFile);
+            long replacedSize = 0;
+            try {
+                replacedSize = Files.size(file);
+            }
+            catch (IOException e) {
+                // No entry to replace
+            }
+
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            if (size.get() < 0) {
+                size.compareAndSet(-1, getSize());
+            }
+            else {
+                size.addAndGet(entrySize - replacedSize);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+
+        if (size.get() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Returns the total size of the entries in the cache.
+     * @return the size in bytes
+     * @throws IOException if the cache directory cannot be read
+     */
+    public long getSize() throws IOException {
+        long result = 0;
+        for (Map.Entry<Path, BasicFileAttributes> entry : listEntries().entrySet()) {
+            result += entry.getValue().size();
+        }
+
+        return result;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is comfortably below its maximum size, unless another
+     * thread or process is already doing so.
+     * @throws IOException if the cache directory cannot be read
+     */
+    public void evict() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            }
+            catch (OverlappingFileLockException e) {
+                return;
+            }
+            if (lock == null) {
+                return;
+            }
+
+            try {
+                Map<Path, BasicFileAttributes> entries = listEntries();
+                List<Path> files = new ArrayList<>(entries.keySet());
+                files.sort(Comparator.comparing(file -> entries.get(file).lastModifiedTime()));
+
+                long total = 0;
+                for (BasicFileAttributes attributes : entries.values()) {
+                    total += attributes.size();
+                }
+
+                // Evict down to 90% of the maximum size, so that not every following write has to evict again
+                long targetSize = maxSize - maxSize / 10;
+                for (Path file : files) {
+                    if (total <= targetSize) {
+                        break;
+                    }
+
+                    try {
+                        Files.deleteIfExists(file);
+                        total -= entries.get(file).size();
+                    }
+                    catch (IOException e) {
+                        // In use on a platform that does not allow deleting open files, try again next time
+                    }
+                }
+
+                size.set(total);
+                deleteExpiredTemporaryFiles();
+            }
+            finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns a digest of the model info of the given model, so that libraries translated against a model are not
+     * used once the model info changes, even when its version does not. The digest covers the whole model info, so it
+     * is computed once and kept with the model.
+     * @param model the model
+     * @return the digest
+     */
+    public static String getModelInfoDigest(Model model) {
+        if (model == null) {
+            throw new IllegalArgumentException("model is null");
+        }
+
+        String result = model.getModelInfoDigest();
+        if (result == null) {
+            ModelInfo modelInfo = model.getModelInfo();
+            result = hash(out -> ModelInfoSnapshot.writeValue(modelInfo, out));
+            model.setModelInfoDigest(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns what identifies the build of the translator: the implementation version from the jar manifest, and
+     * the time the translator classes were built, which tells apart builds of the same version, and builds run from
+     * the class files, which have no version.
+     */
+    private static String getTranslatorBuild() {
+        long buildTime = 0;
+        try {
+            URL classFile = CqlTranslator.class.getResource("CqlTranslator.class");
+            if (classFile != null) {
+                URLConnection connection = classFile.openConnection();
+                buildTime = connection.getLastModified();
+                connection.getInputStream().close();
+            }
+        }
+        catch (IOException e) {
+            // Identified by the version alone
+        }
+
+        return CqlTranslator.class.getPackage().getImplementationVersion() + "@" + buildTime;
+    }
+
+    private Map<Path, BasicFileAttributes> listEntries() throws IOException {
+        Map<Path, BasicFileAttributes> result = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + ENTRY_EXTENSION)) {
+            for (Path file : files) {
+                try {
+                    result.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+                }
+                catch (NoSuchFileException e) {
+                    // Evicted by another process
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private void deleteExpiredTemporaryFiles() throws IOException {
+        long expiry = System.currentTimeMillis() - TEMPORARY_FILE_EXPIRY_MILLIS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + TEMPORARY_EXTENSION)) {
+            for (Path file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < expiry) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                catch (IOException e) {
+                    // Renamed or deleted in the meantime
+                }
+            }
+        }
+    }
+
+    private Path getEntryFile(String sourceKey) {
+        if (sourceKey == null || !sourceKey.matches("[0-9a-f]+")) {
+            throw new IllegalArgumentException(String.format("Invalid source key %s.", sourceKey));
+        }
+
+        return directory.resolve(sourceKey + ENTRY_EXTENSION);
+    }
+
+    private interface HashInput {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static String hash(HashInput input) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }, digest))) {
+            input.write(out);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not compute hash.", e);
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+
+        return result.toString();
+    }
+
+    private static void writeDependencies(DataOutputStream out, List<Dependency> dependencies) throws IOException {
+        out.writeInt(dependencies.size());
+        for (Dependency dependency : dependencies) {
+            writeString(out, dependency.getId());
+            writeString(out, dependency.getVersion());
+            writeString(out, dependency.getResolution());
+        }
+    }
+
+    private static List<Dependency> readDependencies(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<Dependency> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new Dependency(readString(in), readString(in), readString(in)));
+        }
+
+        return result;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        }
+        else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A model or library a cached library depends on: the identifier it was referenced by, and what it resolved
+     * to, the digest of the model info for a model, or the key for a library.
+     */
+    public static final class Dependency {
+        private final String id;
+        private final String version;
+        private final String resolution;
+
+        public Dependency(String id, String version, String resolution) {
+            if (id == null) {
+                throw new IllegalArgumentException("id is null");
+            }
+
+            this.id = id;
+            this.version = version;
+            this.resolution = resolution;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getResolution() {
+            return resolution;
+        }
+    }
+
+    public static final class Entry {
+        private final String key;
+        private final List<Dependency> models;
+        private final List<Dependency> includes;
+        private final byte[] library;
+
+        public Entry(String key, List<Dependency> models, List<Dependency> includes, byte[] library) {
+            if (key == null) {
+                throw new IllegalArgumentException("key is null");
+            }
+            if (library == null) {
+                throw new IllegalArgumentException("library is null");
+            }
+
+            this.key = key;
+            this.models = Collections.unmodifiableList(new ArrayList<>(models));
+            this.includes = Collections.unmodifiableList(new ArrayList<>(includes));
+            this.library = library;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public List<Dependency> getModels() {
+            return models;
+        }
+
+        public List<Dependency> getIncludes() {
+            return includes;
+        }
+
+        /**
+         * Returns the library, as written by TranslatedLibraryWriter.
+         * @return the library bytes
+         */
+        public byte[] getLibrary() {
+            return library;
+        }
+    }
+}
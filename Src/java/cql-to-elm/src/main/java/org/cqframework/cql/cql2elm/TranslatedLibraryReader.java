@@ -0,0 +1,379 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Conversion;
+import org.cqframework.cql.cql2elm.model.Operator;
+import org.cqframework.cql.cql2elm.model.Signature;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.cqframework.cql.elm.tracking.TrackBack;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.hl7.cql.model.*;
+import org.hl7.elm.r1.*;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.cqframework.cql.cql2elm.TranslatedLibraryWriter.*;
+
+/**
+ * Reads a TranslatedLibrary written by TranslatedLibraryWriter.
+ *
+ * Named result types are resolved against the models of the given ModelManager, and the namespace and
+ * operators of the library are registered from its definitions, so the result can be used to resolve
+ * references from other libraries just like a library translated from source.
+ */
+public class TranslatedLibraryReader {
+    private final ModelManager modelManager;
+
+    public TranslatedLibraryReader(ModelManager modelManager) {
+        if (modelManager == null) {
+            throw new IllegalArgumentException("modelManager is null");
+        }
+
+        this.modelManager = modelManager;
+    }
+
+    public TranslatedLibrary read(InputStream inputStream) throws IOException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("inputStream is null");
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        return new Decoder(in).readLibrary();
+    }
+
+    private class Decoder {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final List<Class<?>> classes = new ArrayList<>();
+        private final List<DataType> types = new ArrayList<>();
+        private final DataTypeInterner typeInterner = new DataTypeInterner();
+        private final List<VersionedIdentifier> identifiers = new ArrayList<>();
+
+        public Decoder(DataInputStream in) {
+            this.in = in;
+        }
+
+        public TranslatedLibrary readLibrary() throws IOException {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Input is not a binary translated library.");
+            }
+
+            int version = readVarInt();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException(String.format("Binary translated library format version %d is not supported, expected version %d.",
+                        version, FORMAT_VERSION));
+            }
+
+            Object value = readValue();
+            if (!(value instanceof Library)) {
+                throw new IllegalArgumentException("Input does not contain a library.");
+            }
+
+            Library library = (Library)value;
+            TranslatedLibrary result = new TranslatedLibrary();
+            result.setIdentifier(library.getIdentifier());
+            result.setLibrary(library);
+            register(result, library);
+
+            int conversionCount = readVarInt();
+            for (int i = 0; i < conversionCount; i++) {
+                String name = readString();
+                String libraryName = readString();
+                String accessLevel = readString();
+                DataType[] operandTypes = new DataType[readVarInt()];
+                for (int j = 0; j < operandTypes.length; j++) {
+                    operandTypes[j] = readType();
+                }
+
+                Operator operator = new Operator(name, new Signature(operandTypes), readType());
+                if (libraryName != null) {
+                    operator.setLibraryName(libraryName);
+                }
+                if (accessLevel != null) {
+                    operator.setAccessLevel(AccessModifier.valueOf(accessLevel));
+                }
+                result.add(new Conversion(operator, in.readBoolean()));
+            }
+
+            return result;
+        }
+
+        private void register(TranslatedLibrary result, Library library) {
+            if (library.getUsings() != null) {
+                for (UsingDef using : library.getUsings().getDef()) {
+                    result.add(using);
+                }
+            }
+
+            if (library.getIncludes() != null) {
+                for (IncludeDef include : library.getIncludes().getDef()) {
+                    result.add(include);
+                }
+            }
+
+            if (library.getParameters() != null) {
+                for (ParameterDef parameter : library.getParameters().getDef()) {
+                    result.add(parameter);
+                }
+            }
+
+            if (library.getCodeSystems() != null) {
+                for (CodeSystemDef codeSystem : library.getCodeSystems().getDef()) {
+                    result.add(codeSystem);
+                }
+            }
+
+            if (library.getValueSets() != null) {
+                for (ValueSetDef valueSet : library.getValueSets().getDef()) {
+                    result.add(valueSet);
+                }
+            }
+
+            if (library.getCodes() != null) {
+                for (CodeDef code : library.getCodes().getDef()) {
+                    result.add(code);
+                }
+            }
+
+            if (library.getConcepts() != null) {
+                for (ConceptDef concept : library.getConcepts().getDef()) {
+                    result.add(concept);
+                }
+            }
+
+            if (library.getStatements() != null) {
+                for (ExpressionDef expression : library.getStatements().getDef()) {
+                    result.add(expression);
+                }
+            }
+        }
+
+        private Object readValue() throws IOException {
+            int tag = readVarInt();
+            switch (tag) {
+                case NULL_VALUE:
+                    return null;
+                case STRING_VALUE:
+                    return readString();
+                case INTEGER_VALUE:
+                    int i = readVarInt();
+                    return (i >>> 1) ^ -(i & 1);
+                case TRUE_VALUE:
+                    return Boolean.TRUE;
+                case FALSE_VALUE:
+                    return Boolean.FALSE;
+                case DECIMAL_VALUE:
+                    return new BigDecimal(readString());
+                case QNAME_VALUE:
+                    return new QName(readString(), readString(), readString());
+                case ENUM_VALUE:
+                    return readEnum();
+                case LIST_VALUE:
+                    int count = readVarInt();
+                    List<Object> values = new ArrayList<>(count);
+                    for (int j = 0; j < count; j++) {
+                        values.add(readValue());
+                    }
+                    return values;
+                case ELEMENT_VALUE:
+                    return readElement();
+                case OBJECT_VALUE:
+                    return readObject();
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown value tag %d.", tag));
+            }
+        }
+
+        private Object readEnum() throws IOException {
+            Class<?> type = readClass();
+            String name = readString();
+            if (type == null || !type.isEnum()) {
+                throw new IllegalArgumentException("Enumerated value does not refer to an enumeration.");
+            }
+
+            for (Object constant : type.getEnumConstants()) {
+                if (((Enum<?>)constant).name().equals(name)) {
+                    return constant;
+                }
+            }
+
+            throw new IllegalArgumentException(String.format("Enumeration %s has no constant %s.", type.getName(), name));
+        }
+
+        private JAXBElement<Object> readElement() throws IOException {
+            QName name = new QName(readString(), readString());
+            @SuppressWarnings("unchecked")
+            Class<Object> declaredType = (Class<Object>)readClass();
+            Class<?> scope = readClass();
+            return new JAXBElement<Object>(name, declaredType, scope, readValue());
+        }
+
+        private Object readObject() throws IOException {
+            Class<?> type = readClass();
+            if (type == null) {
+                throw new IllegalArgumentException("Object value does not have a type.");
+            }
+
+            ElmClassMapping mapping = ElmClassMapping.forClass(type);
+            Object result = mapping.newInstance();
+            for (ElmClassMapping.PropertyMapping property : mapping.getProperties()) {
+                Object value = readValue();
+                if (value != null) {
+                    property.set(result, value);
+                }
+            }
+
+            if (result instanceof Trackable) {
+                Trackable trackable = (Trackable)result;
+                int count = readVarInt();
+                for (int i = 0; i < count; i++) {
+                    trackable.getTrackbacks().add(new TrackBack(readIdentifier(), readVarInt(), readVarInt(), readVarInt(), readVarInt()));
+                }
+                trackable.setResultType(readType());
+            }
+
+            return result;
+        }
+
+        private DataType readType() throws IOException {
+            int reference = readVarInt();
+            if (reference == NULL_REFERENCE) {
+                return null;
+            }
+
+            if (reference != NEW_REFERENCE) {
+                return types.get(reference - 2);
+            }
+
+            DataType result;
+            int tag = readVarInt();
+            switch (tag) {
+                case NAMED_TYPE:
+                    String namespace = readString();
+                    String modelVersion = readString();
+                    String name = readString();
+                    result = modelManager.resolveModel(namespace, modelVersion).resolveTypeName(name);
+                    if (result == null) {
+                        throw new IllegalArgumentException(String.format("Could not resolve type name %s in model %s.", name, namespace));
+                    }
+                    break;
+                case LIST_TYPE:
+                    result = typeInterner.listOf(readType());
+                    break;
+                case INTERVAL_TYPE:
+                    result = typeInterner.intervalOf(readType());
+                    break;
+                case TUPLE_TYPE:
+                    int elementCount = readVarInt();
+                    List<TupleTypeElement> elements = new ArrayList<>(elementCount);
+                    for (int i = 0; i < elementCount; i++) {
+                        elements.add(new TupleTypeElement(readString(), readType()));
+                    }
+                    result = typeInterner.tupleOf(elements);
+                    break;
+                case CHOICE_TYPE:
+                    int choiceCount = readVarInt();
+                    List<DataType> choices = new ArrayList<>(choiceCount);
+                    for (int i = 0; i < choiceCount; i++) {
+                        choices.add(readType());
+                    }
+                    result = typeInterner.choiceOf(choices);
+                    break;
+                case TYPE_PARAMETER:
+                    result = new TypeParameter(readString());
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown type tag %d.", tag));
+            }
+
+            types.add(result);
+            return result;
+        }
+
+        private VersionedIdentifier readIdentifier() throws IOException {
+            int reference = readVarInt();
+            if (reference == NULL_REFERENCE) {
+                return null;
+            }
+
+            if (reference != NEW_REFERENCE) {
+                return identifiers.get(reference - 2);
+            }
+
+            VersionedIdentifier result = new VersionedIdentifier().withId(readString()).withSystem(readString()).withVersion(readString());
+            identifiers.add(result);
+            return result;
+        }
+
+        private Class<?> readClass() throws IOException {
+            int reference = readVarInt();
+            if (reference == NULL_REFERENCE) {
+                return null;
+            }
+
+            if (reference != NEW_REFERENCE) {
+                return classes.get(reference - 2);
+            }
+
+            String name = readString();
+            int propertyCount = readVarInt();
+            if (!name.startsWith("org.hl7.elm.r1.") && !name.startsWith("org.hl7.cql_annotations.r1.")
+                    && !name.equals(JAXBElement.GlobalScope.class.getName())) {
+                throw new IllegalArgumentException(String.format("Class %s is not an ELM class.", name));
+            }
+
+            Class<?> result;
+            try {
+                result = Class.forName(name, false, Library.class.getClassLoader());
+            }
+            catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException(String.format("Could not load class %s.", name), e);
+            }
+
+            if (ElmClassMapping.forClass(result).getProperties().size() != propertyCount) {
+                throw new IllegalArgumentException(String.format("Class %s does not match the class the library was written with.", name));
+            }
+
+            classes.add(result);
+            return result;
+        }
+
+        private String readString() throws IOException {
+            int reference = readVarInt();
+            if (reference == NULL_REFERENCE) {
+                return null;
+            }
+
+            if (reference != NEW_REFERENCE) {
+                return strings.get(reference - 2);
+            }
+
+            byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            String result = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(result);
+            return result;
+        }
+
+        private int readVarInt() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.readUnsignedByte();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+
+            throw new IllegalArgumentException("Malformed variable-length integer.");
+        }
+    }
+}
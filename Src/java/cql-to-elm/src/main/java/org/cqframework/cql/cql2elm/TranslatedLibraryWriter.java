@@ -0,0 +1,358 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Conversion;
+import org.cqframework.cql.cql2elm.model.Operator;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.cqframework.cql.elm.tracking.TrackBack;
+import org.cqframework.cql.elm.tracking.Trackable;
+import org.hl7.cql.model.*;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.annotation.XmlType;
+import javax.xml.namespace.QName;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes a TranslatedLibrary in a compact, versioned binary format that TranslatedLibraryReader can load back
+ * considerably faster than the library can be retranslated from source, or unmarshalled from ELM XML or JSON.
+ *
+ * The format consists of a header (magic number and format version), the ELM Library, including the result types
+ * and trackbacks of each element, and the conversions registered with the library. Strings, classes, result types
+ * and trackback library identifiers are interned: each is written in full the first time it is encountered and
+ * referred to by index afterwards. All counts, indexes and trackback positions are written as variable-length
+ * integers. Named result types are written by name, with the version the model that defines them was resolved with
+ * by the ModelManager the library was translated with, and resolved against the models of the reading ModelManager.
+ *
+ * The operators of the library are not written, they are registered again from the FunctionDefs in the library
+ * when it is read.
+ */
+public class TranslatedLibraryWriter {
+    public static final int FORMAT_VERSION = 2;
+
+    static final int MAGIC = 0x454C4D42; // ELMB
+
+    // Value tags
+    static final int NULL_VALUE = 0;
+    static final int STRING_VALUE = 1;
+    static final int INTEGER_VALUE = 2;
+    static final int TRUE_VALUE = 3;
+    static final int FALSE_VALUE = 4;
+    static final int DECIMAL_VALUE = 5;
+    static final int QNAME_VALUE = 6;
+    static final int ENUM_VALUE = 7;
+    static final int OBJECT_VALUE = 8;
+    static final int LIST_VALUE = 9;
+    static final int ELEMENT_VALUE = 10;
+
+    // Type tags
+    static final int NAMED_TYPE = 1;
+    static final int LIST_TYPE = 2;
+    static final int INTERVAL_TYPE = 3;
+    static final int TUPLE_TYPE = 4;
+    static final int CHOICE_TYPE = 5;
+    static final int TYPE_PARAMETER = 6;
+
+    // Interned references are written as 0 for null, 1 for a new entry (which follows), or the index of an existing entry plus 2
+    static final int NULL_REFERENCE = 0;
+    static final int NEW_REFERENCE = 1;
+
+    private final ModelManager modelManager;
+
+    /**
+     * @param modelManager the model manager the libraries to write were translated with
+     */
+    public TranslatedLibraryWriter(ModelManager modelManager) {
+        if (modelManager == null) {
+            throw new IllegalArgumentException("modelManager is null");
+        }
+
+        this.modelManager = modelManager;
+    }
+
+    public void write(TranslatedLibrary library, OutputStream outputStream) throws IOException {
+        if (library == null) {
+            throw new IllegalArgumentException("library is null");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        new Encoder(out).writeLibrary(library);
+        out.flush();
+    }
+
+    private class Encoder {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Class<?>, Integer> classes = new HashMap<>();
+        private final Map<DataType, Integer> types = new HashMap<>();
+        private final Map<List<String>, Integer> identifiers = new HashMap<>();
+        // By namespace, the version the model that defines the named types of the namespace was resolved with
+        private final Map<String, String> modelVersions = new HashMap<>();
+
+        public Encoder(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public void writeLibrary(TranslatedLibrary library) throws IOException {
+            out.writeInt(MAGIC);
+            writeVarInt(FORMAT_VERSION);
+            writeValue(library.getLibrary());
+
+            List<Conversion> conversions = new ArrayList<>();
+            for (Conversion conversion : library.getConversions()) {
+                conversions.add(conversion);
+            }
+
+            writeVarInt(conversions.size());
+            for (Conversion conversion : conversions) {
+                Operator operator = conversion.getOperator();
+                if (operator == null) {
+                    throw new IllegalArgumentException("Only operator conversions can be written as part of a library.");
+                }
+
+                writeString(operator.getName());
+                writeString(operator.getLibraryName());
+                writeString(operator.getAccessLevel() != null ? operator.getAccessLevel().name() : null);
+                writeVarInt(operator.getSignature().getSize());
+                for (DataType operandType : operator.getSignature().getOperandTypes()) {
+                    writeType(operandType);
+                }
+                writeType(operator.getResultType());
+                out.writeBoolean(conversion.isImplicit());
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                writeVarInt(NULL_VALUE);
+            }
+            else if (value instanceof String) {
+                writeVarInt(STRING_VALUE);
+                writeString((String)value);
+            }
+            else if (value instanceof Integer) {
+                writeVarInt(INTEGER_VALUE);
+                int i = (Integer)value;
+                writeVarInt((i << 1) ^ (i >> 31));
+            }
+            else if (value instanceof Boolean) {
+                writeVarInt((Boolean)value ? TRUE_VALUE : FALSE_VALUE);
+            }
+            else if (value instanceof BigDecimal) {
+                writeVarInt(DECIMAL_VALUE);
+                writeString(value.toString());
+            }
+            else if (value instanceof QName) {
+                QName name = (QName)value;
+                writeVarInt(QNAME_VALUE);
+                writeString(name.getNamespaceURI());
+                writeString(name.getLocalPart());
+                writeString(name.getPrefix());
+            }
+            else if (value instanceof Enum) {
+                writeVarInt(ENUM_VALUE);
+                writeClass(((Enum<?>)value).getDeclaringClass());
+                writeString(((Enum<?>)value).name());
+            }
+            else if (value instanceof List) {
+                List<?> values = (List<?>)value;
+                writeVarInt(LIST_VALUE);
+                writeVarInt(values.size());
+                for (Object item : values) {
+                    writeValue(item);
+                }
+            }
+            else if (value instanceof JAXBElement) {
+                JAXBElement<?> element = (JAXBElement<?>)value;
+                writeVarInt(ELEMENT_VALUE);
+                writeString(element.getName().getNamespaceURI());
+                writeString(element.getName().getLocalPart());
+                writeClass(element.getDeclaredType());
+                writeClass(element.getScope());
+                writeValue(element.getValue());
+            }
+            else {
+                writeObject(value);
+            }
+        }
+
+        private void writeObject(Object value) throws IOException {
+            if (value.getClass().getAnnotation(XmlType.class) == null) {
+                throw new IllegalArgumentException(String.format("Values of type %s cannot be written.", value.getClass().getName()));
+            }
+
+            writeVarInt(OBJECT_VALUE);
+            writeClass(value.getClass());
+            for (ElmClassMapping.PropertyMapping property : ElmClassMapping.forClass(value.getClass()).getProperties()) {
+                writeValue(property.get(value));
+            }
+
+            if (value instanceof Trackable) {
+                Trackable trackable = (Trackable)value;
+                writeVarInt(trackable.getTrackbacks().size());
+                for (TrackBack trackback : trackable.getTrackbacks()) {
+                    writeIdentifier(trackback.getLibrary());
+                    writeVarInt(trackback.getStartLine());
+                    writeVarInt(trackback.getStartChar());
+                    writeVarInt(trackback.getEndLine());
+                    writeVarInt(trackback.getEndChar());
+                }
+                writeType(trackable.getResultType());
+            }
+        }
+
+        /**
+         * Returns the version the model that defines the types of the given namespace was resolved with, which need
+         * not be a model the library uses itself, as for the types of the expressions of included libraries.
+         */
+        private String getModelVersion(String namespace) {
+            if (namespace == null) {
+                return null;
+            }
+
+            if (!modelVersions.containsKey(namespace)) {
+                VersionedIdentifier modelIdentifier = modelManager.getModelIdentifier(namespace);
+                modelVersions.put(namespace, modelIdentifier != null ? modelIdentifier.getVersion() : null);
+            }
+
+            return modelVersions.get(namespace);
+        }
+
+        private void writeType(DataType type) throws IOException {
+            if (type == null) {
+                writeVarInt(NULL_REFERENCE);
+                return;
+            }
+
+            Integer index = types.get(type);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+
+            writeVarInt(NEW_REFERENCE);
+            if (type instanceof NamedType) {
+                writeVarInt(NAMED_TYPE);
+                String namespace = ((NamedType)type).getNamespace();
+                writeString(namespace);
+                writeString(getModelVersion(namespace));
+                writeString(((NamedType)type).getName());
+            }
+            else if (type instanceof ListType) {
+                writeVarInt(LIST_TYPE);
+                writeType(((ListType)type).getElementType());
+            }
+            else if (type instanceof IntervalType) {
+                writeVarInt(INTERVAL_TYPE);
+                writeType(((IntervalType)type).getPointType());
+            }
+            else if (type instanceof TupleType) {
+                List<TupleTypeElement> elements = new ArrayList<>();
+                for (TupleTypeElement element : ((TupleType)type).getElements()) {
+                    elements.add(element);
+                }
+
+                writeVarInt(TUPLE_TYPE);
+                writeVarInt(elements.size());
+                for (TupleTypeElement element : elements) {
+                    writeString(element.getName());
+                    writeType(element.getType());
+                }
+            }
+            else if (type instanceof ChoiceType) {
+                List<DataType> choices = new ArrayList<>();
+                for (DataType choice : ((ChoiceType)type).getTypes()) {
+                    choices.add(choice);
+                }
+
+                writeVarInt(CHOICE_TYPE);
+                writeVarInt(choices.size());
+                for (DataType choice : choices) {
+                    writeType(choice);
+                }
+            }
+            else if (type instanceof TypeParameter) {
+                writeVarInt(TYPE_PARAMETER);
+                writeString(((TypeParameter)type).getIdentifier());
+            }
+            else {
+                throw new IllegalArgumentException(String.format("Result type %s cannot be written.", type.toString()));
+            }
+
+            // Entries are numbered once complete, so that component types are numbered before the types that use them
+            types.put(type, types.size());
+        }
+
+        private void writeIdentifier(VersionedIdentifier identifier) throws IOException {
+            if (identifier == null) {
+                writeVarInt(NULL_REFERENCE);
+                return;
+            }
+
+            List<String> key = Arrays.asList(identifier.getId(), identifier.getSystem(), identifier.getVersion());
+            Integer index = identifiers.get(key);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+
+            writeVarInt(NEW_REFERENCE);
+            writeString(identifier.getId());
+            writeString(identifier.getSystem());
+            writeString(identifier.getVersion());
+            identifiers.put(key, identifiers.size());
+        }
+
+        private void writeClass(Class<?> type) throws IOException {
+            if (type == null) {
+                writeVarInt(NULL_REFERENCE);
+                return;
+            }
+
+            Integer index = classes.get(type);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+
+            writeVarInt(NEW_REFERENCE);
+            writeString(type.getName());
+            // The property count guards against reading with a different version of the ELM classes
+            writeVarInt(ElmClassMapping.forClass(type).getProperties().size());
+            classes.put(type, classes.size());
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(NULL_REFERENCE);
+                return;
+            }
+
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarInt(index + 2);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(NEW_REFERENCE);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+            strings.put(value, strings.size());
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+}
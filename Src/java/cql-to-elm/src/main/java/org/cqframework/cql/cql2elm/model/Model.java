@@ -5,56 +5,65 @@ import org.hl7.cql.model.*;
 import org.hl7.elm_modelinfo.r1.ModelInfo;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class Model {
     public Model(@NotNull ModelInfo modelInfo, Model systemModel) throws ClassNotFoundException {
         info = modelInfo;
-        index = new HashMap<>();
-        nameIndex = new HashMap<>();
-        classIndex = new HashMap<>();
+        index = new ConcurrentHashMap<>();
+        classIndex = new ConcurrentHashMap<>();
         conversions = new ArrayList<>();
 
-        ModelImporter importer = new ModelImporter(info, systemModel != null ? systemModel.nameIndex.values() : null);
-        index = importer.getTypes();
+        // Types are imported on first use, only the conversions are imported up front
+        importer = new ModelImporter(modelInfo, systemModel);
         for (Conversion c : importer.getConversions()) {
             conversions.add(c);
         }
-
-        for (DataType t : index.values()) {
-            if (t instanceof ClassType && ((ClassType)t).getLabel() != null) {
-                classIndex.put(casify(((ClassType)t).getLabel()), (ClassType)t);
-            }
-
-            if (t instanceof NamedType) {
-                nameIndex.put(casify(((NamedType)t).getSimpleName()), t);
-            }
-        }
     }
 
     private ModelInfo info;
     public ModelInfo getModelInfo() { return info; }
 
-    private Map<String, DataType> index;
-    private Map<String, ClassType> classIndex;
-    private Map<String, DataType> nameIndex;
-    private List<Conversion> conversions;
+    // Computed on first use, as models are not modified once built, see TranslatedLibraryCache.getModelInfoDigest
+    private volatile String modelInfoDigest;
+    public String getModelInfoDigest() { return modelInfoDigest; }
+    public void setModelInfoDigest(String modelInfoDigest) { this.modelInfoDigest = modelInfoDigest; }
+
+    private final ModelImporter importer;
+    // Types by casified name and label as looked up, so that lookups of imported types do not take the importer's lock
+    private final ConcurrentMap<String, DataType> index;
+    private final ConcurrentMap<String, ClassType> classIndex;
+    private final List<Conversion> conversions;
 
     public Iterable<Conversion> getConversions() {
         return conversions;
     }
 
     public DataType resolveTypeName(@NotNull String typeName) {
-        typeName = casify(typeName);
-        DataType result = index.get(typeName);
+        String key = casify(typeName);
+        DataType result = index.get(key);
         if (result == null) {
-            result = nameIndex.get(typeName);
+            result = importer.resolveModelTypeName(typeName);
+            if (result != null) {
+                index.put(key, result);
+            }
         }
 
         return result;
     }
 
     public ClassType resolveLabel(@NotNull String label) {
-        return classIndex.get(casify(label));
+        String key = casify(label);
+        ClassType result = classIndex.get(key);
+        if (result == null) {
+            result = importer.resolveLabel(label);
+            if (result != null) {
+                classIndex.put(key, result);
+            }
+        }
+
+        return result;
     }
 
     private String casify(String typeName) {
@@ -4,82 +4,152 @@ import org.hl7.cql.model.*;
 import org.hl7.elm_modelinfo.r1.*;
 
 import java.util.*;
-
+import java.util.function.Supplier;
+
+/**
+ * Imports the types and conversions of a model from its model info. Conversions are imported up front, types are
+ * imported on demand, the first time they are looked up through resolveModelTypeName or resolveLabel, so that only
+ * the types a translation uses are ever built. Importing a type imports its base types, so subtype relationships are
+ * always complete, but the elements of a class type are only imported when they are first used.
+ *
+ * The importer is thread-safe, types and elements are imported under the importer's lock, and types are completely
+ * built (but for their elements) before they are returned.
+ */
 public class ModelImporter {
 
-    private ModelInfo modelInfo;
-    private Map<String, TypeInfo> typeInfoIndex;
-    private Map<String, DataType> resolvedTypes;
-    private List<DataType> dataTypes;
-    private List<Conversion> conversions;
-
-    public ModelImporter(ModelInfo modelInfo, Iterable<DataType> systemTypes) {
+    private final ModelInfo modelInfo;
+    private final Model systemModel;
+    private final Map<String, TypeInfo> typeInfoIndex;
+    private final Map<String, TypeInfo> typeInfoNameIndex;
+    private final Map<String, ClassInfo> labelIndex;
+    private final Map<String, DataType> resolvedTypes;
+    private final Map<ClassType, ClassInfo> unresolvedClassTypes;
+    private final List<String> importedTypeNames;
+    private final List<Conversion> conversions;
+    private final DataTypeInterner typeInterner = new DataTypeInterner();
+
+    public ModelImporter(ModelInfo modelInfo, Model systemModel) {
         if (modelInfo == null) {
             throw new IllegalArgumentException("modelInfo is null");
         }
 
         this.modelInfo = modelInfo;
+        this.systemModel = systemModel;
         this.typeInfoIndex = new HashMap<>();
+        this.typeInfoNameIndex = new HashMap<>();
+        this.labelIndex = new HashMap<>();
         this.resolvedTypes = new HashMap<>();
-        this.dataTypes = new ArrayList<>();
+        this.unresolvedClassTypes = new HashMap<>();
+        this.importedTypeNames = new ArrayList<>();
         this.conversions = new ArrayList<>();
 
-        // Import system types
-        if (systemTypes != null) {
-            for (DataType systemType : systemTypes) {
-                if (systemType instanceof NamedType) {
-                    NamedType namedSystemType = (NamedType)systemType;
-                    this.resolvedTypes.put(namedSystemType.getName(), systemType);
-                }
-            }
-        }
-
-        // Import model types
+        // Index model types
         for (TypeInfo t : this.modelInfo.getTypeInfo()) {
+            String name = null;
             if (t instanceof SimpleTypeInfo) {
-                typeInfoIndex.put(ensureUnqualified(((SimpleTypeInfo)t).getName()), t);
+                name = ((SimpleTypeInfo)t).getName();
             }
             else if (t instanceof ClassInfo) {
                 ClassInfo classInfo = (ClassInfo)t;
-                if (classInfo.getName() != null) {
-                    typeInfoIndex.put(ensureUnqualified(classInfo.getName()), classInfo);
+                name = classInfo.getName();
+                if (classInfo.getLabel() != null) {
+                    labelIndex.put(casify(classInfo.getLabel()), classInfo);
                 }
             }
+
+            if (name != null) {
+                typeInfoIndex.put(ensureUnqualified(name), t);
+                typeInfoNameIndex.put(casify(ensureUnqualified(name)), t);
+            }
         }
 
         // Import model conversions
-        for (ConversionInfo c : this.modelInfo.getConversionInfo()) {
-            DataType fromType = resolveTypeNameOrSpecifier(c.getFromType(), c.getFromTypeSpecifier());
-            DataType toType = resolveTypeNameOrSpecifier(c.getToType(), c.getToTypeSpecifier());
-            int qualifierIndex = c.getFunctionName().indexOf('.');
-            String libraryName = qualifierIndex >= 0 ? c.getFunctionName().substring(0, qualifierIndex) : null;
-            String functionName = qualifierIndex >= 0 ? c.getFunctionName().substring(qualifierIndex + 1) : null;
-            Operator operator = new Operator(functionName, new Signature(fromType), toType);
-            if (libraryName != null) {
-                operator.setLibraryName(libraryName);
+        importTypes(() -> {
+            for (ConversionInfo c : this.modelInfo.getConversionInfo()) {
+                DataType fromType = resolveTypeNameOrSpecifier(c.getFromType(), c.getFromTypeSpecifier());
+                DataType toType = resolveTypeNameOrSpecifier(c.getToType(), c.getToTypeSpecifier());
+                int qualifierIndex = c.getFunctionName().indexOf('.');
+                String libraryName = qualifierIndex >= 0 ? c.getFunctionName().substring(0, qualifierIndex) : null;
+                String functionName = qualifierIndex >= 0 ? c.getFunctionName().substring(qualifierIndex + 1) : null;
+                Operator operator = new Operator(functionName, new Signature(fromType), toType);
+                if (libraryName != null) {
+                    operator.setLibraryName(libraryName);
+                }
+
+                // All conversions loaded as part of a model are implicit
+                Conversion conversion = new Conversion(operator, true);
+                conversions.add(conversion);
             }
+            return null;
+        });
+    }
 
-            // All conversions loaded as part of a model are implicit
-            Conversion conversion = new Conversion(operator, true);
-            conversions.add(conversion);
+    public Iterable<Conversion> getConversions() { return conversions; }
+
+    /**
+     * Resolves a type of the model by name, importing it if necessary.
+     * @param typeName the name of the type, qualified with the model name or not
+     * @return the type, or null if the model has no type with the given name
+     */
+    public DataType resolveModelTypeName(String typeName) {
+        if (typeName == null) {
+            throw new IllegalArgumentException("typeName is null");
         }
 
-        for (TypeInfo t: this.modelInfo.getTypeInfo()) {
-            dataTypes.add(resolveTypeInfo(t));
+        String name = casify(typeName);
+        String qualifier = casify(String.format("%s.", this.modelInfo.getName()));
+        TypeInfo typeInfo = name.startsWith(qualifier) ? typeInfoNameIndex.get(name.substring(qualifier.length())) : null;
+        if (typeInfo == null) {
+            typeInfo = typeInfoNameIndex.get(name);
         }
 
-        if (systemTypes != null) {
-            for (DataType systemType : systemTypes) {
-                if (systemType instanceof NamedType) {
-                    NamedType namedSystemType = (NamedType)systemType;
-                    this.resolvedTypes.remove(namedSystemType.getName());
-                }
-            }
+        if (typeInfo == null) {
+            return null;
+        }
+
+        TypeInfo resolvingTypeInfo = typeInfo;
+        synchronized (this) {
+            return importTypes(() -> resolveTypeInfo(resolvingTypeInfo));
         }
     }
 
-    public Map<String, DataType> getTypes() { return resolvedTypes; }
-    public Iterable<Conversion> getConversions() { return conversions; }
+    /**
+     * Resolves a class type of the model by label, importing it if necessary.
+     * @param label the label of the class type
+     * @return the class type, or null if the model has no class type with the given label
+     */
+    public ClassType resolveLabel(String label) {
+        if (label == null) {
+            throw new IllegalArgumentException("label is null");
+        }
+
+        ClassInfo classInfo = labelIndex.get(casify(label));
+        if (classInfo == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            return importTypes(() -> resolveClassType(classInfo));
+        }
+    }
+
+    private <T> T importTypes(Supplier<T> resolver) {
+        int importedTypeCount = importedTypeNames.size();
+        try {
+            T result = resolver.get();
+            if (importedTypeCount == 0) {
+                importedTypeNames.clear();
+            }
+            return result;
+        }
+        catch (RuntimeException e) {
+            // Do not leave types behind that refer to types that could not be imported
+            while (importedTypeNames.size() > importedTypeCount) {
+                resolvedTypes.remove(importedTypeNames.remove(importedTypeNames.size() - 1));
+            }
+            throw e;
+        }
+    }
 
     private String casify(String typeName) {
         return casify(typeName, this.modelInfo.isCaseSensitive() != null ? this.modelInfo.isCaseSensitive() : false);
@@ -131,13 +201,13 @@ public class ModelImporter {
         if (typeSpecifier instanceof IntervalTypeSpecifier) {
             IntervalTypeSpecifier intervalTypeSpecifier = (IntervalTypeSpecifier)typeSpecifier;
             DataType pointType = resolveTypeNameOrSpecifier(intervalTypeSpecifier.getPointType(), intervalTypeSpecifier.getPointTypeSpecifier());
-            return new IntervalType(pointType);
+            return typeInterner.intervalOf(pointType);
         }
 
         if (typeSpecifier instanceof ListTypeSpecifier) {
             ListTypeSpecifier listTypeSpecifier = (ListTypeSpecifier)typeSpecifier;
             DataType elementType = resolveTypeNameOrSpecifier(listTypeSpecifier.getElementType(), listTypeSpecifier.getElementTypeSpecifier());
-            return new ListType(elementType);
+            return typeInterner.listOf(elementType);
         }
 
         if (typeSpecifier instanceof ChoiceTypeSpecifier) {
@@ -147,7 +217,7 @@ public class ModelImporter {
                 DataType choiceType = resolveTypeSpecifier(choice);
                 choices.add(choiceType);
             }
-            return new ChoiceType(choices);
+            return typeInterner.choiceOf(choices);
         }
 
         return null;
@@ -165,11 +235,11 @@ public class ModelImporter {
         // listTypeSpecifier: 'list' '<' typeSpecifier '>'
         if (typeName.toLowerCase().startsWith("interval<")) {
             DataType pointType = resolveTypeName(typeName.substring(typeName.indexOf('<') + 1, typeName.lastIndexOf('>')));
-            return new IntervalType(pointType);
+            return typeInterner.intervalOf(pointType);
         }
         else if (typeName.toLowerCase().startsWith("list<")) {
             DataType elementType = resolveTypeName(typeName.substring(typeName.indexOf('<') + 1, typeName.lastIndexOf('>')));
-            return new ListType(elementType);
+            return typeInterner.listOf(elementType);
         }
 
         DataType result = lookupType(typeName);
@@ -202,7 +272,13 @@ public class ModelImporter {
             throw new IllegalArgumentException("typeName is null");
         }
 
-        return resolvedTypes.get(casify(typeName));
+        DataType result = resolvedTypes.get(casify(typeName));
+        if (result == null && systemModel != null
+                && typeName.startsWith(String.format("%s.", systemModel.getModelInfo().getName()))) {
+            result = systemModel.resolveTypeName(typeName);
+        }
+
+        return result;
     }
 
     private TypeInfo lookupTypeInfo(String typeName) {
@@ -246,7 +322,7 @@ public class ModelImporter {
             else {
                 result = new SimpleType(qualifiedTypeName, resolveTypeNameOrSpecifier(t.getBaseType(), t.getBaseTypeSpecifier()));
             }
-            resolvedTypes.put(casify(result.getName()), result);
+            addResolvedType(result.getName(), result);
         }
 
         return result;
@@ -261,7 +337,7 @@ public class ModelImporter {
     }
 
     private TupleType resolveTupleType(TupleTypeInfo t) {
-        TupleType result = new TupleType(resolveTupleTypeElements(t.getElement()));
+        TupleType result = typeInterner.tupleOf(resolveTupleTypeElements(t.getElement()));
         return result;
     }
 
@@ -287,24 +363,53 @@ public class ModelImporter {
             else {
                 result = new ClassType(qualifiedName, resolveTypeNameOrSpecifier(t.getBaseType(), t.getBaseTypeSpecifier()));
             }
-            resolvedTypes.put(casify(result.getName()), result);
-            result.addElements(resolveClassTypeElements(t.getElement()));
+            addResolvedType(result.getName(), result);
             result.setIdentifier(t.getIdentifier());
             result.setLabel(t.getLabel());
             result.setRetrievable(t.isRetrievable());
             result.setPrimaryCodePath(t.getPrimaryCodePath());
+            ClassType classType = result;
+            unresolvedClassTypes.put(classType, t);
+            classType.setElementResolver(() -> resolveClassTypeElements(classType));
         }
 
         return result;
     }
 
+    private synchronized void resolveClassTypeElements(ClassType classType) {
+        // Removed first, so that the elements are only added once even if adding them needs the elements again
+        ClassInfo classInfo = unresolvedClassTypes.remove(classType);
+        if (classInfo != null) {
+            Collection<ClassTypeElement> elements;
+            try {
+                elements = importTypes(() -> resolveClassTypeElements(classInfo.getElement()));
+            }
+            catch (RuntimeException e) {
+                unresolvedClassTypes.put(classType, classInfo);
+                throw e;
+            }
+            // Cleared once the elements are added, so that other threads wait on the importer until they are
+            try {
+                classType.addElements(elements);
+            }
+            finally {
+                classType.setElementResolver(null);
+            }
+        }
+    }
+
+    private void addResolvedType(String typeName, DataType type) {
+        resolvedTypes.put(casify(typeName), type);
+        importedTypeNames.add(casify(typeName));
+    }
+
     private IntervalType resolveIntervalType(IntervalTypeInfo t) {
-        IntervalType result = new IntervalType(resolveTypeNameOrSpecifier(t.getPointType(), t.getPointTypeSpecifier()));
+        IntervalType result = typeInterner.intervalOf(resolveTypeNameOrSpecifier(t.getPointType(), t.getPointTypeSpecifier()));
         return result;
     }
 
     private ListType resolveListType(ListTypeInfo t) {
-        ListType result = new ListType(resolveTypeNameOrSpecifier(t.getElementType(), t.getElementTypeSpecifier()));
+        ListType result = typeInterner.listOf(resolveTypeNameOrSpecifier(t.getElementType(), t.getElementTypeSpecifier()));
         return result;
     }
 
@@ -313,6 +418,6 @@ public class ModelImporter {
         for (TypeSpecifier typeSpecifier : t.getType()) {
             types.add(resolveTypeSpecifier(typeSpecifier));
         }
-        return new ChoiceType(types);
+        return typeInterner.choiceOf(types);
     }
 }
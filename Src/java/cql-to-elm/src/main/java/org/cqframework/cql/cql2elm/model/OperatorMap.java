@@ -4,15 +4,19 @@ import org.hl7.cql.model.DataType;
 
 import java.util.*;
 
+/**
+ * The operators of a library. Resolving an operator can add entries and generic instantiations, and the
+ * operators of an included library are resolved by every translation that shares it, so access is synchronized.
+ */
 public class OperatorMap {
     private Map<String, OperatorEntry> operators = new HashMap<>();
 
-    public boolean containsOperator(Operator operator) {
+    public synchronized boolean containsOperator(Operator operator) {
         OperatorEntry entry = getEntry(operator.getName());
         return entry.containsOperator(operator);
     }
 
-    public void addOperator(Operator operator) {
+    public synchronized void addOperator(Operator operator) {
         OperatorEntry entry = getEntry(operator.getName());
         entry.addOperator(operator);
     }
@@ -31,7 +35,7 @@ public class OperatorMap {
         return entry;
     }
 
-    public OperatorResolution resolveOperator(CallContext callContext, ConversionMap conversionMap) {
+    public synchronized OperatorResolution resolveOperator(CallContext callContext, ConversionMap conversionMap) {
         OperatorEntry entry = getEntry(callContext.getOperatorName());
         List<OperatorResolution> results = entry.resolve(callContext, this, conversionMap);
 
@@ -5,6 +5,10 @@ import org.hl7.elm.r1.VersionedIdentifier;
 
 public class SystemLibraryHelper {
     public static TranslatedLibrary load(SystemModel systemModel) {
+        return load(systemModel, new DataTypeInterner());
+    }
+
+    public static TranslatedLibrary load(SystemModel systemModel, DataTypeInterner types) {
         TranslatedLibrary system = new TranslatedLibrary();
         system.setIdentifier(new VersionedIdentifier().withId("System").withVersion("1.0"));
 
@@ -23,7 +27,7 @@ public class SystemLibraryHelper {
         // Coalesce<T>(T, T, T)
         // Coalesce<T>(T, T, T, T)
         // Coalesce<T>(T, T, T, T, T)
-        system.add(new GenericOperator("Coalesce", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        system.add(new GenericOperator("Coalesce", new Signature(types.listOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         system.add(new GenericOperator("Coalesce", new Signature(new TypeParameter("T"), new TypeParameter("T")), new TypeParameter("T"), new TypeParameter("T")));
         system.add(new GenericOperator("Coalesce", new Signature(new TypeParameter("T"), new TypeParameter("T"), new TypeParameter("T")), new TypeParameter("T"), new TypeParameter("T")));
         system.add(new GenericOperator("Coalesce", new Signature(new TypeParameter("T"), new TypeParameter("T"), new TypeParameter("T"), new TypeParameter("T")), new TypeParameter("T"), new TypeParameter("T")));
@@ -193,8 +197,8 @@ public class SystemLibraryHelper {
 
         // String operators
         system.add(new Operator("Add", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getString()));
-        system.add(new Operator("Combine", new Signature(new ListType(systemModel.getString())), systemModel.getString()));
-        system.add(new Operator("Combine", new Signature(new ListType(systemModel.getString()), systemModel.getString()), systemModel.getString()));
+        system.add(new Operator("Combine", new Signature(types.listOf(systemModel.getString())), systemModel.getString()));
+        system.add(new Operator("Combine", new Signature(types.listOf(systemModel.getString()), systemModel.getString()), systemModel.getString()));
         system.add(new Operator("Concatenate", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getString()));
         system.add(new Operator("EndsWith", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getBoolean()));
         system.add(new Operator("Indexer", new Signature(systemModel.getString(), systemModel.getInteger()), systemModel.getString()));
@@ -204,7 +208,7 @@ public class SystemLibraryHelper {
         system.add(new Operator("Matches", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getBoolean()));
         system.add(new Operator("PositionOf", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getInteger()));
         system.add(new Operator("ReplaceMatches", new Signature(systemModel.getString(), systemModel.getString(), systemModel.getString()), systemModel.getString()));
-        system.add(new Operator("Split", new Signature(systemModel.getString(), systemModel.getString()), new ListType(systemModel.getString())));
+        system.add(new Operator("Split", new Signature(systemModel.getString(), systemModel.getString()), types.listOf(systemModel.getString())));
         system.add(new Operator("StartsWith", new Signature(systemModel.getString(), systemModel.getString()), systemModel.getBoolean()));
         system.add(new Operator("Substring", new Signature(systemModel.getString(), systemModel.getInteger()), systemModel.getString()));
         system.add(new Operator("Substring", new Signature(systemModel.getString(), systemModel.getInteger(), systemModel.getInteger()), systemModel.getString()));
@@ -254,182 +258,182 @@ public class SystemLibraryHelper {
 
         // Interval Operators
         // After<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("After", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("After", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // After<T>(T, interval<T>) : Boolean
-        system.add(new GenericOperator("After", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("After", new Signature(new TypeParameter("T"), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // After<T>(interval<T>, T) : Boolean
-        system.add(new GenericOperator("After", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("After", new Signature(types.intervalOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // Before<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("Before", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Before", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Before<T>(T, interval<T>) : Boolean
-        system.add(new GenericOperator("Before", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Before", new Signature(new TypeParameter("T"), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Before<T>(interval,T>, T) : Boolean
-        system.add(new GenericOperator("Before", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Before", new Signature(types.intervalOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // Collapse<T>(list<interval<T>>) : list<interval<T>>
-        system.add(new GenericOperator("Collapse", new Signature(new ListType(new IntervalType(new TypeParameter("T")))), new ListType(new IntervalType(new TypeParameter("T"))), new TypeParameter("T")));
+        system.add(new GenericOperator("Collapse", new Signature(types.listOf(types.intervalOf(new TypeParameter("T")))), types.listOf(types.intervalOf(new TypeParameter("T"))), new TypeParameter("T")));
         // Contains<T>(interval<T>, T) : Boolean
-        system.add(new GenericOperator("Contains", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Contains", new Signature(types.intervalOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // End<T>(interval<T>) : T
-        system.add(new GenericOperator("End", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        system.add(new GenericOperator("End", new Signature(types.intervalOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // Ends<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("Ends", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Ends", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Equal<T>(interval<T>, interval<T>) : Boolean
         // Already covered by Equal<T>(T, T)
-        //system.add(new GenericOperator("Equal", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        //system.add(new GenericOperator("Equal", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Except<T>(interval<T>, interval<T>) : interval<T>
-        system.add(new GenericOperator("Except", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), new IntervalType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Except", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), types.intervalOf(new TypeParameter("T")), new TypeParameter("T")));
         // In<T>(T, interval<T>) : Boolean
-        system.add(new GenericOperator("In", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("In", new Signature(new TypeParameter("T"), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Includes<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("Includes", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Includes", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // IncludedIn<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("IncludedIn", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("IncludedIn", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Intersect<T>(interval<T>, interval<T>) : interval<T>
-        system.add(new GenericOperator("Intersect", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), new IntervalType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Intersect", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), types.intervalOf(new TypeParameter("T")), new TypeParameter("T")));
         // Meets<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("Meets", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Meets", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // MeetsBefore<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("MeetsBefore", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("MeetsBefore", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // MeetsAfter<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("MeetsAfter", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("MeetsAfter", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Overlaps<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("Overlaps", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Overlaps", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // OverlapsBefore<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("OverlapsBefore", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("OverlapsBefore", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // OverlapsAfter<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("OverlapsAfter", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("OverlapsAfter", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // PointFrom<T>(interval<T>) : T
-        GenericOperator pointFrom = new GenericOperator("PointFrom", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T"));
+        GenericOperator pointFrom = new GenericOperator("PointFrom", new Signature(types.intervalOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T"));
         system.add(pointFrom);
         // ProperContains<T>(interval<T>, T) : Boolean
-        system.add(new GenericOperator("ProperContains", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("ProperContains", new Signature(types.intervalOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIn<T>(T, interval<T>) : Boolean
-        system.add(new GenericOperator("ProperIn", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("ProperIn", new Signature(new TypeParameter("T"), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIncludes<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("ProperIncludes", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("ProperIncludes", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIncludedIn<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("ProperIncludedIn", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("ProperIncludedIn", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameAs<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("SameAs", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameAs", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameAs<T>(interval<T>, T) : Boolean
-        system.add(new GenericOperator("SameAs", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameAs", new Signature(types.intervalOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // SameAs<T>(T, interval<T>) : Boolean
-        system.add(new GenericOperator("SameAs", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameAs", new Signature(new TypeParameter("T"), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameOrAfter<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("SameOrAfter", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameOrAfter", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameOrAfter<T>(interval<T>, T) : Boolean
-        system.add(new GenericOperator("SameOrAfter", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameOrAfter", new Signature(types.intervalOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // SameOrAfter<T>(T, interval<T>) : Boolean
-        system.add(new GenericOperator("SameOrAfter", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameOrAfter", new Signature(new TypeParameter("T"), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameOrBefore<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("SameOrBefore", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameOrBefore", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SameOrBefore<T>(interval<T>, T) : Boolean
-        system.add(new GenericOperator("SameOrBefore", new Signature(new IntervalType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameOrBefore", new Signature(types.intervalOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // SameOrBefore<T>(T, interval<T>) : Boolean
-        system.add(new GenericOperator("SameOrBefore", new Signature(new TypeParameter("T"), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("SameOrBefore", new Signature(new TypeParameter("T"), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Start<T>(interval<T>) : T
-        system.add(new GenericOperator("Start", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        system.add(new GenericOperator("Start", new Signature(types.intervalOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // Starts<T>(interval<T>, interval<T>) : Boolean
-        system.add(new GenericOperator("Starts", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Starts", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Union<T>(interval<T>, interval<T>) : interval<T>
-        system.add(new GenericOperator("Union", new Signature(new IntervalType(new TypeParameter("T")), new IntervalType(new TypeParameter("T"))), new IntervalType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Union", new Signature(types.intervalOf(new TypeParameter("T")), types.intervalOf(new TypeParameter("T"))), types.intervalOf(new TypeParameter("T")), new TypeParameter("T")));
         // Width<T>(interval<T>) : T
-        system.add(new GenericOperator("Width", new Signature(new IntervalType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        system.add(new GenericOperator("Width", new Signature(types.intervalOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
 
         // List Operators
         // Contains<T>(list<T>, T) : Boolean
-        system.add(new GenericOperator("Contains", new Signature(new ListType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Contains", new Signature(types.listOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // Distinct<T>(list<T>) : list<T>
-        system.add(new GenericOperator("Distinct", new Signature(new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Distinct", new Signature(types.listOf(new TypeParameter("T"))), types.listOf(new TypeParameter("T")), new TypeParameter("T")));
         // Equal<T>(list<T>, list<T>) : Boolean
         // Already covered by Equal<T>(T, T)
-        //system.add(new GenericOperator("Equal", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        //system.add(new GenericOperator("Equal", new Signature(types.listOf(new TypeParameter("T")), types.listOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Except<T>(list<T>, list<T>) : list<T>
-        system.add(new GenericOperator("Except", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Except", new Signature(types.listOf(new TypeParameter("T")), types.listOf(new TypeParameter("T"))), types.listOf(new TypeParameter("T")), new TypeParameter("T")));
         // Exists<T>(list<T>) : Boolean
-        system.add(new GenericOperator("Exists", new Signature(new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Exists", new Signature(types.listOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Flatten<T>(list<list<T>>) : list<T>
-        system.add(new GenericOperator("Flatten", new Signature(new ListType(new ListType(new TypeParameter("T")))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Flatten", new Signature(types.listOf(types.listOf(new TypeParameter("T")))), types.listOf(new TypeParameter("T")), new TypeParameter("T")));
         // First<T>(list<T>) : T
-        system.add(new GenericOperator("First", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        system.add(new GenericOperator("First", new Signature(types.listOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // In<T>(T, list<T>) : Boolean
-        system.add(new GenericOperator("In", new Signature(new TypeParameter("T"), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("In", new Signature(new TypeParameter("T"), types.listOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Includes<T>(list<T>, list<T>) : Boolean
-        system.add(new GenericOperator("Includes", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("Includes", new Signature(types.listOf(new TypeParameter("T")), types.listOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // IncludedIn<T>(list<T>, list<T>) : Boolean
-        system.add(new GenericOperator("IncludedIn", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("IncludedIn", new Signature(types.listOf(new TypeParameter("T")), types.listOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // Indexer<T>(list<T>, integer) : T
-        system.add(new GenericOperator("Indexer", new Signature(new ListType(new TypeParameter("T")), systemModel.getInteger()), new TypeParameter("T"), new TypeParameter("T")));
+        system.add(new GenericOperator("Indexer", new Signature(types.listOf(new TypeParameter("T")), systemModel.getInteger()), new TypeParameter("T"), new TypeParameter("T")));
         // IndexOf<T>(list<T>, T) : Integer
-        system.add(new GenericOperator("IndexOf", new Signature(new ListType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getInteger(), new TypeParameter("T")));
+        system.add(new GenericOperator("IndexOf", new Signature(types.listOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getInteger(), new TypeParameter("T")));
         // Intersect<T>(list<T>, list<T>) : list<T>
-        system.add(new GenericOperator("Intersect", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Intersect", new Signature(types.listOf(new TypeParameter("T")), types.listOf(new TypeParameter("T"))), types.listOf(new TypeParameter("T")), new TypeParameter("T")));
         // Last<T>(list<T>) : T
-        system.add(new GenericOperator("Last", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        system.add(new GenericOperator("Last", new Signature(types.listOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
         // Length<T>(list<T>) : Integer
-        system.add(new GenericOperator("Length", new Signature(new ListType(new TypeParameter("T"))), systemModel.getInteger(), new TypeParameter("T")));
+        system.add(new GenericOperator("Length", new Signature(types.listOf(new TypeParameter("T"))), systemModel.getInteger(), new TypeParameter("T")));
         // ProperContains<T>(list<T>, T) : Boolean
-        system.add(new GenericOperator("ProperContains", new Signature(new ListType(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("ProperContains", new Signature(types.listOf(new TypeParameter("T")), new TypeParameter("T")), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIn<T>(T, list<T>) : Boolean
-        system.add(new GenericOperator("ProperIn", new Signature(new TypeParameter("T"), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("ProperIn", new Signature(new TypeParameter("T"), types.listOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIncludes<T>(list<T>, list<T>) : Boolean
-        system.add(new GenericOperator("ProperIncludes", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("ProperIncludes", new Signature(types.listOf(new TypeParameter("T")), types.listOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // ProperIncludedIn<T>(list<T>, list<T>) : Boolean
-        system.add(new GenericOperator("ProperIncludedIn", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
+        system.add(new GenericOperator("ProperIncludedIn", new Signature(types.listOf(new TypeParameter("T")), types.listOf(new TypeParameter("T"))), systemModel.getBoolean(), new TypeParameter("T")));
         // SingletonFrom<T>(list<T>) : T
-        GenericOperator singletonFrom = new GenericOperator("SingletonFrom", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T"));
+        GenericOperator singletonFrom = new GenericOperator("SingletonFrom", new Signature(types.listOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T"));
         system.add(singletonFrom);
         //// NOTE: FHIRPath Implicit List Demotion
         // Generic conversions turned out to be computationally expensive, so we added explicit list promotion/demotion in the conversion map directly instead.
         //system.add(new Conversion(singletonFrom, true));
         // Skip(list<T>, Integer): list<T>
-        system.add(new GenericOperator("Skip", new Signature(new ListType(new TypeParameter("T")), systemModel.getInteger()), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Skip", new Signature(types.listOf(new TypeParameter("T")), systemModel.getInteger()), types.listOf(new TypeParameter("T")), new TypeParameter("T")));
         // Tail(list<T>): list<T>
-        system.add(new GenericOperator("Tail", new Signature(new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Tail", new Signature(types.listOf(new TypeParameter("T"))), types.listOf(new TypeParameter("T")), new TypeParameter("T")));
         // Take(list<T>, Integer): list<T>
-        system.add(new GenericOperator("Take", new Signature(new ListType(new TypeParameter("T")), systemModel.getInteger()), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Take", new Signature(types.listOf(new TypeParameter("T")), systemModel.getInteger()), types.listOf(new TypeParameter("T")), new TypeParameter("T")));
         // Union<T>(list<T>, list<T>) : list<T>
-        system.add(new GenericOperator("Union", new Signature(new ListType(new TypeParameter("T")), new ListType(new TypeParameter("T"))), new ListType(new TypeParameter("T")), new TypeParameter("T")));
+        system.add(new GenericOperator("Union", new Signature(types.listOf(new TypeParameter("T")), types.listOf(new TypeParameter("T"))), types.listOf(new TypeParameter("T")), new TypeParameter("T")));
 
         // NOTE: FHIRPath Implicit List Promotion operator
-        //GenericOperator toList = new GenericOperator("List", new Signature(new TypeParameter("T")), new ListType(new TypeParameter("T")), new TypeParameter("T"));
+        //GenericOperator toList = new GenericOperator("List", new Signature(new TypeParameter("T")), types.listOf(new TypeParameter("T")), new TypeParameter("T"));
         //system.add(toList);
         //system.add(new Conversion(toList, true));
 
         // Aggregate Operators
-        system.add(new Operator("AllTrue", new Signature(new ListType(systemModel.getBoolean())), systemModel.getBoolean()));
-        system.add(new Operator("AnyTrue", new Signature(new ListType(systemModel.getBoolean())), systemModel.getBoolean()));
-        system.add(new Operator("Avg", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("Avg", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new Operator("AllTrue", new Signature(types.listOf(systemModel.getBoolean())), systemModel.getBoolean()));
+        system.add(new Operator("AnyTrue", new Signature(types.listOf(systemModel.getBoolean())), systemModel.getBoolean()));
+        system.add(new Operator("Avg", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("Avg", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
         // Count<T>(list<T>) : Integer
-        system.add(new GenericOperator("Count", new Signature(new ListType(new TypeParameter("T"))), systemModel.getInteger(), new TypeParameter("T")));
-        system.add(new Operator("Max", new Signature(new ListType(systemModel.getInteger())), systemModel.getInteger()));
-        system.add(new Operator("Max", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("Max", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        system.add(new Operator("Max", new Signature(new ListType(systemModel.getDateTime())), systemModel.getDateTime()));
-        system.add(new Operator("Max", new Signature(new ListType(systemModel.getTime())), systemModel.getTime()));
-        system.add(new Operator("Max", new Signature(new ListType(systemModel.getString())), systemModel.getString()));
-        system.add(new Operator("Min", new Signature(new ListType(systemModel.getInteger())), systemModel.getInteger()));
-        system.add(new Operator("Min", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("Min", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        system.add(new Operator("Min", new Signature(new ListType(systemModel.getDateTime())), systemModel.getDateTime()));
-        system.add(new Operator("Min", new Signature(new ListType(systemModel.getTime())), systemModel.getTime()));
-        system.add(new Operator("Min", new Signature(new ListType(systemModel.getString())), systemModel.getString()));
-        system.add(new Operator("Median", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("Median", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new GenericOperator("Count", new Signature(types.listOf(new TypeParameter("T"))), systemModel.getInteger(), new TypeParameter("T")));
+        system.add(new Operator("Max", new Signature(types.listOf(systemModel.getInteger())), systemModel.getInteger()));
+        system.add(new Operator("Max", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("Max", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new Operator("Max", new Signature(types.listOf(systemModel.getDateTime())), systemModel.getDateTime()));
+        system.add(new Operator("Max", new Signature(types.listOf(systemModel.getTime())), systemModel.getTime()));
+        system.add(new Operator("Max", new Signature(types.listOf(systemModel.getString())), systemModel.getString()));
+        system.add(new Operator("Min", new Signature(types.listOf(systemModel.getInteger())), systemModel.getInteger()));
+        system.add(new Operator("Min", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("Min", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new Operator("Min", new Signature(types.listOf(systemModel.getDateTime())), systemModel.getDateTime()));
+        system.add(new Operator("Min", new Signature(types.listOf(systemModel.getTime())), systemModel.getTime()));
+        system.add(new Operator("Min", new Signature(types.listOf(systemModel.getString())), systemModel.getString()));
+        system.add(new Operator("Median", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("Median", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
         // Mode<T>(list<T>) : T
-        system.add(new GenericOperator("Mode", new Signature(new ListType(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
-        system.add(new Operator("PopulationStdDev", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("PopulationStdDev", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        system.add(new Operator("PopulationVariance", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("PopulationVariance", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        system.add(new Operator("StdDev", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("StdDev", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        system.add(new Operator("Sum", new Signature(new ListType(systemModel.getInteger())), systemModel.getInteger()));
-        system.add(new Operator("Sum", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("Sum", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
-        system.add(new Operator("Variance", new Signature(new ListType(systemModel.getDecimal())), systemModel.getDecimal()));
-        system.add(new Operator("Variance", new Signature(new ListType(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new GenericOperator("Mode", new Signature(types.listOf(new TypeParameter("T"))), new TypeParameter("T"), new TypeParameter("T")));
+        system.add(new Operator("PopulationStdDev", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("PopulationStdDev", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new Operator("PopulationVariance", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("PopulationVariance", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new Operator("StdDev", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("StdDev", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new Operator("Sum", new Signature(types.listOf(systemModel.getInteger())), systemModel.getInteger()));
+        system.add(new Operator("Sum", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("Sum", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
+        system.add(new Operator("Variance", new Signature(types.listOf(systemModel.getDecimal())), systemModel.getDecimal()));
+        system.add(new Operator("Variance", new Signature(types.listOf(systemModel.getQuantity())), systemModel.getQuantity()));
 
         // Clinical
         // ToConcept(Code)
@@ -437,7 +441,7 @@ public class SystemLibraryHelper {
         system.add(codeToConcept);
         system.add(new Conversion(codeToConcept, true));
         // ToConcept(list<Code>)
-        Operator codesToConcept = new Operator("ToConcept", new Signature(new ListType(systemModel.getCode())), systemModel.getConcept());
+        Operator codesToConcept = new Operator("ToConcept", new Signature(types.listOf(systemModel.getCode())), systemModel.getConcept());
         system.add(codesToConcept);
         system.add(new Conversion(codesToConcept, true));
 
@@ -4,11 +4,17 @@ import org.hl7.cql.model.DataType;
 import org.hl7.elm.r1.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class TranslatedLibrary {
     private VersionedIdentifier identifier;
     private Library library;
-    private final HashMap<String, Element> namespace = new HashMap<>();
+    // Concurrent, since the definitions of a library translated header only are added when first referenced
+    private final Map<String, Element> namespace = new ConcurrentHashMap<>();
+    private volatile Function<String, ? extends Element> definitionResolver;
+    // The errors in definitions translated when first referenced, guarded by the library, which the resolver locks
+    private final Map<String, java.util.List<Exception>> definitionErrors = new HashMap<>();
     private final OperatorMap operators = new OperatorMap();
     private final java.util.List<Conversion> conversions = new ArrayList<>();
 
@@ -26,8 +32,48 @@ public class TranslatedLibrary {
         this.library = library;
     }
 
+    /**
+     * Sets the function that resolves identifiers that are not (yet) defined in the namespace of the library, as
+     * for a library translated header only, which translates its expression definitions when first referenced.
+     * @param definitionResolver the resolver, which returns null for identifiers the library does not define
+     */
+    public void setDefinitionResolver(Function<String, ? extends Element> definitionResolver) {
+        this.definitionResolver = definitionResolver;
+    }
+
+    /**
+     * Returns whether the library was translated header only, so that it may not contain all of its definitions.
+     * @return whether the library resolves its definitions when first referenced
+     */
+    public boolean isHeaderOnly() {
+        return definitionResolver != null;
+    }
+
+    /**
+     * Records the errors that occurred translating the given definition when it was first referenced, so that they
+     * are reported to every library that references the definition, not just the first.
+     * @param identifier the name of the definition
+     * @param errors the errors
+     */
+    public synchronized void addDefinitionErrors(String identifier, Collection<? extends Exception> errors) {
+        if (!errors.isEmpty()) {
+            definitionErrors.computeIfAbsent(identifier, k -> new ArrayList<>()).addAll(errors);
+        }
+    }
+
+    /**
+     * Returns the errors that occurred translating the given definition when it was first referenced. Waits for
+     * the translation of the definition to complete, if it is being translated on another thread.
+     * @param identifier the name of the definition
+     * @return the errors, empty if there were none
+     */
+    public synchronized java.util.List<Exception> getDefinitionErrors(String identifier) {
+        java.util.List<Exception> result = definitionErrors.get(identifier);
+        return result != null ? Collections.unmodifiableList(new ArrayList<>(result)) : Collections.emptyList();
+    }
+
     private void checkNamespace(String identifier) {
-        Element existingElement = resolve(identifier);
+        Element existingElement = namespace.get(identifier);
         if (existingElement != null) {
             throw new IllegalArgumentException(String.format("Identifier %s is already in use in this library.", identifier));
         }
@@ -124,7 +170,19 @@ public class TranslatedLibrary {
     }
 
     public Element resolve(String identifier) {
-        return namespace.get(identifier);
+        if (identifier == null) {
+            return null;
+        }
+
+        Element result = namespace.get(identifier);
+        if (result == null) {
+            Function<String, ? extends Element> resolver = definitionResolver;
+            if (resolver != null) {
+                result = resolver.apply(identifier);
+            }
+        }
+
+        return result;
     }
 
     public UsingDef resolveUsingRef(String identifier) {
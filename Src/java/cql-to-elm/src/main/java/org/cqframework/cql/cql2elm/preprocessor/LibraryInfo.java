@@ -84,6 +84,10 @@ public class LibraryInfo {
         includeDefinitions.put(includeDefinition.getLocalName(), includeDefinition);
     }
 
+    public Iterable<IncludeDefinitionInfo> getIncludeDefinitions() {
+        return includeDefinitions.values();
+    }
+
     public IncludeDefinitionInfo resolveLibraryReference(String identifier) {
         return includeDefinitions.get(identifier);
     }
@@ -185,6 +189,36 @@ public class LibraryInfo {
         return functionDefinitions.get(identifier);
     }
 
+    /**
+     * Releases the parse tree contexts of the definitions. They are only needed while the library is translated,
+     * and would otherwise keep the whole parse tree and token stream reachable for as long as the library info.
+     */
+    public void releaseDefinitions() {
+        for (CodesystemDefinitionInfo codesystemDefinition : codesystemDefinitions.values()) {
+            codesystemDefinition.setDefinition(null);
+        }
+        for (ValuesetDefinitionInfo valuesetDefinition : valuesetDefinitions.values()) {
+            valuesetDefinition.setDefinition(null);
+        }
+        for (CodeDefinitionInfo codeDefinition : codeDefinitions.values()) {
+            codeDefinition.setDefinition(null);
+        }
+        for (ConceptDefinitionInfo conceptDefinition : conceptDefinitions.values()) {
+            conceptDefinition.setDefinition(null);
+        }
+        for (ParameterDefinitionInfo parameterDefinition : parameterDefinitions.values()) {
+            parameterDefinition.setDefinition(null);
+        }
+        for (ExpressionDefinitionInfo expressionDefinition : expressionDefinitions.values()) {
+            expressionDefinition.setDefinition(null);
+        }
+        for (List<FunctionDefinitionInfo> functionDefinitionList : functionDefinitions.values()) {
+            for (FunctionDefinitionInfo functionDefinition : functionDefinitionList) {
+                functionDefinition.setDefinition(null);
+            }
+        }
+    }
+
     public String resolveFunctionName(String identifier) {
         Iterable<FunctionDefinitionInfo> functionDefinitions = resolveFunctionReference(identifier);
         for (FunctionDefinitionInfo functionInfo : functionDefinitions) {
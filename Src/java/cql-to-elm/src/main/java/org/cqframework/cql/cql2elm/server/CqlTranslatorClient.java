@@ -0,0 +1,187 @@
+package org.cqframework.cql.cql2elm.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.CqlTranslatorException;
+import org.cqframework.cql.elm.tracking.TrackBack;
+import org.hl7.elm.r1.VersionedIdentifier;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A thin client for a CqlTranslatorServer listening on a loopback port.
+ */
+public class CqlTranslatorClient implements Closeable {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final Writer writer;
+    private int nextId = 1;
+
+    public CqlTranslatorClient(int port) throws IOException {
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    public Result translate(String cql, CqlTranslator.Format format, CqlTranslatorException.ErrorSeverity errorLevel,
+                            CqlTranslator.Options... options) throws IOException {
+        if (cql == null) {
+            throw new IllegalArgumentException("cql is null");
+        }
+
+        ObjectNode request = mapper.createObjectNode();
+        request.put("cql", cql);
+        request.put("format", format.name());
+        request.put("errorLevel", errorLevel.name());
+        ArrayNode optionsNode = request.putArray("options");
+        for (CqlTranslator.Options option : options) {
+            optionsNode.add(option.name());
+        }
+
+        JsonNode response = send(request);
+        List<CqlTranslatorException> exceptions = new ArrayList<>();
+        for (JsonNode exception : response.path("exceptions")) {
+            TrackBack tb = null;
+            if (exception.has("startLine")) {
+                VersionedIdentifier library = exception.has("libraryId")
+                        ? new VersionedIdentifier().withId(exception.get("libraryId").asText())
+                                .withVersion(exception.path("libraryVersion").textValue())
+                        : null;
+                tb = new TrackBack(library, exception.path("startLine").asInt(), exception.path("startChar").asInt(),
+                        exception.path("endLine").asInt(), exception.path("endChar").asInt());
+            }
+            exceptions.add(new CqlTranslatorException(exception.path("message").asText(),
+                    CqlTranslatorException.ErrorSeverity.valueOf(exception.path("severity").asText()), tb));
+        }
+
+        return new Result(response.path("elm").textValue(), exceptions);
+    }
+
+    /**
+     * Discards the libraries cached by the server, so that changed includes are translated again.
+     * @throws IOException if the server cannot be reached
+     */
+    public void reset() throws IOException {
+        ObjectNode request = mapper.createObjectNode();
+        request.put("command", "reset");
+        send(request);
+    }
+
+    public void shutdown() throws IOException {
+        ObjectNode request = mapper.createObjectNode();
+        request.put("command", "shutdown");
+        send(request);
+    }
+
+    private JsonNode send(ObjectNode request) throws IOException {
+        int id = nextId++;
+        request.put("id", id);
+        writer.write(mapper.writeValueAsString(request));
+        writer.write('\n');
+        writer.flush();
+
+        String line = reader.readLine();
+        if (line == null) {
+            throw new EOFException("The translation server closed the connection.");
+        }
+
+        JsonNode response = mapper.readTree(line);
+        if (response.path("id").asInt() != id) {
+            throw new IOException(String.format("Expected the response to request %d, received %s.", id, line));
+        }
+        if (response.has("error")) {
+            throw new IllegalArgumentException(response.get("error").asText());
+        }
+
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public static class Result {
+        private final String elm;
+        private final List<CqlTranslatorException> exceptions;
+
+        public Result(String elm, List<CqlTranslatorException> exceptions) {
+            this.elm = elm;
+            this.exceptions = Collections.unmodifiableList(exceptions);
+        }
+
+        public String getElm() {
+            return elm;
+        }
+
+        public List<CqlTranslatorException> getExceptions() {
+            return exceptions;
+        }
+
+        public List<CqlTranslatorException> getErrors() {
+            List<CqlTranslatorException> result = new ArrayList<>();
+            for (CqlTranslatorException exception : exceptions) {
+                if (exception.getSeverity() == CqlTranslatorException.ErrorSeverity.Error) {
+                    result.add(exception);
+                }
+            }
+
+            return result;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<Integer> port = parser.accepts("port").withRequiredArg().ofType(Integer.class).required();
+        OptionSpec<File> input = parser.accepts("input").withRequiredArg().ofType(File.class).required();
+        OptionSpec<File> output = parser.accepts("output").withRequiredArg().ofType(File.class);
+        OptionSpec<CqlTranslator.Format> format = parser.accepts("format").withRequiredArg().ofType(CqlTranslator.Format.class).defaultsTo(CqlTranslator.Format.XML);
+        OptionSpec<CqlTranslatorException.ErrorSeverity> errorLevel = parser.accepts("error-level").withRequiredArg().ofType(CqlTranslatorException.ErrorSeverity.class).defaultsTo(CqlTranslatorException.ErrorSeverity.Info);
+        OptionSpec<CqlTranslator.Options> option = parser.accepts("option").withRequiredArg().ofType(CqlTranslator.Options.class);
+
+        OptionSet options = parser.parse(args);
+
+        String cql = new String(Files.readAllBytes(input.value(options).toPath()), StandardCharsets.UTF_8);
+        List<CqlTranslator.Options> translatorOptions = option.values(options);
+        Result result;
+        try (CqlTranslatorClient client = new CqlTranslatorClient(port.value(options))) {
+            result = client.translate(cql, format.value(options), errorLevel.value(options),
+                    translatorOptions.toArray(new CqlTranslator.Options[translatorOptions.size()]));
+        }
+
+        for (CqlTranslatorException exception : result.getExceptions()) {
+            TrackBack tb = exception.getLocator();
+            String lines = tb == null ? "[n/a]" : String.format("[%d:%d, %d:%d]",
+                    tb.getStartLine(), tb.getStartChar(), tb.getEndLine(), tb.getEndChar());
+            System.err.printf("%s:%s %s%n", exception.getSeverity(), lines, exception.getMessage());
+        }
+
+        if (!result.getErrors().isEmpty()) {
+            System.err.println("Translation failed due to errors.");
+            System.exit(1);
+        }
+
+        if (options.has(output)) {
+            try (Writer writer = Files.newBufferedWriter(output.value(options).toPath(), StandardCharsets.UTF_8)) {
+                writer.write(result.getElm());
+            }
+        }
+        else {
+            System.out.println(result.getElm());
+        }
+    }
+}
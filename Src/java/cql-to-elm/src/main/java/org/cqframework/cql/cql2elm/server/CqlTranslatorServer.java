@@ -0,0 +1,261 @@
+package org.cqframework.cql.cql2elm.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.cqframework.cql.cql2elm.*;
+import org.cqframework.cql.elm.tracking.TrackBack;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-running translation service. Translations run in a warm JVM, with the parser caches primed and the
+ * models and included libraries loaded once, instead of paying for JVM startup, class loading and model info
+ * parsing on every translation.
+ *
+ * The protocol is line-delimited JSON: each request is a JSON object on a single line, and is answered by a
+ * JSON object on a single line. Requests are served either on standard input and output, or on a loopback TCP
+ * port, where each connection can send any number of requests. A translation request looks like
+ *
+ *   {"id": 1, "cql": "library Test ...", "format": "XML", "errorLevel": "Info", "options": ["EnableAnnotations"]}
+ *
+ * where all members but cql are optional, and is answered with
+ *
+ *   {"id": 1, "elm": "...", "exceptions": [{"severity": "Error", "message": "...", "startLine": 1, ...}]}
+ *
+ * A request that cannot be handled is answered with an "error" member instead. The commands
+ * {"command": "reset"}, which discards the cached libraries, and {"command": "shutdown"} are also supported.
+ *
+ * Included libraries are resolved from the library path given to the server, and cached until reset. Requests
+ * on different connections are translated concurrently, sharing the cached libraries.
+ */
+public class CqlTranslatorServer {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path libraryPath;
+    private final ModelManager modelManager = new ModelManager();
+    private volatile LibraryManager libraryManager;
+    private volatile boolean shutdown;
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param libraryPath the directory included libraries are resolved from, or null to only resolve FHIRHelpers
+     */
+    public CqlTranslatorServer(Path libraryPath) {
+        if (libraryPath != null && !libraryPath.toFile().isDirectory()) {
+            throw new IllegalArgumentException(String.format("libraryPath %s is not a directory", libraryPath));
+        }
+
+        this.libraryPath = libraryPath;
+        this.libraryManager = createLibraryManager();
+    }
+
+    private LibraryManager createLibraryManager() {
+        LibraryManager result = new LibraryManager(modelManager);
+        // The translators of included libraries are not needed, and would keep their parse state reachable
+        result.setTranslatorRetention(LibraryManager.TranslatorRetention.NONE);
+        if (libraryPath != null) {
+            result.getLibrarySourceLoader().registerProvider(new DefaultLibrarySourceProvider(libraryPath));
+        }
+        result.getLibrarySourceLoader().registerProvider(new FhirLibrarySourceProvider());
+        return result;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Handles a single request.
+     * @param request the request, a JSON object
+     * @return the response, a JSON object on a single line
+     */
+    public String handle(String request) {
+        ObjectNode response = mapper.createObjectNode();
+        try {
+            JsonNode requestNode = mapper.readTree(request);
+            if (requestNode == null || !requestNode.isObject()) {
+                throw new IllegalArgumentException("Request must be a JSON object.");
+            }
+
+            if (requestNode.has("id")) {
+                response.set("id", requestNode.get("id"));
+            }
+
+            String command = requestNode.path("command").asText("translate");
+            switch (command) {
+                case "translate":
+                    translate(requestNode, response);
+                    break;
+                case "reset":
+                    libraryManager = createLibraryManager();
+                    break;
+                case "shutdown":
+                    shutdown = true;
+                    ServerSocket socket = serverSocket;
+                    if (socket != null) {
+                        socket.close();
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown command %s.", command));
+            }
+        }
+        catch (Exception e) {
+            response.put("error", e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+
+        try {
+            return mapper.writeValueAsString(response);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not write response.", e);
+        }
+    }
+
+    private void translate(JsonNode request, ObjectNode response) {
+        JsonNode cql = request.get("cql");
+        if (cql == null || !cql.isTextual()) {
+            throw new IllegalArgumentException("Request does not contain cql.");
+        }
+
+        CqlTranslator.Format format = CqlTranslator.Format.valueOf(request.path("format").asText("XML"));
+        CqlTranslatorException.ErrorSeverity errorLevel =
+                CqlTranslatorException.ErrorSeverity.valueOf(request.path("errorLevel").asText("Info"));
+        List<CqlTranslator.Options> options = new ArrayList<>();
+        for (JsonNode option : request.path("options")) {
+            options.add(CqlTranslator.Options.valueOf(option.asText()));
+        }
+
+        CqlTranslator translator = CqlTranslator.fromText(cql.asText(), modelManager, libraryManager, errorLevel,
+                options.toArray(new CqlTranslator.Options[options.size()]));
+
+        if (translator.toELM() != null) {
+            switch (format) {
+                case COFFEE:
+                    response.put("elm", "module.exports = " + translator.toJson());
+                    break;
+                case JSON:
+                    response.put("elm", translator.toJson());
+                    break;
+                case MOXY_JSON:
+                    response.put("elm", translator.toMoxyJson());
+                    break;
+                case XML:
+                default:
+                    response.put("elm", translator.toXml());
+            }
+        }
+
+        ArrayNode exceptions = response.putArray("exceptions");
+        for (CqlTranslatorException exception : translator.getExceptions()) {
+            ObjectNode exceptionNode = exceptions.addObject();
+            exceptionNode.put("severity", exception.getSeverity().name());
+            exceptionNode.put("message", exception.getMessage());
+            TrackBack tb = exception.getLocator();
+            if (tb != null) {
+                if (tb.getLibrary() != null) {
+                    exceptionNode.put("libraryId", tb.getLibrary().getId());
+                    exceptionNode.put("libraryVersion", tb.getLibrary().getVersion());
+                }
+                exceptionNode.put("startLine", tb.getStartLine());
+                exceptionNode.put("startChar", tb.getStartChar());
+                exceptionNode.put("endLine", tb.getEndLine());
+                exceptionNode.put("endChar", tb.getEndChar());
+            }
+        }
+    }
+
+    /**
+     * Serves requests, one per line, until the input ends or a shutdown is requested.
+     * @param reader the requests
+     * @param writer the responses
+     * @throws IOException if reading or writing fails
+     */
+    public void serve(BufferedReader reader, Writer writer) throws IOException {
+        String request;
+        while (!shutdown && (request = reader.readLine()) != null) {
+            if (request.trim().isEmpty()) {
+                continue;
+            }
+
+            writer.write(handle(request));
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    /**
+     * Serves connections on the given socket until a shutdown is requested, each on its own thread.
+     * @param serverSocket the socket to accept connections on
+     * @throws IOException if accepting a connection fails
+     */
+    public void serve(ServerSocket serverSocket) throws IOException {
+        this.serverSocket = serverSocket;
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            while (!shutdown) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                }
+                catch (SocketException e) {
+                    if (shutdown) {
+                        break;
+                    }
+                    throw e;
+                }
+
+                executor.execute(() -> {
+                    try (Socket connection = socket;
+                         BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+                         Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+                        serve(reader, writer);
+                    }
+                    catch (IOException e) {
+                        // The client went away, nothing to answer
+                    }
+                });
+            }
+        }
+        finally {
+            executor.shutdown();
+            serverSocket.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<Integer> port = parser.accepts("port").withRequiredArg().ofType(Integer.class);
+        OptionSpec<File> libraryPath = parser.accepts("library-path").withRequiredArg().ofType(File.class);
+
+        OptionSet options = parser.parse(args);
+
+        CqlTranslatorServer server = new CqlTranslatorServer(options.has(libraryPath) ? libraryPath.value(options).toPath() : null);
+        CqlTranslator.warmUp();
+
+        if (options.has(port)) {
+            ServerSocket serverSocket = new ServerSocket(port.value(options), 50, InetAddress.getLoopbackAddress());
+            System.out.printf("Listening on port %d%n", serverSocket.getLocalPort());
+            System.out.flush();
+            server.serve(serverSocket);
+        }
+        else {
+            server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        }
+    }
+}
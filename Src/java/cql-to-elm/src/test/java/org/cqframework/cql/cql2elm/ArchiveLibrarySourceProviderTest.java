@@ -0,0 +1,147 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Scanner;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ArchiveLibrarySourceProviderTest {
+    private Path directory;
+    private Path sources;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("library-archive");
+        sources = Files.createDirectory(directory.resolve("sources"));
+        write("Common-1.2.cql", "library Common version '1.2'\n\ndefine X: 1\n");
+        write("Common-1.10.cql", "library Common version '1.10'\n\ndefine X: 2\n");
+        write("Measure.cql", "library Measure\n\ninclude Common version '1.2'\n\ndefine Y: Common.X\n");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void write(String fileName, String content) throws IOException {
+        Files.write(sources.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path writeZip() throws IOException {
+        Path zip = directory.resolve("libraries.zip");
+        try (ZipOutputStream os = new ZipOutputStream(Files.newOutputStream(zip))) {
+            for (String fileName : new String[] { "Common-1.2.cql", "Common-1.10.cql", "Measure.cql" }) {
+                os.putNextEntry(new ZipEntry("cql/" + fileName));
+                os.write(Files.readAllBytes(sources.resolve(fileName)));
+                os.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private String read(LibrarySourceProvider provider, String id, String version) {
+        InputStream source = provider.getLibrarySource(new VersionedIdentifier().withId(id).withVersion(version));
+        if (source == null) {
+            return null;
+        }
+
+        try (Scanner scanner = new Scanner(source, "UTF-8")) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    private void assertSources(ArchiveLibrarySourceProvider provider) {
+        assertThat(read(provider, "Common", "1.2"), containsString("version '1.2'"));
+        assertThat(read(provider, "Common", null), containsString("version '1.10'"));
+        assertThat(read(provider, "Common", "3.0"), nullValue());
+        assertThat(read(provider, "Measure", null), startsWith("library Measure"));
+        assertThat(read(provider, "Missing", null), nullValue());
+        assertThat(provider.getLibraryIdentifiers().size(), is(3));
+    }
+
+    @Test
+    public void testBundle() throws IOException {
+        Path bundle = directory.resolve("libraries.cqlb");
+        ArchiveLibrarySourceProvider.writeBundle(sources, bundle);
+        try (ArchiveLibrarySourceProvider provider = new ArchiveLibrarySourceProvider(bundle)) {
+            assertSources(provider);
+        }
+    }
+
+    @Test
+    public void testZip() throws IOException {
+        try (ArchiveLibrarySourceProvider provider = new ArchiveLibrarySourceProvider(writeZip())) {
+            assertSources(provider);
+        }
+    }
+
+    @Test
+    public void testTranslationFromBundle() throws IOException {
+        Path bundle = directory.resolve("libraries.cqlb");
+        ArchiveLibrarySourceProvider.writeBundle(sources, bundle);
+        ModelManager modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        try (ArchiveLibrarySourceProvider provider = new ArchiveLibrarySourceProvider(bundle)) {
+            libraryManager.getLibrarySourceLoader().registerProvider(provider);
+            CqlTranslator translator = CqlTranslator.fromStream(provider.getLibrarySource(new VersionedIdentifier().withId("Measure")),
+                    modelManager, libraryManager);
+            assertThat(translator.getErrors().size(), is(0));
+        }
+    }
+
+    @Test
+    public void testMultipleProviders() throws IOException {
+        Path bundle = directory.resolve("libraries.cqlb");
+        ArchiveLibrarySourceProvider.writeBundle(sources, bundle);
+        DefaultLibrarySourceLoader loader = new DefaultLibrarySourceLoader();
+        try (ArchiveLibrarySourceProvider bundleProvider = new ArchiveLibrarySourceProvider(bundle);
+             ArchiveLibrarySourceProvider zipProvider = new ArchiveLibrarySourceProvider(writeZip())) {
+            loader.registerProvider(bundleProvider);
+            loader.registerProvider(new DefaultLibrarySourceProvider(directory));
+            assertThat(loader.getLibrarySource(new VersionedIdentifier().withId("Common").withVersion("1.2")), notNullValue());
+
+            loader.registerProvider(zipProvider);
+            try {
+                loader.getLibrarySource(new VersionedIdentifier().withId("Common").withVersion("1.2"));
+                throw new AssertionError("Expected multiple sources to be reported.");
+            }
+            catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), containsString("Multiple sources found for library Common"));
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidArchive() throws IOException {
+        Path invalid = directory.resolve("invalid.zip");
+        try (OutputStream os = Files.newOutputStream(invalid)) {
+            os.write("not an archive".getBytes(StandardCharsets.UTF_8));
+        }
+        new ArchiveLibrarySourceProvider(invalid);
+    }
+}
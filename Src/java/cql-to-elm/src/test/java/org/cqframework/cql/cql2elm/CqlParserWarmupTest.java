@@ -0,0 +1,32 @@
+package org.cqframework.cql.cql2elm;
+
+import org.testng.annotations.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CqlParserWarmupTest {
+
+    @Test
+    public void testWarmUpAndClear() {
+        CqlParserWarmup.clearDfaCache();
+        assertThat(CqlParserWarmup.getDfaStateCount(), is(0));
+
+        assertThat(CqlParserWarmup.warmUp(), is(4));
+        int stateCount = CqlParserWarmup.getDfaStateCount();
+        assertThat(CqlParserWarmup.getParserDfaStateCount(), greaterThan(0));
+        assertThat(CqlParserWarmup.getLexerDfaStateCount(), greaterThan(0));
+        assertThat(stateCount, is(CqlParserWarmup.getParserDfaStateCount() + CqlParserWarmup.getLexerDfaStateCount()));
+        assertThat(CqlParserWarmup.getPredictionContextCount(), greaterThan(0));
+
+        CqlParserWarmup.clearDfaCache();
+        assertThat(CqlParserWarmup.getDfaStateCount(), is(0));
+        assertThat(CqlParserWarmup.getPredictionContextCount(), is(0));
+
+        CqlParserWarmup.warmUp("define Test: 1 + 1");
+        assertThat(CqlParserWarmup.getDfaStateCount(), allOf(greaterThan(0), lessThan(stateCount)));
+
+        CqlTranslator.warmUp();
+        assertThat(CqlParserWarmup.getDfaStateCount(), greaterThanOrEqualTo(stateCount));
+    }
+}
@@ -0,0 +1,49 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.cql.model.*;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DataTypeInternerTest {
+    @Test
+    public void testStructurallyEqualTypesAreShared() {
+        DataTypeInterner interner = new DataTypeInterner();
+        SimpleType integer = new SimpleType("System.Integer");
+        SimpleType string = new SimpleType("System.String");
+
+        ListType list = interner.listOf(interner.intervalOf(integer));
+        assertThat(interner.listOf(interner.intervalOf(integer)), sameInstance(list));
+        assertThat(interner.intern(new ListType(new IntervalType(integer))), sameInstance(list));
+        assertThat(interner.listOf(string), not(sameInstance(interner.listOf(integer))));
+
+        ChoiceType choice = interner.choiceOf(Arrays.asList(integer, string));
+        assertThat(interner.choiceOf(Arrays.asList(integer, interner.choiceOf(Arrays.asList(string)))), sameInstance(choice));
+
+        TupleType tuple = interner.tupleOf(Arrays.asList(new TupleTypeElement("a", integer), new TupleTypeElement("b", new ListType(string))));
+        assertThat(interner.tupleOf(Arrays.asList(new TupleTypeElement("a", integer), new TupleTypeElement("b", interner.listOf(string)))),
+                sameInstance(tuple));
+        assertThat(interner.tupleOf(Arrays.asList(new TupleTypeElement("c", integer), new TupleTypeElement("b", interner.listOf(string)))),
+                not(sameInstance(tuple)));
+        assertThat(interner.intern(integer), sameInstance(integer));
+    }
+
+    @Test
+    public void testEqualMembersAreNotMerged() {
+        // Class types are equal by name, but a generic class type and its instantiation have different elements
+        DataTypeInterner interner = new DataTypeInterner();
+        ClassType generic = new ClassType("Test.Box");
+        generic.addElement(new ClassTypeElement("value", new TypeParameter("T")));
+        ClassType instantiated = new ClassType("Test.Box");
+        instantiated.addElement(new ClassTypeElement("value", new SimpleType("System.Integer")));
+
+        ListType genericList = interner.listOf(generic);
+        ListType instantiatedList = interner.listOf(instantiated);
+        assertThat(instantiatedList, not(sameInstance(genericList)));
+        assertThat(instantiatedList.getElementType(), sameInstance(instantiated));
+        assertThat(instantiatedList, is(genericList));
+    }
+}
@@ -0,0 +1,85 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm.r1.VersionedIdentifier;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Scanner;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DefaultLibrarySourceProviderTest {
+    private Path directory;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("library-sources");
+        write("Common.cql", "unversioned");
+        write("Common-1.2.cql", "1.2");
+        write("Common-1.10.cql", "1.10");
+        write("CommonExtensions-2.0.cql", "extensions");
+        write("Common-draft.cql", "draft");
+        // Old enough that the index of the directory is trusted until the directory changes
+        Files.setLastModifiedTime(directory, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private void write(String fileName, String content) throws IOException {
+        Files.write(directory.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String read(DefaultLibrarySourceProvider provider, String id, String version) {
+        InputStream source = provider.getLibrarySource(new VersionedIdentifier().withId(id).withVersion(version));
+        if (source == null) {
+            return null;
+        }
+
+        try (Scanner scanner = new Scanner(source, "UTF-8")) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+
+    @Test
+    public void testMostRecentVersion() {
+        DefaultLibrarySourceProvider provider = new DefaultLibrarySourceProvider(directory);
+        assertThat(read(provider, "Common", "1.2"), is("1.2"));
+        assertThat(read(provider, "Common", null), is("unversioned"));
+        assertThat(read(provider, "Common", "3.0"), is("1.10"));
+        assertThat(read(provider, "CommonExtensions", "1.0"), is("extensions"));
+        assertThat(read(provider, "Missing", null), nullValue());
+        assertThat(provider.getLibraryVersions("Common").size(), is(3));
+    }
+
+    @Test
+    public void testIndexFollowsDirectoryChanges() throws IOException {
+        DefaultLibrarySourceProvider provider = new DefaultLibrarySourceProvider(directory);
+        assertThat(read(provider, "Common", "3.0"), is("1.10"));
+        assertThat(read(provider, "Other", "1.0"), nullValue());
+
+        write("Common-2.0.cql", "2.0");
+        write("Other-1.1.cql", "other");
+        assertThat(read(provider, "Common", "3.0"), is("2.0"));
+        assertThat(read(provider, "Other", "1.0"), is("other"));
+
+        Files.delete(directory.resolve("Common-2.0.cql"));
+        assertThat(read(provider, "Common", "3.0"), is("1.10"));
+    }
+}
@@ -0,0 +1,74 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm.r1.Library;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ElmJaxbContextTest {
+
+    private CqlTranslator translator;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        ModelManager modelManager = new ModelManager();
+        translator = CqlTranslator.fromStream(ElmJaxbContextTest.class.getResourceAsStream("CMS146v2_Test_CQM.cql"), modelManager, new LibraryManager(modelManager));
+        assertThat(translator.getErrors().size(), is(0));
+    }
+
+    @Test
+    public void testDefaultContextIsShared() {
+        assertThat(ElmJaxbContext.getDefault(), sameInstance(ElmJaxbContext.getDefault()));
+        assertThat(translator.getJaxbContext(), sameInstance(ElmJaxbContext.getDefault()));
+    }
+
+    @Test
+    public void testRepeatedSerializationIsStable() {
+        String xml = translator.toXml();
+        String json = translator.toJson();
+        for (int i = 0; i < 3; i++) {
+            assertThat(translator.toXml(), is(xml));
+            assertThat(translator.toJson(), is(json));
+        }
+    }
+
+    @Test
+    public void testStreamingOutput() throws UnsupportedEncodingException {
+        ByteArrayOutputStream xmlStream = new ByteArrayOutputStream();
+        translator.writeXml(xmlStream);
+        assertThat(xmlStream.toString("UTF-8"), is(translator.toXml()));
+
+        StringWriter jsonWriter = new StringWriter();
+        translator.writeJson(jsonWriter);
+        assertThat(jsonWriter.toString(), is(translator.toJson()));
+    }
+
+    @Test
+    public void testXmlRoundTrip() throws JAXBException {
+        Library library = ElmJaxbContext.getDefault().unmarshalXml(new StringReader(translator.toXml()));
+        assertThat(library.getIdentifier(), is(translator.toELM().getIdentifier()));
+        assertThat(library.getStatements().getDef().size(), is(translator.toELM().getStatements().getDef().size()));
+    }
+
+    @Test
+    public void testCustomContext() throws JAXBException {
+        ElmJaxbContext customContext = new ElmJaxbContext(ElmJaxbContext.getDefault().getJaxbContext(), 1);
+        String xml = translator.toXml();
+        translator.setJaxbContext(customContext);
+        try {
+            assertThat(translator.toXml(), is(xml));
+        }
+        finally {
+            translator.setJaxbContext(ElmJaxbContext.getDefault());
+        }
+    }
+}
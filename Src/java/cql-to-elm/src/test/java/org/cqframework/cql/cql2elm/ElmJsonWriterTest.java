@@ -0,0 +1,62 @@
+package org.cqframework.cql.cql2elm;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ElmJsonWriterTest {
+
+    private CqlTranslator translate(String fileName, CqlTranslator.Options... options) throws IOException {
+        ModelManager modelManager = new ModelManager();
+        CqlTranslator translator = CqlTranslator.fromStream(ElmJsonWriterTest.class.getResourceAsStream(fileName),
+                modelManager, new LibraryManager(modelManager), options);
+        assertThat(translator.getErrors().size(), is(0));
+        return translator;
+    }
+
+    @Test
+    public void testMatchesMoxyOutput() throws IOException {
+        CqlTranslator translator = translate("CMS146v2_Test_CQM.cql");
+        assertThat(translator.toJson(), is(translator.toMoxyJson()));
+    }
+
+    @Test
+    public void testMatchesMoxyOutputWithDebugInformation() throws IOException {
+        CqlTranslator translator = translate("CMS146v2_Test_CQM.cql", CqlTranslator.Options.EnableAnnotations,
+                CqlTranslator.Options.EnableLocators, CqlTranslator.Options.EnableResultTypes);
+        assertThat(translator.toJson(), is(translator.toMoxyJson()));
+    }
+
+    @Test
+    public void testMatchesMoxyOutputForOperators() throws IOException {
+        for (String fileName : new String[] {
+                "OperatorTests/ArithmeticOperators.cql",
+                "OperatorTests/StringOperators.cql",
+                "OperatorTests/DateTimeOperators.cql",
+                "OperatorTests/Query.cql"
+        }) {
+            CqlTranslator translator = translate(fileName, CqlTranslator.Options.EnableAnnotations,
+                    CqlTranslator.Options.EnableResultTypes);
+            assertThat(fileName, translator.toJson(), is(translator.toMoxyJson()));
+        }
+    }
+
+    @Test
+    public void testStreamingOutput() throws IOException {
+        CqlTranslator translator = translate("CMS146v2_Test_CQM.cql");
+        String json = translator.toJson();
+
+        StringWriter writer = new StringWriter();
+        new ElmJsonWriter().write(translator.toELM(), writer);
+        assertThat(writer.toString(), is(json));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new ElmJsonWriter().write(translator.toELM(), outputStream);
+        assertThat(outputStream.toString("UTF-8"), is(json));
+    }
+}
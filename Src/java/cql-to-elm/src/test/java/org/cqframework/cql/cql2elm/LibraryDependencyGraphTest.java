@@ -0,0 +1,54 @@
+package org.cqframework.cql.cql2elm;
+
+import org.testng.annotations.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LibraryDependencyGraphTest {
+    private final Path common = Paths.get("cql", "Common-1.0.cql");
+    private final Path helpers = Paths.get("cql", "Helpers.cql");
+    private final Path measure = Paths.get("cql", "Measure_v2.cql");
+    private final Path other = Paths.get("cql", "Other.cql");
+
+    private LibraryDependencyGraph createGraph() {
+        LibraryDependencyGraph graph = new LibraryDependencyGraph();
+        graph.update(common, "Common", Collections.emptyList());
+        graph.update(helpers, "Helpers", Collections.singletonList("Common"));
+        graph.update(measure, "Measure", Arrays.asList("Helpers", "FHIRHelpers"));
+        graph.update(other, "Other", Collections.singletonList("FHIRHelpers"));
+        return graph;
+    }
+
+    @Test
+    public void testSourceLibraryName() {
+        assertThat(LibraryDependencyGraph.getSourceLibraryName(common), is("Common"));
+        assertThat(LibraryDependencyGraph.getSourceLibraryName(measure), is("Measure_v2"));
+    }
+
+    @Test
+    public void testLibraryNames() {
+        LibraryDependencyGraph graph = createGraph();
+        assertThat(graph.getLibraryNames(measure), containsInAnyOrder("Measure", "Measure_v2"));
+        assertThat(graph.getLibraryNames(Paths.get("cql", "Unknown.cql")), contains("Unknown"));
+    }
+
+    @Test
+    public void testDependentFiles() {
+        LibraryDependencyGraph graph = createGraph();
+        assertThat(graph.getDependentFiles(graph.getLibraryNames(common)), contains(helpers, measure));
+        assertThat(graph.getDependentFiles(graph.getLibraryNames(measure)), is(empty()));
+        assertThat(graph.getDependentFiles(Collections.singletonList("FHIRHelpers")), contains(measure, other));
+
+        graph.update(helpers, "Helpers", Collections.emptyList());
+        assertThat(graph.getDependentFiles(graph.getLibraryNames(common)), is(empty()));
+
+        graph.remove(measure);
+        assertThat(graph.getDependentFiles(Collections.singletonList("FHIRHelpers")), contains(other));
+    }
+}
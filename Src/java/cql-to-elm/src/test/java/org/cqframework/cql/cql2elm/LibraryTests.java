@@ -1,16 +1,34 @@
 package org.cqframework.cql.cql2elm;
 
 import jdk.nashorn.internal.ir.annotations.Ignore;
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.VersionedIdentifier;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.notNullValue;
 
 public class LibraryTests {
 
@@ -86,4 +104,279 @@ public class LibraryTests {
         }
     }
 
+    @Test
+    public void testLibraryCache() {
+        final int[] sourceRequests = { 0 };
+        LibraryManager cachingLibraryManager = new LibraryManager(modelManager);
+        cachingLibraryManager.getLibrarySourceLoader().registerProvider(libraryIdentifier -> {
+            sourceRequests[0]++;
+            return new TestLibrarySourceProvider().getLibrarySource(libraryIdentifier);
+        });
+
+        VersionedIdentifier identifier = new VersionedIdentifier().withId("BaseLibrary");
+        TranslatedLibrary library = cachingLibraryManager.resolveLibrary(identifier, new ArrayList<>());
+        assertThat(cachingLibraryManager.resolveLibrary(identifier, new ArrayList<>()), sameInstance(library));
+        assertThat(cachingLibraryManager.resolveLibrary(identifier, new ArrayList<>(), CqlTranslator.Options.EnableTwoStageParsing), sameInstance(library));
+        assertThat(sourceRequests[0], is(1));
+        assertThat(cachingLibraryManager.getCacheHits(), is(2L));
+        assertThat(cachingLibraryManager.getCacheMisses(), is(1L));
+
+        TranslatedLibrary annotatedLibrary = cachingLibraryManager.resolveLibrary(identifier, new ArrayList<>(), CqlTranslator.Options.EnableAnnotations);
+        assertThat(annotatedLibrary, not(sameInstance(library)));
+        assertThat(sourceRequests[0], is(2));
+        assertThat(cachingLibraryManager.getCacheMisses(), is(2L));
+
+        assertThat(cachingLibraryManager.removeLibrary("BaseLibrary"), is(true));
+        assertThat(cachingLibraryManager.removeLibrary("BaseLibrary"), is(false));
+        assertThat(cachingLibraryManager.resolveLibrary(identifier, new ArrayList<>()), not(sameInstance(library)));
+        assertThat(sourceRequests[0], is(3));
+    }
+
+    @Test
+    public void testIncludesAreTranslatedOnce() throws IOException {
+        LibraryManager cachingLibraryManager = new LibraryManager(modelManager);
+        cachingLibraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider());
+        for (int i = 0; i < 3; i++) {
+            CqlTranslator translator = CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/ReferencingLibrary.cql"), modelManager, cachingLibraryManager);
+            assertThat(translator.getErrors().size(), is(0));
+        }
+
+        assertThat(cachingLibraryManager.getCacheMisses(), is(1L));
+        assertThat(cachingLibraryManager.getCacheHits(), is(2L));
+        assertThat(cachingLibraryManager.getLibraries().keySet(), contains("BaseLibrary-null"));
+    }
+
+    @Test
+    public void testConcurrentIncludesAreTranslatedOnce() throws Exception {
+        final AtomicInteger sourceRequests = new AtomicInteger();
+        final LibraryManager sharedLibraryManager = new LibraryManager(modelManager);
+        sharedLibraryManager.getLibrarySourceLoader().registerProvider(libraryIdentifier -> {
+            sourceRequests.incrementAndGet();
+            try {
+                // Give the other translations time to ask for the library while it is being translated
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new TestLibrarySourceProvider().getLibrarySource(libraryIdentifier);
+        });
+
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CqlTranslator>> translations = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                translations.add(executor.submit(() -> {
+                    start.await();
+                    return CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/ReferencingLibrary.cql"),
+                            modelManager, sharedLibraryManager);
+                }));
+            }
+
+            start.countDown();
+            for (Future<CqlTranslator> translation : translations) {
+                assertThat(translation.get(1, TimeUnit.MINUTES).getErrors().size(), is(0));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(sourceRequests.get(), is(1));
+        assertThat(sharedLibraryManager.getCacheMisses(), is(1L));
+        assertThat(sharedLibraryManager.getCacheHits(), is((long)threads - 1));
+    }
+
+    @Test(timeOut = 60000)
+    public void testCircularLibraryReference() throws IOException {
+        LibraryManager circularLibraryManager = new LibraryManager(modelManager);
+        circularLibraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider());
+        CqlTranslator translator = CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/CircularA.cql"),
+                modelManager, circularLibraryManager);
+        assertThat(translator.getErrors().size(), greaterThan(0));
+        assertThat(translator.getErrors().get(0).getMessage(), containsString("Circular library reference"));
+    }
+
+    @Test(timeOut = 60000)
+    public void testConcurrentCircularLibraryReference() throws Exception {
+        // Each translation includes the library the other one is translating, neither may wait for the other forever
+        final LibraryManager sharedLibraryManager = new LibraryManager(modelManager);
+        sharedLibraryManager.getLibrarySourceLoader().registerProvider(libraryIdentifier -> {
+            try {
+                Thread.sleep(100);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new TestLibrarySourceProvider().getLibrarySource(libraryIdentifier);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<CqlTranslator>> translations = new ArrayList<>();
+            for (String libraryName : new String[] { "CircularA", "CircularB" }) {
+                translations.add(executor.submit(() -> CqlTranslator.fromStream(
+                        LibraryTests.class.getResourceAsStream("LibraryTests/" + libraryName + ".cql"), modelManager, sharedLibraryManager)));
+            }
+
+            for (Future<CqlTranslator> translation : translations) {
+                assertThat(translation.get().getErrors().size(), greaterThan(0));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testIncludeExecutor() throws Exception {
+        final AtomicInteger sourceRequests = new AtomicInteger();
+        final AtomicInteger tasks = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        LibraryManager parallelLibraryManager = new LibraryManager(modelManager);
+        parallelLibraryManager.getLibrarySourceLoader().registerProvider(libraryIdentifier -> {
+            sourceRequests.incrementAndGet();
+            return new TestLibrarySourceProvider().getLibrarySource(libraryIdentifier);
+        });
+        parallelLibraryManager.setIncludeExecutor(command -> {
+            tasks.incrementAndGet();
+            pool.execute(command);
+        });
+
+        try {
+            CqlTranslator translator = CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/IncludeGraphLibrary.cql"),
+                    modelManager, parallelLibraryManager);
+            assertThat(translator.getErrors().size(), is(0));
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        assertThat(tasks.get(), greaterThan(0));
+        assertThat(sourceRequests.get(), is(2));
+        assertThat(parallelLibraryManager.getCacheMisses(), is(2L));
+    }
+
+    @Test(timeOut = 60000)
+    public void testIncludeExecutorCircularLibraryReference() throws IOException {
+        LibraryManager parallelLibraryManager = new LibraryManager(modelManager);
+        parallelLibraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider());
+        // Running the include translations in place keeps the test deterministic
+        parallelLibraryManager.setIncludeExecutor(Runnable::run);
+        CqlTranslator translator = CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/CircularA.cql"),
+                modelManager, parallelLibraryManager);
+        assertThat(translator.getErrors().size(), greaterThan(0));
+        assertThat(translator.getErrors().get(0).getMessage(), containsString("Circular library reference"));
+    }
+
+    @Test
+    public void testTranslatorRetention() throws IOException {
+        LibraryManager retainingLibraryManager = new LibraryManager(modelManager);
+        retainingLibraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider());
+        retainingLibraryManager.setTranslatorRetention(LibraryManager.TranslatorRetention.NONE);
+        CqlTranslator translator = CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/IncludeGraphLibrary.cql"),
+                modelManager, retainingLibraryManager);
+        assertThat(translator.getErrors().size(), is(0));
+        assertThat(retainingLibraryManager.getTranslators().isEmpty(), is(true));
+        assertThat(retainingLibraryManager.getLibraries().keySet(), containsInAnyOrder("BaseLibrary-null", "ReferencingLibrary-null"));
+
+        retainingLibraryManager = new LibraryManager(modelManager);
+        retainingLibraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider());
+        retainingLibraryManager.setTranslatorRetention(LibraryManager.TranslatorRetention.LRU, 1);
+        translator = CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/IncludeGraphLibrary.cql"),
+                modelManager, retainingLibraryManager);
+        assertThat(translator.getErrors().size(), is(0));
+        // Base is translated first, as an include of Referencing
+        assertThat(retainingLibraryManager.getTranslators().keySet(), contains("ReferencingLibrary-null"));
+
+        retainingLibraryManager.setTranslatorRetention(LibraryManager.TranslatorRetention.SOFT);
+        assertThat(retainingLibraryManager.getTranslators().keySet(), contains("ReferencingLibrary-null"));
+        assertThat(retainingLibraryManager.removeLibrary("ReferencingLibrary"), is(true));
+        assertThat(retainingLibraryManager.getTranslators().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testParseStateIsReleased() throws IOException {
+        // Kept by default, as the MAT code reads it
+        CqlTranslator translator = CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/ReferencingLibrary.cql"),
+                modelManager, libraryManager);
+        assertThat(translator.getErrors().size(), is(0));
+        assertThat(translator.getFinalVisitor().getTokenStream(), notNullValue());
+        assertThat(translator.getLibraryInfo().resolveExpressionReference("ReferenceExpression").getDefinition(), notNullValue());
+
+        LibraryManager releasingLibraryManager = new LibraryManager(modelManager);
+        releasingLibraryManager.getLibrarySourceLoader().registerProvider(new TestLibrarySourceProvider());
+        releasingLibraryManager.setTranslatorRetention(LibraryManager.TranslatorRetention.NONE);
+        translator = CqlTranslator.fromStream(LibraryTests.class.getResourceAsStream("LibraryTests/ReferencingLibrary.cql"),
+                modelManager, releasingLibraryManager);
+        assertThat(translator.getErrors().size(), is(0));
+        assertThat(translator.getFinalVisitor().getTokenStream(), nullValue());
+        assertThat(translator.getLibraryInfo().resolveExpressionReference("ReferenceExpression").getDefinition(), nullValue());
+        assertThat(translator.getFinalVisitor().getCqlExpressionModelObjects().isEmpty(), is(false));
+    }
+
+    private LibraryManager createHeaderOnlyLibraryManager() {
+        Map<String, String> sources = new HashMap<>();
+        sources.put("Base", "library Base\n\n"
+                + "define X: Y + 1\n"
+                + "define Y: 1\n"
+                + "define Unused: 'unused'\n"
+                + "define Broken: Undefined\n"
+                + "define function F(a Integer): a + Y\n");
+        LibraryManager headerLibraryManager = new LibraryManager(modelManager);
+        headerLibraryManager.getLibrarySourceLoader().registerProvider(libraryIdentifier -> {
+            String source = sources.get(libraryIdentifier.getId());
+            return source != null ? new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)) : null;
+        });
+        return headerLibraryManager;
+    }
+
+    private List<String> getStatementNames(TranslatedLibrary library) {
+        List<String> names = new ArrayList<>();
+        for (ExpressionDef def : library.getLibrary().getStatements().getDef()) {
+            names.add(def.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testHeaderOnlyIncludes() {
+        String top = "library Top\n\ninclude Base\n\ndefine Z: Base.X\ndefine W: Base.F(2)\n";
+        LibraryManager headerLibraryManager = createHeaderOnlyLibraryManager();
+        CqlTranslator translator = CqlTranslator.fromText(top, modelManager, headerLibraryManager,
+                CqlTranslator.Options.EnableHeaderOnlyIncludes);
+        assertThat(translator.getErrors().size(), is(0));
+
+        // Only the definitions the including library needs are translated
+        TranslatedLibrary base = headerLibraryManager.getLibraries().get("Base-null");
+        assertThat(base.isHeaderOnly(), is(true));
+        assertThat(getStatementNames(base), containsInAnyOrder("X", "Y", "F"));
+
+        // The including library translates as it would against the complete library
+        CqlTranslator fullTranslator = CqlTranslator.fromText(top, modelManager, createHeaderOnlyLibraryManager());
+        assertThat(translator.toXml(), is(fullTranslator.toXml()));
+    }
+
+    @Test
+    public void testHeaderOnlyIncludeErrorsAreReportedAtReference() {
+        LibraryManager headerLibraryManager = createHeaderOnlyLibraryManager();
+        CqlTranslator translator = CqlTranslator.fromText("library Top\n\ninclude Base\n\ndefine Z: Base.Broken\n",
+                modelManager, headerLibraryManager, CqlTranslator.Options.EnableHeaderOnlyIncludes);
+        assertThat(translator.getErrors().size(), greaterThan(0));
+        assertThat(translator.getErrors().get(0).getMessage(), containsString("Broken"));
+        assertThat(translator.getErrors().get(0).getLocator().getStartLine(), is(5));
+
+        // The definition is translated only once, but its errors are reported to every library referencing it
+        translator = CqlTranslator.fromText("library Other\n\ninclude Base\n\ndefine A: 1\ndefine B: Base.Broken\n",
+                modelManager, headerLibraryManager, CqlTranslator.Options.EnableHeaderOnlyIncludes);
+        assertThat(translator.getErrors().size(), greaterThan(0));
+        assertThat(translator.getErrors().get(0).getMessage(), containsString("Broken"));
+        assertThat(translator.getErrors().get(0).getLocator().getStartLine(), is(6));
+
+        translator = CqlTranslator.fromText("library Top\n\ninclude Base\n\ndefine Z: Base.X\n",
+                modelManager, headerLibraryManager, CqlTranslator.Options.EnableHeaderOnlyIncludes);
+        assertThat(translator.getErrors().size(), is(0));
+    }
 }
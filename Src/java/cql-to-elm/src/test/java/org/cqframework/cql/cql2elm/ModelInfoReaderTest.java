@@ -0,0 +1,64 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm_modelinfo.r1.ClassInfo;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXB;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ModelInfoReaderTest {
+    @Test
+    public void testReaderMatchesJaxb() {
+        for (String resourcePath : new String[] {
+                "/org/hl7/elm/r1/system-modelinfo.xml",
+                "/org/hl7/fhir/quick-modelinfo.xml",
+                "/org/hl7/fhir/fhir-modelinfo-1.0.2.xml",
+                "/org/hl7/fhir/fhir-modelinfo-1.8.xml",
+                "/org/hl7/fhir/fhir-modelinfo-3.0.0.xml",
+                "/gov/healthit/qdm/qdm-modelinfo.xml",
+                "/gov/healthit/qdm/qdm-modelinfo-4.2.xml",
+                "/gov/healthit/qdm/qdm-modelinfo-5.3.xml",
+                "/org/cqframework/cql/cql2elm/ModelTests/test-modelinfo.xml" }) {
+            ModelInfo expected = JAXB.unmarshal(ModelInfoReaderTest.class.getResourceAsStream(resourcePath), ModelInfo.class);
+            assertThat(resourcePath, ModelInfoReader.read(ModelInfoReaderTest.class.getResourceAsStream(resourcePath)), is(expected));
+        }
+    }
+
+    @Test
+    public void testUnknownContentIsIgnored() {
+        String xml = "<ns4:modelInfo name=\"Test\" version=\"1\" unknown=\"x\" targetQualifier=\"test\" "
+                + "xmlns:ns4=\"urn:hl7-org:elm-modelinfo:r1\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n"
+                + "  <!-- A comment -->\n"
+                + "  <ns4:unknown><ns4:nested/></ns4:unknown>\n"
+                + "  <ns4:typeInfo xsi:type=\"ns4:ClassInfo\" name=\"Test.Thing\" retrievable=\"true\">\n"
+                + "    <ns4:element name=\"value\" type=\"System.String\"/>\n"
+                + "  </ns4:typeInfo>\n"
+                + "</ns4:modelInfo>\n";
+        ModelInfo modelInfo = ModelInfoReader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        assertThat(modelInfo.getName(), is("Test"));
+        assertThat(modelInfo.getTargetQualifier().getLocalPart(), is("test"));
+        assertThat(modelInfo.getTypeInfo().size(), is(1));
+        ClassInfo classInfo = (ClassInfo)modelInfo.getTypeInfo().get(0);
+        assertThat(classInfo.isRetrievable(), is(true));
+        assertThat(classInfo.getElement().get(0).getType(), is("System.String"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMalformedXml() {
+        ModelInfoReader.read(new ByteArrayInputStream("<modelInfo name=\"Test\">".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testModelRetainsModelInfo() {
+        Model model = new ModelManager().resolveModel("FHIR", "3.0.0");
+        assertThat(model.getModelInfo().getPatientClassName(), is("FHIR.Patient"));
+        assertThat(model.getModelInfo().getTypeInfo().isEmpty(), is(false));
+        assertThat(model.resolveTypeName("Patient"), notNullValue());
+    }
+}
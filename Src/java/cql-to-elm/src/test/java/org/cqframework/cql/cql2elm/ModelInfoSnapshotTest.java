@@ -0,0 +1,92 @@
+package org.cqframework.cql.cql2elm;
+
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXB;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ModelInfoSnapshotTest {
+    private static byte[] readResource(String resourcePath) throws IOException {
+        try (InputStream is = ModelInfoSnapshotTest.class.getResourceAsStream(resourcePath)) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = is.read(buffer)) >= 0) {
+                result.write(buffer, 0, count);
+            }
+            return result.toByteArray();
+        }
+    }
+
+    private static byte[] writeSnapshot(ModelInfo modelInfo, byte[] xml) throws IOException {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        ModelInfoSnapshot.write(modelInfo, xml, snapshot);
+        return snapshot.toByteArray();
+    }
+
+    @Test
+    public void testSnapshotMatchesXml() throws IOException {
+        for (String resourcePath : new String[] { "/org/hl7/fhir/fhir-modelinfo-3.0.0.xml", "/gov/healthit/qdm/qdm-modelinfo-5.3.xml",
+                "/org/hl7/elm/r1/system-modelinfo.xml" }) {
+            byte[] xml = readResource(resourcePath);
+            ModelInfo modelInfo = JAXB.unmarshal(new ByteArrayInputStream(xml), ModelInfo.class);
+            byte[] snapshot = writeSnapshot(modelInfo, xml);
+            assertThat(snapshot.length, lessThan(xml.length));
+            assertThat(ModelInfoSnapshot.read(ByteBuffer.wrap(snapshot), ModelInfoSnapshot.getChecksum(xml)), is(modelInfo));
+        }
+    }
+
+    @Test
+    public void testSnapshotOfDifferentXmlIsIgnored() throws IOException {
+        byte[] xml = readResource("/org/hl7/elm/r1/system-modelinfo.xml");
+        ModelInfo modelInfo = JAXB.unmarshal(new ByteArrayInputStream(xml), ModelInfo.class);
+        byte[] snapshot = writeSnapshot(modelInfo, xml);
+        byte[] changedXml = xml.clone();
+        changedXml[changedXml.length - 2] = ' ';
+        assertThat(ModelInfoSnapshot.read(ByteBuffer.wrap(snapshot), ModelInfoSnapshot.getChecksum(changedXml)), nullValue());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*is not a model info class.*")
+    public void testSnapshotOfOtherClassIsRejected() throws IOException {
+        byte[] xml = readResource("/org/hl7/elm/r1/system-modelinfo.xml");
+        byte[] snapshot = writeSnapshot(new ModelInfo().withName("System"), xml);
+        // A class name of the same length outside the model info package
+        String snapshotText = new String(snapshot, StandardCharsets.ISO_8859_1);
+        byte[] changedSnapshot = snapshotText.replace("org.hl7.elm_modelinfo.r1.ModelInfo", "org.hl7.elm_modelinfo_r1_ModelInfo")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        assertThat(changedSnapshot, not(snapshot));
+        ModelInfoSnapshot.read(ByteBuffer.wrap(changedSnapshot), ModelInfoSnapshot.getChecksum(xml));
+    }
+
+    @Test
+    public void testLoadFromGeneratedSnapshot() throws IOException {
+        Path directory = Files.createTempDirectory("model-snapshots");
+        try {
+            ModelInfoSnapshot.main(new String[] { directory.toString(), "/org/hl7/fhir/quick-modelinfo.xml" });
+            Path snapshot = directory.resolve(Paths.get("org", "hl7", "fhir", "quick-modelinfo.xml" + ModelInfoSnapshot.SNAPSHOT_EXTENSION));
+            assertThat(Files.exists(snapshot), is(true));
+
+            byte[] xml = readResource("/org/hl7/fhir/quick-modelinfo.xml");
+            assertThat(ModelInfoSnapshot.read(ByteBuffer.wrap(Files.readAllBytes(snapshot)), ModelInfoSnapshot.getChecksum(xml)),
+                    is(ModelInfoSnapshot.load("/org/hl7/fhir/quick-modelinfo.xml")));
+            Files.delete(snapshot);
+        }
+        finally {
+            for (Path path = directory.resolve(Paths.get("org", "hl7", "fhir")); path.startsWith(directory); path = path.getParent()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
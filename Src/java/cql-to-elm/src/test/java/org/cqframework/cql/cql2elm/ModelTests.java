@@ -1,5 +1,7 @@
 package org.cqframework.cql.cql2elm;
 
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.cql.model.*;
 import org.hl7.elm.r1.Library;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.testng.annotations.AfterClass;
@@ -7,9 +9,16 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
+import static org.testng.Assert.fail;
 
 public class ModelTests {
     @BeforeClass
@@ -21,6 +30,7 @@ public class ModelTests {
     @AfterClass
     public void tearDown() {
         ModelInfoLoader.unregisterModelInfoProvider(new VersionedIdentifier().withId("Test").withVersion("1"));
+        ModelCache.getGlobal().evict("Test");
     }
 
     @Test
@@ -35,4 +45,150 @@ public class ModelTests {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void testSharedModels() {
+        ModelCache modelCache = new ModelCache();
+        Model model = new ModelManager(modelCache).resolveModel("Test");
+        assertThat(new ModelManager(modelCache).resolveModel("Test"), sameInstance(model));
+        assertThat(new ModelManager(modelCache).resolveModel("System"), sameInstance(new ModelManager(modelCache).resolveModel("System")));
+        assertThat(new ModelManager(null).resolveModel("Test"), not(sameInstance(model)));
+        assertThat(new ModelManager().resolveModel("Test"), sameInstance(new ModelManager().resolveModel("Test")));
+
+        modelCache.evict("Test");
+        Model rebuiltModel = new ModelManager(modelCache).resolveModel("Test");
+        assertThat(rebuiltModel, not(sameInstance(model)));
+
+        // Models built from a provider that has since been replaced are built again
+        VersionedIdentifier identifier = new VersionedIdentifier().withId("Test");
+        try {
+            modelCache.replace(identifier, new TestModelInfoProvider());
+            assertThat(new ModelManager(modelCache).resolveModel(identifier), not(sameInstance(rebuiltModel)));
+            ModelInfoLoader.registerModelInfoProvider(identifier, new TestModelInfoProvider());
+            assertThat(new ModelManager().resolveModel(identifier), not(sameInstance(new ModelManager(modelCache).resolveModel(identifier))));
+        }
+        finally {
+            // Restore the providers registered by setup, the replacements are registered globally
+            ModelInfoLoader.unregisterModelInfoProvider(identifier);
+            setup();
+        }
+    }
+
+    @Test
+    public void testTypesResolveOnDemand() throws Exception {
+        Model model = new ModelManager(null).resolveModel("FHIR", "3.0.0");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<DataType>> patients = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                patients.add(executor.submit(() -> {
+                    DataType patient = model.resolveTypeName("Patient");
+                    // Reading the elements resolves them
+                    ((ClassType)patient).getElements().size();
+                    return patient;
+                }));
+            }
+
+            ClassType patient = (ClassType)patients.get(0).get();
+            for (Future<DataType> result : patients) {
+                assertThat(result.get(), sameInstance(patient));
+            }
+
+            assertThat(model.resolveTypeName("FHIR.Patient"), sameInstance(patient));
+            assertThat(patient.isSubTypeOf(model.resolveTypeName("DomainResource")), is(true));
+            assertThat(patient.isSubTypeOf(model.resolveTypeName("Resource")), is(true));
+            assertThat(patient.getAllElements().size(), greaterThan(patient.getElements().size()));
+            assertThat(model.resolveLabel("Patient"), nullValue());
+            assertThat(model.resolveTypeName("NotAType"), nullValue());
+            assertThat(model.resolveTypeName("System.Integer"), nullValue());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testScopedModelInfoProviders() {
+        VersionedIdentifier identifier = new VersionedIdentifier().withId("Scoped").withVersion("1");
+        AtomicInteger loadCount = new AtomicInteger();
+        ModelInfoProvider provider = () -> {
+            loadCount.incrementAndGet();
+            return new TestModelInfoProvider().load().withName("Scoped").withVersion("1");
+        };
+
+        ModelInfoLoader scope = ModelInfoLoader.getGlobal().createScope();
+        scope.registerProvider(identifier, provider);
+        assertThat(scope.resolveProvider(identifier), sameInstance(provider));
+        assertThat(scope.resolveProvider(new VersionedIdentifier().withId("Scoped")), sameInstance(provider));
+        assertThat(scope.resolveProvider(new VersionedIdentifier().withId("System")),
+                sameInstance(ModelInfoLoader.getModelInfoProvider(new VersionedIdentifier().withId("System"))));
+        try {
+            ModelInfoLoader.getModelInfoProvider(identifier);
+            fail("Scoped provider is visible globally.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // The model info of a provider is loaded once per cache, even for the different identifiers of the provider
+        ModelCache modelCache = new ModelCache();
+        Model model = new ModelManager(modelCache, scope).resolveModel("Scoped");
+        assertThat(model.getModelInfo().getName(), is("Scoped"));
+        assertThat(new ModelManager(modelCache, scope).resolveModel("Scoped", "1"), sameInstance(model));
+        assertThat(loadCount.get(), is(1));
+
+        // And every time without a cache, so that changed model info is picked up
+        assertThat(new ModelManager(null, scope).resolveModel("Scoped"), not(sameInstance(model)));
+        assertThat(loadCount.get(), is(2));
+
+        try {
+            new ModelManager(null).resolveModel("Scoped");
+            fail("Scoped model is visible globally.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // Evicting a model from a cache loads its model info again
+        modelCache.evict("Scoped");
+        new ModelManager(modelCache, scope).resolveModel("Scoped");
+        assertThat(loadCount.get(), is(3));
+
+        scope.unregisterProvider(identifier);
+        try {
+            scope.resolveProvider(new VersionedIdentifier().withId("Scoped"));
+            fail("Unregistered provider is still the default version.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testSubTypes() {
+        Model model = new ModelManager(null).resolveModel("FHIR", "3.0.0");
+        DataType patient = model.resolveTypeName("Patient");
+        DataType resource = model.resolveTypeName("Resource");
+        DataType observation = model.resolveTypeName("Observation");
+
+        assertThat(patient.isSubTypeOf(resource), is(true));
+        assertThat(resource.isSuperTypeOf(patient), is(true));
+        assertThat(patient.isSubTypeOf(patient), is(true));
+        assertThat(resource.isSubTypeOf(patient), is(false));
+        assertThat(patient.isSubTypeOf(observation), is(false));
+        assertThat(observation.isSuperTypeOf(patient), is(false));
+        assertThat(patient.isSubTypeOf(DataType.ANY), is(true));
+        assertThat(patient.isSubTypeOf(null), is(false));
+
+        // Types equal to Any are the root of the hierarchy, wherever they were created
+        SimpleType any = new SimpleType("System.Any");
+        assertThat(patient.isSubTypeOf(any), is(true));
+        assertThat(any.isSuperTypeOf(patient), is(true));
+
+        // Composite types are compared component-wise
+        assertThat(new ListType(patient).isSubTypeOf(new ListType(resource)), is(true));
+        assertThat(new ListType(resource).isSubTypeOf(new ListType(patient)), is(false));
+        assertThat(new IntervalType(patient).isSuperTypeOf(new IntervalType(resource)), is(false));
+        assertThat(new ListType(patient).isSubTypeOf(DataType.ANY), is(true));
+    }
 }
@@ -1,5 +1,8 @@
 package org.cqframework.cql.cql2elm;
 
+import org.hl7.cql.model.ClassType;
+import org.hl7.cql.model.DataType;
+import org.hl7.cql.model.ListType;
 import org.hl7.elm.r1.Library;
 import org.hl7.elm.r1.VersionedIdentifier;
 import org.testng.annotations.AfterClass;
@@ -9,7 +12,8 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
+import static org.testng.Assert.fail;
 
 /**
  * Created by Bryn on 12/11/2016.
@@ -45,4 +49,31 @@ public class PathTests {
             e.printStackTrace();
         }
     }
+
+    @Test
+    public void testResolvePath() {
+        ModelManager fhirModelManager = new ModelManager(null);
+        LibraryBuilder builder = new LibraryBuilder(fhirModelManager, new LibraryManager(fhirModelManager));
+        ClassType patient = (ClassType)fhirModelManager.resolveModel("FHIR", "3.0.0").resolveTypeName("Patient");
+
+        // Inherited elements are indexed along with the elements of the type itself
+        assertThat(patient.findElement("id"), notNullValue());
+        assertThat(patient.findElement("birthDate"), notNullValue());
+        assertThat(patient.findElement("notAnElement"), nullValue());
+
+        DataType given = builder.resolvePath(patient, "name.given");
+        assertThat(given, instanceOf(ListType.class));
+        assertThat(builder.resolvePath(patient, "name.given"), sameInstance(given));
+        assertThat(builder.resolvePath(patient, "id"), is(builder.resolveProperty(patient, "id")));
+
+        // Resolved paths depend on list traversal
+        builder.disableListTraversal();
+        try {
+            builder.resolvePath(patient, "name.given");
+            fail("Path resolved without list traversal.");
+        }
+        catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
 }
@@ -0,0 +1,162 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.Model;
+import org.hl7.elm_modelinfo.r1.ModelInfo;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class TranslatedLibraryCacheTest {
+    private Path directory;
+    private ModelManager modelManager;
+    private final Map<String, String> sources = new HashMap<>();
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("library-cache");
+        sources.clear();
+        sources.put("Base", "library Base\n\ndefine X: 1\n");
+        sources.put("Middle", "library Middle\n\ninclude Base\n\ndefine Y: Base.X + 1\n");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private LibraryManager createLibraryManager() throws IOException {
+        modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(libraryIdentifier -> {
+            String source = sources.get(libraryIdentifier.getId());
+            return source != null ? new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)) : null;
+        });
+        // A new cache instance, as a later process would have
+        libraryManager.setLibraryCache(new TranslatedLibraryCache(directory, 1024 * 1024));
+        return libraryManager;
+    }
+
+    private CqlTranslator translate(LibraryManager libraryManager) {
+        CqlTranslator translator = CqlTranslator.fromText("library Top\n\ninclude Middle\n\ndefine Z: Middle.Y\n",
+                modelManager, libraryManager);
+        assertThat(translator.getErrors().size(), is(0));
+        return translator;
+    }
+
+    @Test
+    public void testCachedLibrariesAreNotTranslated() throws IOException {
+        LibraryManager libraryManager = createLibraryManager();
+        String elm = translate(libraryManager).toXml();
+        assertThat(libraryManager.getTranslators().keySet(), containsInAnyOrder("Base-null", "Middle-null"));
+        assertThat(libraryManager.getLibraryCache().getSize(), greaterThan(0L));
+
+        libraryManager = createLibraryManager();
+        assertThat(translate(libraryManager).toXml(), is(elm));
+        assertThat(libraryManager.getTranslators().isEmpty(), is(true));
+        assertThat(libraryManager.getLibraries().keySet(), containsInAnyOrder("Base-null", "Middle-null"));
+    }
+
+    @Test
+    public void testChangedIncludeInvalidatesDependents() throws IOException {
+        translate(createLibraryManager());
+
+        sources.put("Base", "library Base\n\ndefine X: 2\n");
+        LibraryManager libraryManager = createLibraryManager();
+        translate(libraryManager);
+        // Middle itself is unchanged, but it was translated against the previous Base
+        assertThat(libraryManager.getTranslators().keySet(), containsInAnyOrder("Base-null", "Middle-null"));
+
+        libraryManager = createLibraryManager();
+        translate(libraryManager);
+        assertThat(libraryManager.getTranslators().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testLibrariesWithErrorsAreNotCached() throws IOException {
+        sources.put("Base", "library Base\n\ndefine X: Undefined\n");
+        LibraryManager libraryManager = createLibraryManager();
+        CqlTranslator translator = CqlTranslator.fromText("library Top\n\ninclude Middle\n\ndefine Z: Middle.Y\n",
+                modelManager, libraryManager);
+        assertThat(translator.getErrors().size(), greaterThan(0));
+        assertThat(createLibraryManager().getLibraryCache().getSize(), is(0L));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        TranslatedLibraryCache cache = new TranslatedLibraryCache(directory, 1000);
+        TranslatedLibraryCache.Entry entry = new TranslatedLibraryCache.Entry("key", Collections.emptyList(),
+                Collections.emptyList(), new byte[350]);
+        String a = cache.getSourceKey("a".getBytes(StandardCharsets.UTF_8), EnumSet.noneOf(CqlTranslator.Options.class));
+        String b = cache.getSourceKey("b".getBytes(StandardCharsets.UTF_8), EnumSet.noneOf(CqlTranslator.Options.class));
+        String c = cache.getSourceKey("c".getBytes(StandardCharsets.UTF_8), EnumSet.noneOf(CqlTranslator.Options.class));
+
+        cache.write(a, entry);
+        cache.write(b, entry);
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(directory.resolve(a + ".elmc"), FileTime.fromMillis(now - 20000));
+        Files.setLastModifiedTime(directory.resolve(b + ".elmc"), FileTime.fromMillis(now - 10000));
+
+        // Reading a makes b the least recently used entry
+        assertThat(cache.read(a).getLibrary().length, is(350));
+        cache.write(c, entry);
+
+        assertThat(cache.read(a), notNullValue());
+        assertThat(cache.read(b), nullValue());
+        assertThat(cache.read(c), notNullValue());
+        assertThat(cache.getSize(), lessThanOrEqualTo(cache.getMaxSize()));
+    }
+
+    @Test
+    public void testUnreadableEntryIsIgnored() throws IOException {
+        TranslatedLibraryCache cache = new TranslatedLibraryCache(directory, 1000);
+        String a = cache.getSourceKey("a".getBytes(StandardCharsets.UTF_8), EnumSet.noneOf(CqlTranslator.Options.class));
+        Files.write(directory.resolve(a + ".elmc"), "not an entry".getBytes(StandardCharsets.UTF_8));
+        assertThat(cache.read(a), nullValue());
+    }
+
+    @Test
+    public void testSourceKeyDependsOnOptions() throws IOException {
+        TranslatedLibraryCache cache = new TranslatedLibraryCache(directory, 1000);
+        byte[] source = sources.get("Base").getBytes(StandardCharsets.UTF_8);
+        String key = cache.getSourceKey(source, EnumSet.noneOf(CqlTranslator.Options.class));
+        assertThat(cache.getSourceKey(source, EnumSet.noneOf(CqlTranslator.Options.class)), is(key));
+        assertThat(cache.getSourceKey(source, EnumSet.of(CqlTranslator.Options.EnableAnnotations)), not(key));
+    }
+
+    @Test
+    public void testModelInfoDigestDependsOnContent() throws ClassNotFoundException {
+        ModelManager modelManager = new ModelManager();
+        Model fhir = modelManager.resolveModel("FHIR", "3.0.0");
+        String digest = TranslatedLibraryCache.getModelInfoDigest(fhir);
+        assertThat(fhir.getModelInfoDigest(), sameInstance(digest));
+        assertThat(TranslatedLibraryCache.getModelInfoDigest(fhir), sameInstance(digest));
+
+        // A copy of the header only, with the same name and version
+        ModelInfo header = new ModelInfo().withName(fhir.getModelInfo().getName()).withVersion(fhir.getModelInfo().getVersion());
+        Model headerModel = new Model(header, modelManager.resolveModel("System"));
+        assertThat(TranslatedLibraryCache.getModelInfoDigest(headerModel), not(digest));
+    }
+}
@@ -0,0 +1,111 @@
+package org.cqframework.cql.cql2elm;
+
+import org.cqframework.cql.cql2elm.model.TranslatedLibrary;
+import org.hl7.elm.r1.ExpressionDef;
+import org.hl7.elm.r1.FunctionDef;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class TranslatedLibraryWriterTest {
+    private ModelManager modelManager;
+
+    private CqlTranslator translate(String fileName, CqlTranslator.Options... options) throws IOException {
+        modelManager = new ModelManager();
+        CqlTranslator translator = CqlTranslator.fromStream(TranslatedLibraryWriterTest.class.getResourceAsStream(fileName),
+                modelManager, new LibraryManager(modelManager), options);
+        assertThat(translator.getErrors().size(), is(0));
+        return translator;
+    }
+
+    private TranslatedLibrary roundTrip(TranslatedLibrary library) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new TranslatedLibraryWriter(modelManager).write(library, outputStream);
+        return new TranslatedLibraryReader(new ModelManager()).read(new ByteArrayInputStream(outputStream.toByteArray()));
+    }
+
+    private String toXml(TranslatedLibrary library) throws JAXBException {
+        StringWriter writer = new StringWriter();
+        ElmJaxbContext.getDefault().marshalXml(library.getLibrary(), writer);
+        return writer.toString();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, JAXBException {
+        CqlTranslator translator = translate("CMS146v2_Test_CQM.cql");
+        TranslatedLibrary library = roundTrip(translator.getTranslatedLibrary());
+        assertThat(library.getIdentifier(), is(translator.getTranslatedLibrary().getIdentifier()));
+        assertThat(toXml(library), is(translator.toXml()));
+    }
+
+    @Test
+    public void testRoundTripWithDebugInformation() throws IOException, JAXBException {
+        CqlTranslator translator = translate("CMS146v2_Test_CQM.cql", CqlTranslator.Options.EnableAnnotations,
+                CqlTranslator.Options.EnableLocators, CqlTranslator.Options.EnableResultTypes);
+        TranslatedLibrary library = roundTrip(translator.getTranslatedLibrary());
+        assertThat(toXml(library), is(translator.toXml()));
+    }
+
+    @Test
+    public void testResultTypes() throws IOException {
+        CqlTranslator translator = translate("CMS146v2_Test_CQM.cql");
+        TranslatedLibrary library = roundTrip(translator.getTranslatedLibrary());
+
+        for (int i = 0; i < translator.toELM().getStatements().getDef().size(); i++) {
+            ExpressionDef def = translator.toELM().getStatements().getDef().get(i);
+            ExpressionDef readDef = library.resolveExpressionRef(def.getName());
+            assertThat(def.getName(), readDef, sameInstance(library.getLibrary().getStatements().getDef().get(i)));
+            assertThat(def.getName(), readDef.getResultType(), is(def.getResultType()));
+            assertThat(def.getName(), readDef.getExpression().getResultType(), is(def.getExpression().getResultType()));
+            assertThat(def.getName(), readDef.getTrackbacks(), is(def.getTrackbacks()));
+        }
+    }
+
+    @Test
+    public void testOperators() throws IOException {
+        CqlTranslator translator = translate("OperatorTests/Functions.cql");
+        TranslatedLibrary library = roundTrip(translator.getTranslatedLibrary());
+
+        int functionCount = 0;
+        for (ExpressionDef def : translator.toELM().getStatements().getDef()) {
+            if (def instanceof FunctionDef) {
+                assertThat(def.getName(), library.contains((FunctionDef)def), is(true));
+                functionCount++;
+            }
+        }
+        assertThat(functionCount, greaterThan(0));
+    }
+
+    @Test
+    public void testTypesOfIncludedModels() throws IOException {
+        // Top has no using of FHIR, its result types are FHIR types only through the include
+        modelManager = new ModelManager();
+        LibraryManager libraryManager = new LibraryManager(modelManager);
+        libraryManager.getLibrarySourceLoader().registerProvider(libraryIdentifier -> "Base".equals(libraryIdentifier.getId())
+                ? new ByteArrayInputStream("library Base\n\nusing FHIR version '3.0.0'\n\ncontext Patient\n\ndefine Patients: [Patient]\n".getBytes(StandardCharsets.UTF_8))
+                : null);
+        CqlTranslator translator = CqlTranslator.fromText("library Top\n\ninclude Base\n\ncontext Patient\n\ndefine P: Base.Patients\n",
+                modelManager, libraryManager);
+        assertThat(translator.getErrors().size(), is(0));
+
+        ModelManager readingModelManager = new ModelManager(null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new TranslatedLibraryWriter(modelManager).write(translator.getTranslatedLibrary(), outputStream);
+        TranslatedLibrary library = new TranslatedLibraryReader(readingModelManager).read(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertThat(library.resolveExpressionRef("P").getResultType(), is(translator.getTranslatedLibrary().resolveExpressionRef("P").getResultType()));
+        assertThat(readingModelManager.resolveModel("FHIR").getModelInfo().getVersion(), is("3.0.0"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidInput() throws IOException {
+        new TranslatedLibraryReader(new ModelManager()).read(new ByteArrayInputStream("<library/>".getBytes("UTF-8")));
+    }
+}
@@ -1,5 +1,6 @@
 package org.cqframework.cql.cql2elm;
 
+import org.antlr.v4.runtime.atn.PredictionMode;
 import org.testng.annotations.Test;
 
 import javax.xml.bind.JAXBException;
@@ -31,4 +32,29 @@ public class TranslationTests {
         String actualXml = CqlTranslator.fromFile(cqlFile, modelManager, new LibraryManager(modelManager)).toXml();
         assertThat(actualXml, is(expectedXml));
     }
+
+    @Test
+    public void testTwoStageParsing() throws IOException {
+        File cqlFile = new File(Cql2ElmVisitorTest.class.getResource("CMS146v2_Test_CQM.cql").getFile());
+        ModelManager modelManager = new ModelManager();
+        CqlTranslator translator = CqlTranslator.fromFile(cqlFile, modelManager, new LibraryManager(modelManager));
+        assertThat(translator.getPredictionMode(), is(PredictionMode.LL));
+
+        CqlTranslator twoStageTranslator = CqlTranslator.fromFile(cqlFile, modelManager, new LibraryManager(modelManager),
+                CqlTranslator.Options.EnableTwoStageParsing);
+        assertThat(twoStageTranslator.getPredictionMode(), is(PredictionMode.SLL));
+        assertThat(twoStageTranslator.getErrors().size(), is(0));
+        assertThat(twoStageTranslator.toXml(), is(translator.toXml()));
+    }
+
+    @Test
+    public void testTwoStageParsingSyntaxError() {
+        ModelManager modelManager = new ModelManager();
+        CqlTranslator translator = CqlTranslator.fromText("define Broken: (1 + ", modelManager, new LibraryManager(modelManager));
+        CqlTranslator twoStageTranslator = CqlTranslator.fromText("define Broken: (1 + ", modelManager, new LibraryManager(modelManager),
+                CqlTranslator.Options.EnableTwoStageParsing);
+        assertThat(twoStageTranslator.getPredictionMode(), is(PredictionMode.LL));
+        assertThat(twoStageTranslator.getErrors().size(), is(translator.getErrors().size()));
+        assertThat(twoStageTranslator.getErrors().size() > 0, is(true));
+    }
 }
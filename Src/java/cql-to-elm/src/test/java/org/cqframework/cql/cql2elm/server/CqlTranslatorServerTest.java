@@ -0,0 +1,97 @@
+package org.cqframework.cql.cql2elm.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.cqframework.cql.cql2elm.CqlTranslator;
+import org.cqframework.cql.cql2elm.CqlTranslatorException;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CqlTranslatorServerTest {
+    private Path getLibraryPath() throws URISyntaxException {
+        return Paths.get(CqlTranslatorServerTest.class.getResource("/org/cqframework/cql/cql2elm/LibraryTests").toURI());
+    }
+
+    @Test
+    public void testServeLines() throws IOException {
+        String requests = "{\"id\": 1, \"cql\": \"library Test define X: 1 + 1\", \"format\": \"JSON\"}\n"
+                + "\n"
+                + "{\"id\": \"two\", \"cql\": \"library Test define X: 1 +\"}\n"
+                + "{\"id\": 3, \"options\": [\"EnableAnnotations\"]}\n"
+                + "{\"command\": \"shutdown\"}\n"
+                + "{\"id\": 5, \"cql\": \"library Test define X: 1\"}\n";
+        StringWriter responses = new StringWriter();
+        CqlTranslatorServer server = new CqlTranslatorServer(null);
+        server.serve(new BufferedReader(new StringReader(requests)), responses);
+        assertThat(server.isShutdown(), is(true));
+
+        String[] lines = responses.toString().split("\n");
+        assertThat(lines.length, is(4));
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode first = mapper.readTree(lines[0]);
+        assertThat(first.get("id").asInt(), is(1));
+        assertThat(first.get("elm").asText(), containsString("\"library\""));
+        assertThat(first.get("exceptions").size(), is(0));
+
+        JsonNode second = mapper.readTree(lines[1]);
+        assertThat(second.get("id").asText(), is("two"));
+        assertThat(second.get("exceptions").size(), greaterThan(0));
+        assertThat(second.get("exceptions").get(0).get("severity").asText(), is("Error"));
+        assertThat(second.get("exceptions").get(0).has("startLine"), is(true));
+
+        JsonNode third = mapper.readTree(lines[2]);
+        assertThat(third.get("error").asText(), is("Request does not contain cql."));
+    }
+
+    @Test
+    public void testClient() throws Exception {
+        CqlTranslatorServer server = new CqlTranslatorServer(getLibraryPath());
+        ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> serving = executor.submit(() -> {
+                server.serve(serverSocket);
+                return null;
+            });
+
+            String cql = new String(Files.readAllBytes(getLibraryPath().resolve("ReferencingLibrary.cql")), StandardCharsets.UTF_8);
+            try (CqlTranslatorClient client = new CqlTranslatorClient(serverSocket.getLocalPort())) {
+                CqlTranslatorClient.Result result = client.translate(cql, CqlTranslator.Format.XML,
+                        CqlTranslatorException.ErrorSeverity.Info, CqlTranslator.Options.EnableAnnotations);
+                assertThat(result.getErrors().size(), is(0));
+                assertThat(result.getElm(), containsString("BaseLibrary"));
+
+                result = client.translate("library Test define X: Missing", CqlTranslator.Format.XML,
+                        CqlTranslatorException.ErrorSeverity.Info);
+                assertThat(result.getErrors().size(), is(1));
+                assertThat(result.getErrors().get(0).getLocator().getStartLine(), is(1));
+
+                client.reset();
+                client.shutdown();
+            }
+
+            serving.get(10, TimeUnit.SECONDS);
+            assertThat(serverSocket.isClosed(), is(true));
+        }
+        finally {
+            executor.shutdownNow();
+            serverSocket.close();
+        }
+    }
+}
@@ -7,6 +7,8 @@ import org.hl7.elm.r1.ExpressionDef;
 import org.hl7.elm.r1.Library;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.util.*;
 
@@ -34,24 +36,34 @@ public class CQLtoELM {
     private File parentCQLLibraryFile;
 
     /**
-     * The parent elm string from cql-to-elm translation
+     * The parent elm string from cql-to-elm translation, built when first requested
      */
     private String parentElmString;
 
     /**
-     * This list of elm strings from cql-to-elm translation
+     * This list of elm strings from cql-to-elm translation, built when first requested
      */
-    private List<String> elmStrings = new ArrayList<>();
+    private List<String> elmStrings;
 
     /**
-     * The parent json elm string
+     * The parent json elm string, built when first requested
      */
     private String parentJsonString;
 
     /**
-     * The list of json elm strings from the cql-to-elm translation
+     * The list of json elm strings from the cql-to-elm translation, built when first requested
      */
-    private List<String> jsonStrings = new ArrayList<>();
+    private List<String> jsonStrings;
+
+    /**
+     * The formats requested from cql-to-elm translation
+     */
+    private List<String> formats = new ArrayList<>();
+
+    /**
+     * The translators of the parent library and the libraries it includes
+     */
+    private List<CqlTranslator> translators = new ArrayList<>();
 
     /**
      * The cql library holder mapping. It should follow the format. <String, String>, where the key is in the format
@@ -64,6 +76,11 @@ public class CQLtoELM {
      */
     private Library parentLibrary;
 
+    /**
+     * The translator for the parent cql library
+     */
+    private CqlTranslator parentTranslator;
+
     /**
      * The messagse from cql-to-elm translation
      */
@@ -81,6 +98,11 @@ public class CQLtoELM {
 
     Map<String, TrackBack> trackBackMap = new HashMap<>();
 
+    /**
+     * The jaxb context used to serialize elm, defaults to the context shared by all translators
+     */
+    private ElmJaxbContext jaxbContext = ElmJaxbContext.getDefault();
+
     /**
      * CQL to ELM constructor from strings.
      * @param parentCQLLibraryString the parent cql library string
@@ -249,6 +271,7 @@ public class CQLtoELM {
         }
 
         // the parent library is the one that is returned from the parent translator
+        this.parentTranslator = translator;
         this.parentLibrary = translator.getTranslatedLibrary().getLibrary();
         libraryManager.getTranslators().put(this.parentLibrary.getIdentifier().getId() + "-" + this.parentLibrary.getIdentifier().getVersion(), translator);
 
@@ -272,21 +295,17 @@ public class CQLtoELM {
             this.libraryHolderMap.put(currentLibraryName, holder);
         }
 
-        // output the elm strings
-        if(formats.contains("XML")) {
-            this.parentElmString = translator.toXml();
-            for(CqlTranslator currentTranslator : libraryManager.getTranslators().values()) {
-                this.elmStrings.add(currentTranslator.toXml());
-            }
+        for(CqlTranslator currentTranslator : libraryManager.getTranslators().values()) {
+            currentTranslator.setJaxbContext(this.jaxbContext);
         }
 
-        // output the json strings
-        if(formats.contains("JSON")) {
-            this.parentJsonString = translator.toJson();
-            for(CqlTranslator currentTranslator : libraryManager.getTranslators().values()) {
-                this.jsonStrings.add(currentTranslator.toJson());
-            }
-        }
+        // the elm and json strings are only built when requested, writeElm and writeJson stream the output instead
+        this.formats = new ArrayList<>(formats);
+        this.translators = new ArrayList<>(libraryManager.getTranslators().values());
+        this.parentElmString = null;
+        this.elmStrings = null;
+        this.parentJsonString = null;
+        this.jsonStrings = null;
 
 //        if(format.equalsIgnoreCase("COFFEE")) {
 //            this.parentElmString = "module.exports = " + translator.toJson();
@@ -296,6 +315,42 @@ public class CQLtoELM {
 //        }
     }
 
+    /**
+     * Writes the parent elm xml from cql-to-elm translation directly to the given stream, without building a string
+     * @param outputStream the stream to write to, it is left open
+     */
+    public void writeElm(OutputStream outputStream) {
+        this.parentTranslator.writeXml(outputStream);
+    }
+
+    /**
+     * Writes the parent json elm from cql-to-elm translation directly to the given stream, without building a string
+     * @param outputStream the stream to write to, it is left open
+     */
+    public void writeJson(OutputStream outputStream) {
+        this.parentTranslator.writeJson(outputStream);
+    }
+
+    /**
+     * Gets the jaxb context used to serialize elm
+     * @return the jaxb context
+     */
+    public ElmJaxbContext getJaxbContext() {
+        return jaxbContext;
+    }
+
+    /**
+     * Sets the jaxb context used to serialize elm, for use when a custom context is needed
+     * @param jaxbContext the jaxb context
+     */
+    public void setJaxbContext(ElmJaxbContext jaxbContext) {
+        if (jaxbContext == null) {
+            throw new IllegalArgumentException("jaxbContext is null");
+        }
+
+        this.jaxbContext = jaxbContext;
+    }
+
     /**
      * Gets the parent library
      * @return returns the parent library
@@ -349,6 +404,12 @@ public class CQLtoELM {
      * @return the parent elm string
      */
     public String getElmString() {
+        if (this.parentElmString == null && this.parentTranslator != null && this.formats.contains("XML")) {
+            StringWriter writer = new StringWriter();
+            this.parentTranslator.writeXml(writer);
+            this.parentElmString = writer.toString();
+        }
+
         return this.parentElmString;
     }
 
@@ -357,6 +418,18 @@ public class CQLtoELM {
      * @return the list of elm strings
      */
     public List<String> getElmStrings() {
+        if (this.elmStrings == null) {
+            List<String> result = new ArrayList<>();
+            if (this.formats.contains("XML")) {
+                for (CqlTranslator currentTranslator : this.translators) {
+                    StringWriter writer = new StringWriter();
+                    currentTranslator.writeXml(writer);
+                    result.add(writer.toString());
+                }
+            }
+            this.elmStrings = result;
+        }
+
         return elmStrings;
     }
 
@@ -365,6 +438,12 @@ public class CQLtoELM {
      * @return the parent json elm string
      */
     public String getParentJsonString() {
+        if (this.parentJsonString == null && this.parentTranslator != null && this.formats.contains("JSON")) {
+            StringWriter writer = new StringWriter();
+            this.parentTranslator.writeJson(writer);
+            this.parentJsonString = writer.toString();
+        }
+
         return parentJsonString;
     }
 
@@ -373,6 +452,18 @@ public class CQLtoELM {
      * @return the list of json elm strings
      */
     public List<String> getJsonStrings() {
+        if (this.jsonStrings == null) {
+            List<String> result = new ArrayList<>();
+            if (this.formats.contains("JSON")) {
+                for (CqlTranslator currentTranslator : this.translators) {
+                    StringWriter writer = new StringWriter();
+                    currentTranslator.writeJson(writer);
+                    result.add(writer.toString());
+                }
+            }
+            this.jsonStrings = result;
+        }
+
         return jsonStrings;
     }
 
@@ -78,22 +78,45 @@ public class ClassType extends DataType implements NamedType {
     public void setPrimaryCodePath(String primaryCodePath) { this.primaryCodePath = primaryCodePath; }
 
     private List<ClassTypeElement> elements = new ArrayList<ClassTypeElement>();
-    private List<ClassTypeElement> sortedElements = null;
-    private LinkedHashMap<String, ClassTypeElement> baseElementMap = null;
+    // Lazily computed caches are built completely before being published, so that types can be shared across threads
+    private volatile List<ClassTypeElement> sortedElements = null;
+    private volatile LinkedHashMap<String, ClassTypeElement> baseElementMap = null;
+    private volatile Map<String, ClassTypeElement> elementIndex = null;
+
+    private volatile Runnable elementResolver;
+
+    /**
+     * Sets a resolver that adds the elements of the type the first time they are needed, for types that are
+     * imported on demand. The resolver must add the elements and then clear itself, and must be safe to run from
+     * several threads at once.
+     */
+    public void setElementResolver(Runnable elementResolver) {
+        this.elementResolver = elementResolver;
+    }
+
+    private void resolveElements() {
+        Runnable resolver = elementResolver;
+        if (resolver != null) {
+            resolver.run();
+        }
+    }
 
     public List<ClassTypeElement> getElements() {
+        resolveElements();
         return elements;
     }
 
     private LinkedHashMap<String, ClassTypeElement> getBaseElementMap() {
-        if (baseElementMap == null) {
-            baseElementMap = new LinkedHashMap<>();
+        LinkedHashMap<String, ClassTypeElement> result = baseElementMap;
+        if (result == null) {
+            result = new LinkedHashMap<>();
             if (getBaseType() instanceof ClassType) {
-                ((ClassType)getBaseType()).gatherElements(baseElementMap);
+                ((ClassType)getBaseType()).gatherElements(result);
             }
+            baseElementMap = result;
         }
 
-        return baseElementMap;
+        return result;
     }
 
     private void gatherElements(LinkedHashMap<String, ClassTypeElement> elementMap) {
@@ -101,17 +124,38 @@ public class ClassType extends DataType implements NamedType {
             ((ClassType)getBaseType()).gatherElements(elementMap);
         }
 
-        for (ClassTypeElement element : elements) {
+        for (ClassTypeElement element : getElements()) {
             elementMap.put(element.getName(), element);
         }
     }
 
+    /**
+     * Returns the element with the given name, declared by this type or inherited from its base types, as a search of
+     * this type's elements and then those of each base type in turn would find it.
+     * @param name the name of the element
+     * @return the element, or null if neither this type nor its base types have an element with the given name
+     */
+    public ClassTypeElement findElement(String name) {
+        Map<String, ClassTypeElement> result = elementIndex;
+        if (result == null) {
+            result = new HashMap<>();
+            for (DataType type = this; type instanceof ClassType; type = type.getBaseType()) {
+                for (ClassTypeElement element : ((ClassType)type).getElements()) {
+                    result.putIfAbsent(element.getName(), element);
+                }
+            }
+            elementIndex = result;
+        }
+
+        return result.get(name);
+    }
+
     public List<ClassTypeElement> getAllElements() {
         // Get the baseClass elements into a map by name
         LinkedHashMap<String, ClassTypeElement> elementMap = new LinkedHashMap<>(getBaseElementMap());
 
         // Add this class's elements, overwriting baseClass definitions where applicable
-        for (ClassTypeElement el : elements) {
+        for (ClassTypeElement el : getElements()) {
             elementMap.put(el.getName(), el);
         }
 
@@ -142,6 +186,7 @@ public class ClassType extends DataType implements NamedType {
     {
         internalAddElement(element);
         sortedElements = null;
+        elementIndex = null;
         tupleType = null;
     }
 
@@ -151,16 +196,19 @@ public class ClassType extends DataType implements NamedType {
         }
 
         sortedElements = null;
+        elementIndex = null;
         tupleType = null;
     }
 
     private List<ClassTypeElement> getSortedElements() {
-        if (sortedElements == null) {
-            sortedElements = new ArrayList<>(elements);
-            Collections.sort(sortedElements, (left, right) -> left.getName().compareTo(right.getName()));
+        List<ClassTypeElement> result = sortedElements;
+        if (result == null) {
+            result = new ArrayList<>(getElements());
+            Collections.sort(result, (left, right) -> left.getName().compareTo(right.getName()));
+            sortedElements = result;
         }
 
-        return sortedElements;
+        return result;
     }
 
     @Override
@@ -188,13 +236,15 @@ public class ClassType extends DataType implements NamedType {
         return this.label == null ? this.name : this.label;
     }
 
-    private TupleType tupleType;
+    private volatile TupleType tupleType;
     public TupleType getTupleType() {
-        if (tupleType == null) {
-            tupleType = buildTupleType();
+        TupleType result = tupleType;
+        if (result == null) {
+            result = buildTupleType();
+            tupleType = result;
         }
 
-        return tupleType;
+        return result;
     }
 
     private void addTupleElements(ClassType classType, LinkedHashMap<String, TupleTypeElement> elements) {
@@ -236,7 +286,7 @@ public class ClassType extends DataType implements NamedType {
 
     @Override
     public boolean isGeneric() {
-        for (ClassTypeElement e : elements) {
+        for (ClassTypeElement e : getElements()) {
             if (e.getType().isGeneric()) {
                 return true;
             }
@@ -249,7 +299,7 @@ public class ClassType extends DataType implements NamedType {
     public boolean isInstantiable(DataType callType, InstantiationContext context) {
         if (callType instanceof ClassType) {
             ClassType classType = (ClassType)callType;
-            if (elements.size() == classType.elements.size()) {
+            if (getElements().size() == classType.getElements().size()) {
                 List<ClassTypeElement> theseElements = getSortedElements();
                 List<ClassTypeElement> thoseElements = classType.getSortedElements();
                 for (int i = 0; i < theseElements.size(); i++) {
@@ -272,6 +322,7 @@ public class ClassType extends DataType implements NamedType {
             return this;
         }
 
+        List<ClassTypeElement> elements = getElements();
         ClassType result = new ClassType(getName(), getBaseType());
         for (int i = 0; i < elements.size(); i++) {
             result.addElement(new ClassTypeElement(elements.get(i).getName(), elements.get(i).getType().instantiate(context)));
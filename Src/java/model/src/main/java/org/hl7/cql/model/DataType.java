@@ -13,31 +13,51 @@ public abstract class DataType {
         return baseType;
     }
 
+    // This type and its base types, from the root of the hierarchy (Any) down to this type. Equal types are at the
+    // same depth, so a type is a subtype of another if its ancestor at the depth of the other type is equal to it.
+    private volatile DataType[] ancestry;
+
+    private DataType[] getAncestry() {
+        DataType[] result = ancestry;
+        if (result == null) {
+            // Types equal to Any (such as Any itself, whose base type is null) are the root of the hierarchy
+            if (baseType == null || equals(ANY)) {
+                result = new DataType[] { this };
+            }
+            else {
+                DataType[] baseAncestry = baseType.getAncestry();
+                result = new DataType[baseAncestry.length + 1];
+                System.arraycopy(baseAncestry, 0, result, 0, baseAncestry.length);
+                result[baseAncestry.length] = this;
+            }
+            ancestry = result;
+        }
+
+        return result;
+    }
+
     public String toLabel() {
         return toString();
     }
 
     public boolean isSubTypeOf(DataType other) {
-        DataType currentType = this;
-        while (currentType != null) {
-            if (currentType.equals(other)) {
-                return true;
-            }
-            currentType = currentType.baseType;
+        if (other == null) {
+            return false;
         }
 
-        return false;
+        DataType[] thisAncestry = getAncestry();
+        int depth = other.getAncestry().length - 1;
+        return depth < thisAncestry.length && thisAncestry[depth].equals(other);
     }
 
     public boolean isSuperTypeOf(DataType other) {
-        while (other != null) {
-            if (equals(other)) {
-                return true;
-            }
-            other = other.baseType;
+        if (other == null) {
+            return false;
         }
 
-        return false;
+        DataType[] otherAncestry = other.getAncestry();
+        int depth = getAncestry().length - 1;
+        return depth < otherAncestry.length && equals(otherAncestry[depth]);
     }
 
     // Note that this is not how implicit/explicit conversions are defined, the notion of
@@ -0,0 +1,122 @@
+package org.hl7.cql.model;
+
+import java.util.*;
+
+/**
+ * Creates list, interval, choice and tuple types, returning the same instance for types with the same structure, so
+ * that equality checks between the types it creates are mostly reference comparisons.
+ *
+ * The members of a type are compared by identity, not equality, since types that are equal may still differ (class
+ * types are equal by name, for example, even when they are instantiations of a generic class type, or come from
+ * different versions of a model). Composite members are interned first, so types with the same structure do share
+ * one instance. Interned types must not be modified. An interner is not thread-safe.
+ */
+public class DataTypeInterner {
+
+    private static final class Key {
+        private final Class<?> kind;
+        private final Object[] members;
+        private final int hash;
+
+        public Key(Class<?> kind, Object[] members) {
+            this.kind = kind;
+            this.members = members;
+            int result = kind.hashCode();
+            for (Object member : members) {
+                result = 31 * result + (member instanceof DataType ? System.identityHashCode(member) : Objects.hashCode(member));
+            }
+            this.hash = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key that = (Key)o;
+            if (this.kind != that.kind || this.members.length != that.members.length) {
+                return false;
+            }
+
+            for (int i = 0; i < members.length; i++) {
+                if (members[i] instanceof DataType ? members[i] != that.members[i] : !Objects.equals(members[i], that.members[i])) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private final Map<Key, DataType> types = new HashMap<>();
+
+    public ListType listOf(DataType elementType) {
+        DataType member = intern(elementType);
+        return (ListType)types.computeIfAbsent(new Key(ListType.class, new Object[] { member }), k -> new ListType(member));
+    }
+
+    public IntervalType intervalOf(DataType pointType) {
+        DataType member = intern(pointType);
+        return (IntervalType)types.computeIfAbsent(new Key(IntervalType.class, new Object[] { member }), k -> new IntervalType(member));
+    }
+
+    public ChoiceType choiceOf(Iterable<DataType> choices) {
+        // Interned by the choices after expansion, as ChoiceType expands choices of choices
+        ChoiceType choiceType = new ChoiceType(choices);
+        List<DataType> members = new ArrayList<>();
+        for (DataType choice : choiceType.getTypes()) {
+            members.add(intern(choice));
+        }
+
+        return (ChoiceType)types.computeIfAbsent(new Key(ChoiceType.class, members.toArray()), k -> new ChoiceType(members));
+    }
+
+    public TupleType tupleOf(Iterable<TupleTypeElement> elements) {
+        List<Object> members = new ArrayList<>();
+        List<TupleTypeElement> internedElements = new ArrayList<>();
+        for (TupleTypeElement element : elements) {
+            DataType type = intern(element.getType());
+            members.add(element.getName());
+            members.add(type);
+            internedElements.add(type == element.getType() ? element : new TupleTypeElement(element.getName(), type));
+        }
+
+        return (TupleType)types.computeIfAbsent(new Key(TupleType.class, members.toArray()), k -> new TupleType(internedElements));
+    }
+
+    /**
+     * Returns the interned instance of the given type, if it is a list, interval, choice or tuple type, and the
+     * type itself otherwise.
+     * @param type the type
+     * @return the interned type
+     */
+    public DataType intern(DataType type) {
+        if (type instanceof ListType) {
+            return listOf(((ListType)type).getElementType());
+        }
+
+        if (type instanceof IntervalType) {
+            return intervalOf(((IntervalType)type).getPointType());
+        }
+
+        if (type instanceof ChoiceType) {
+            return choiceOf(((ChoiceType)type).getTypes());
+        }
+
+        if (type instanceof TupleType) {
+            return tupleOf(((TupleType)type).getElements());
+        }
+
+        return type;
+    }
+
+    public int size() {
+        return types.size();
+    }
+}
@@ -24,6 +24,10 @@ public class ListType extends DataType {
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
         if (o instanceof ListType) {
             ListType that = (ListType)o;
             return this.elementType.equals(that.elementType);
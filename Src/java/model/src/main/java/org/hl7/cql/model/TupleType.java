@@ -4,7 +4,10 @@ import java.util.*;
 
 public class TupleType extends DataType {
     private List<TupleTypeElement> elements = new ArrayList<TupleTypeElement>();
-    private List<TupleTypeElement> sortedElements = null;
+    // Lazily computed caches are built completely before being published, so that types can be shared across threads
+    private volatile List<TupleTypeElement> sortedElements = null;
+    private volatile Map<String, TupleTypeElement> elementIndex = null;
+    private volatile int hashCode;
 
     public TupleType(Collection<TupleTypeElement> elements) {
         super();
@@ -22,31 +25,59 @@ public class TupleType extends DataType {
         return elements;
     }
 
+    /**
+     * Returns the element with the given name.
+     * @param name the name of the element
+     * @return the element, or null if the tuple type has no element with the given name
+     */
+    public TupleTypeElement findElement(String name) {
+        Map<String, TupleTypeElement> result = elementIndex;
+        if (result == null) {
+            result = new HashMap<>();
+            for (TupleTypeElement element : elements) {
+                result.putIfAbsent(element.getName(), element);
+            }
+            elementIndex = result;
+        }
+
+        return result.get(name);
+    }
+
     public void addElement(TupleTypeElement element)
     {
         this.elements.add(element);
         sortedElements = null;
+        elementIndex = null;
+        hashCode = 0;
     }
 
     public void addElements(Collection<TupleTypeElement> elements) {
         this.elements.addAll(elements);
         sortedElements = null;
+        elementIndex = null;
+        hashCode = 0;
     }
 
     private List<TupleTypeElement> getSortedElements() {
-        if (sortedElements == null) {
-            sortedElements = new ArrayList<>(elements);
-            Collections.sort(sortedElements, (left, right) -> left.getName().compareTo(right.getName()));
+        List<TupleTypeElement> result = sortedElements;
+        if (result == null) {
+            result = new ArrayList<>(elements);
+            Collections.sort(result, (left, right) -> left.getName().compareTo(right.getName()));
+            sortedElements = result;
         }
 
-        return sortedElements;
+        return result;
     }
 
     @Override
     public int hashCode() {
-        int result = 13;
-        for (int i = 0; i < elements.size(); i++) {
-            result += (37 * elements.get(i).hashCode());
+        int result = hashCode;
+        if (result == 0) {
+            result = 13;
+            for (int i = 0; i < elements.size(); i++) {
+                result += (37 * elements.get(i).hashCode());
+            }
+            hashCode = result;
         }
 
         return result;
@@ -54,10 +85,14 @@ public class TupleType extends DataType {
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
         if (o instanceof TupleType) {
             TupleType that = (TupleType)o;
 
-            if (this.elements.size() == that.elements.size()) {
+            if (this.elements.size() == that.elements.size() && this.hashCode() == that.hashCode()) {
                 List<TupleTypeElement> theseElements = this.getSortedElements();
                 List<TupleTypeElement> thoseElements = that.getSortedElements();
                 for (int i = 0; i < theseElements.size(); i++) {